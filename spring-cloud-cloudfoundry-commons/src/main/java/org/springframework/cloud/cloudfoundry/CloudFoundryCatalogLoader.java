@@ -0,0 +1,334 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v3.BuildpackData;
+import org.cloudfoundry.client.v3.Lifecycle;
+import org.cloudfoundry.client.v3.Link;
+import org.cloudfoundry.client.v3.PaginatedResponse;
+import org.cloudfoundry.client.v3.Resource;
+import org.cloudfoundry.client.v3.applications.ApplicationResource;
+import org.cloudfoundry.client.v3.applications.ApplicationState;
+import org.cloudfoundry.client.v3.applications.ListApplicationsRequest;
+import org.cloudfoundry.client.v3.applications.ListApplicationsResponse;
+import org.cloudfoundry.client.v3.processes.ListProcessesRequest;
+import org.cloudfoundry.client.v3.processes.ListProcessesResponse;
+import org.cloudfoundry.client.v3.processes.ProcessResource;
+import org.cloudfoundry.client.v3.routes.Destination;
+import org.cloudfoundry.client.v3.routes.ListRoutesRequest;
+import org.cloudfoundry.client.v3.routes.ListRoutesResponse;
+import org.cloudfoundry.client.v3.routes.RouteResource;
+import org.cloudfoundry.operations.applications.ApplicationDetail;
+import org.cloudfoundry.operations.applications.InstanceDetail;
+import org.cloudfoundry.util.PaginationUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+/**
+ * Loads the running instances of every application in the target space at once. The
+ * applications, their web processes and their routes are each listed with a few paged
+ * requests to the Cloud Controller v3 API and joined in memory, instead of looking up
+ * every application separately.
+ * <p>
+ * The instances of a started application are those its web process asks for; their actual
+ * state is not fetched. Concurrent loads share a single set of requests.
+ * <p>
+ * After the first load, only the resources updated since the previous load are listed,
+ * and deleted resources are detected by comparing the number of resources known with the
+ * total reported by the Cloud Controller.
+ */
+public class CloudFoundryCatalogLoader {
+
+	/**
+	 * Largest page size accepted by the Cloud Controller.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 5000;
+
+	/**
+	 * Page size of the incremental loads, which usually find few resources updated.
+	 */
+	private static final int INCREMENTAL_PAGE_SIZE = 50;
+
+	private static final String WEB_PROCESS_TYPE = "web";
+
+	private static final String NEWEST_FIRST = "-updated_at";
+
+	private final CloudFoundryClient cloudFoundryClient;
+
+	private final Mono<String> spaceId;
+
+	private final int pageSize;
+
+	private final CloudFoundryRequestListener requestListener;
+
+	private final CloudFoundryRequestThrottle requestThrottle;
+
+	private final CloudFoundryRetryPolicy retryPolicy;
+
+	private volatile Listing<ApplicationResource> applications;
+
+	private volatile Listing<ProcessResource> processes;
+
+	private volatile Listing<RouteResource> routes;
+
+	private final AtomicReference<Mono<Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>>>> inFlight = new AtomicReference<>();
+
+	public CloudFoundryCatalogLoader(CloudFoundryClient cloudFoundryClient, Mono<String> spaceId) {
+		this(cloudFoundryClient, spaceId, DEFAULT_PAGE_SIZE);
+	}
+
+	public CloudFoundryCatalogLoader(CloudFoundryClient cloudFoundryClient, Mono<String> spaceId, int pageSize) {
+		this(cloudFoundryClient, spaceId, pageSize, CloudFoundryRequestListener.NONE);
+	}
+
+	public CloudFoundryCatalogLoader(CloudFoundryClient cloudFoundryClient, Mono<String> spaceId, int pageSize,
+			CloudFoundryRequestListener requestListener) {
+		this(cloudFoundryClient, spaceId, pageSize, requestListener, CloudFoundryRequestThrottle.UNLIMITED);
+	}
+
+	public CloudFoundryCatalogLoader(CloudFoundryClient cloudFoundryClient, Mono<String> spaceId, int pageSize,
+			CloudFoundryRequestListener requestListener, CloudFoundryRequestThrottle requestThrottle) {
+		this(cloudFoundryClient, spaceId, pageSize, requestListener, requestThrottle, CloudFoundryRetryPolicy.NONE);
+	}
+
+	public CloudFoundryCatalogLoader(CloudFoundryClient cloudFoundryClient, Mono<String> spaceId, int pageSize,
+			CloudFoundryRequestListener requestListener, CloudFoundryRequestThrottle requestThrottle,
+			CloudFoundryRetryPolicy retryPolicy) {
+		this.cloudFoundryClient = cloudFoundryClient;
+		this.spaceId = spaceId;
+		this.pageSize = pageSize;
+		this.requestListener = requestListener;
+		this.requestThrottle = requestThrottle;
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Loads the running instances of every application in the space.
+	 * @return the running instances of each application, by application name
+	 */
+	public Mono<Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>>> loadApplicationInstances() {
+		return Mono.defer(() -> this.inFlight.updateAndGet(current -> (current != null) ? current : sharedCatalog()));
+	}
+
+	private Mono<Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>>> sharedCatalog() {
+		return fetchCatalog().doFinally(signal -> this.inFlight.set(null)).cache();
+	}
+
+	private Mono<Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>>> fetchCatalog() {
+		return this.spaceId.flatMap(spaceId -> Mono.zip(
+				refresh(this.applications, (page, perPage) -> listApplications(spaceId, page, perPage)),
+				refresh(this.processes, (page, perPage) -> listProcesses(spaceId, page, perPage)),
+				refresh(this.routes, (page, perPage) -> listRoutes(spaceId, page, perPage)))).map(listings -> {
+					this.applications = listings.getT1();
+					this.processes = listings.getT2();
+					this.routes = listings.getT3();
+					return toCatalog(this.applications.resources.values(), this.processes.resources.values(),
+							this.routes.resources.values());
+				});
+	}
+
+	private Mono<ListApplicationsResponse> listApplications(String spaceId, int page, int perPage) {
+		return list(this.cloudFoundryClient.applicationsV3().list(ListApplicationsRequest.builder().spaceId(spaceId)
+				.orderBy(NEWEST_FIRST).page(page).perPage(perPage).build()));
+	}
+
+	private Mono<ListProcessesResponse> listProcesses(String spaceId, int page, int perPage) {
+		return list(this.cloudFoundryClient.processes().list(ListProcessesRequest.builder().spaceId(spaceId)
+				.type(WEB_PROCESS_TYPE).orderBy(NEWEST_FIRST).page(page).perPage(perPage).build()));
+	}
+
+	private Mono<ListRoutesResponse> listRoutes(String spaceId, int page, int perPage) {
+		return list(this.cloudFoundryClient.routesV3().list(ListRoutesRequest.builder().spaceId(spaceId)
+				.orderBy(NEWEST_FIRST).page(page).perPage(perPage).build()));
+	}
+
+	private <T> Mono<T> list(Mono<T> request) {
+		return this.retryPolicy.retry(this.requestThrottle.throttle(this.requestListener
+				.observe(CloudFoundryRequestListener.LIST, CloudFoundryRequestListener.NO_SERVICE, request)));
+	}
+
+	/**
+	 * Brings a listing up to date. The first load lists every resource; later loads list
+	 * the resources newest first, in small pages, and stop at the first one older than
+	 * the newest already seen. The total reported with the first page is then compared
+	 * with the number of resources known: since every resource the Cloud Controller still
+	 * has is known at that point, a difference means some were deleted, and only then is
+	 * the listing loaded again in full.
+	 */
+	private <R extends Resource> Mono<Listing<R>> refresh(Listing<R> listing, ResourcePages<R> pages) {
+		if (listing == null) {
+			return listAll(pages);
+		}
+		return pages.list(1, INCREMENTAL_PAGE_SIZE).flatMap(first -> {
+			Integer total = first.getPagination().getTotalResults();
+			return listUpdatedSince(pages, 1, first, listing.watermark).collectList().map(listing::merge).flatMap(
+					merged -> (total != null && total == merged.resources.size()) ? Mono.just(merged) : listAll(pages));
+		});
+	}
+
+	private <R extends Resource> Mono<Listing<R>> listAll(ResourcePages<R> pages) {
+		return PaginationUtils.requestClientV3Resources(page -> pages.list(page, this.pageSize)).collectList()
+				.map(resources -> new Listing<R>(Collections.emptyMap()).merge(resources));
+	}
+
+	private <R extends Resource> Flux<R> listUpdatedSince(ResourcePages<R> pages, int page,
+			PaginatedResponse<R> response, String watermark) {
+		List<R> updated = new ArrayList<>();
+		for (R resource : response.getResources()) {
+			if (isOlder(resource.getUpdatedAt(), watermark)) {
+				return Flux.fromIterable(updated);
+			}
+			updated.add(resource);
+		}
+		Flux<R> resources = Flux.fromIterable(updated);
+		if (response.getPagination().getNext() == null) {
+			return resources;
+		}
+		return resources.concatWith(pages.list(page + 1, INCREMENTAL_PAGE_SIZE)
+				.flatMapMany(next -> listUpdatedSince(pages, page + 1, next, watermark)));
+	}
+
+	private static boolean isOlder(String updatedAt, String watermark) {
+		return updatedAt != null && watermark != null && Instant.parse(updatedAt).isBefore(Instant.parse(watermark));
+	}
+
+	private static Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>> toCatalog(
+			Collection<ApplicationResource> applications, Collection<ProcessResource> processes,
+			Collection<RouteResource> routes) {
+		Map<String, ProcessResource> processesByApplication = new HashMap<>();
+		for (ProcessResource process : processes) {
+			String applicationId = applicationId(process);
+			if (applicationId != null) {
+				processesByApplication.put(applicationId, process);
+			}
+		}
+		Map<String, List<String>> urlsByApplication = new HashMap<>();
+		for (RouteResource route : routes) {
+			for (Destination destination : route.getDestinations()) {
+				urlsByApplication
+						.computeIfAbsent(destination.getApplication().getApplicationId(), key -> new ArrayList<>())
+						.add(route.getUrl());
+			}
+		}
+		Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>> catalog = new LinkedHashMap<>();
+		for (ApplicationResource application : applications) {
+			catalog.put(application.getName(),
+					applicationInstances(application, processesByApplication.get(application.getId()),
+							urlsByApplication.getOrDefault(application.getId(), Collections.emptyList())));
+		}
+		return catalog;
+	}
+
+	private static List<Tuple2<ApplicationDetail, InstanceDetail>> applicationInstances(ApplicationResource application,
+			ProcessResource process, List<String> urls) {
+		int instances = (process != null && process.getInstances() != null) ? process.getInstances() : 0;
+		int runningInstances = (application.getState() == ApplicationState.STARTED) ? instances : 0;
+		List<InstanceDetail> instanceDetails = new ArrayList<>(runningInstances);
+		for (int index = 0; index < runningInstances; index++) {
+			instanceDetails.add(InstanceDetail.builder().index(String.valueOf(index)).state("RUNNING").build());
+		}
+		ApplicationDetail applicationDetail = ApplicationDetail.builder().id(application.getId())
+				.name(application.getName()).requestedState(application.getState().getValue()).instances(instances)
+				.runningInstances(runningInstances).memoryLimit(valueOrZero(process, ProcessResource::getMemoryInMb))
+				.diskQuota(valueOrZero(process, ProcessResource::getDiskInMb)).stack(stack(application.getLifecycle()))
+				.urls(urls).instanceDetails(instanceDetails).build();
+		List<Tuple2<ApplicationDetail, InstanceDetail>> applicationInstances = new ArrayList<>(runningInstances);
+		for (InstanceDetail instanceDetail : instanceDetails) {
+			applicationInstances.add(Tuples.of(applicationDetail, instanceDetail));
+		}
+		return applicationInstances;
+	}
+
+	private static String applicationId(ProcessResource process) {
+		if (process.getRelationships() != null && process.getRelationships().getApp() != null) {
+			return process.getRelationships().getApp().getData().getId();
+		}
+		Link app = (process.getLinks() != null) ? process.getLinks().get("app") : null;
+		return (app != null) ? app.getHref().substring(app.getHref().lastIndexOf('/') + 1) : null;
+	}
+
+	private static String stack(Lifecycle lifecycle) {
+		if (lifecycle != null && lifecycle.getData() instanceof BuildpackData) {
+			String stack = ((BuildpackData) lifecycle.getData()).getStack();
+			return (stack != null) ? stack : "";
+		}
+		return "";
+	}
+
+	private static int valueOrZero(ProcessResource process, Function<ProcessResource, Integer> attribute) {
+		Integer value = (process != null) ? attribute.apply(process) : null;
+		return (value != null) ? value : 0;
+	}
+
+	/**
+	 * Lists one page of resources, newest first.
+	 */
+	private interface ResourcePages<R extends Resource> {
+
+		Mono<? extends PaginatedResponse<R>> list(int page, int perPage);
+
+	}
+
+	/**
+	 * The resources of one type known so far, by GUID, and the newest update seen.
+	 */
+	private static final class Listing<R extends Resource> {
+
+		private final Map<String, R> resources;
+
+		private final String watermark;
+
+		private Listing(Map<String, R> resources) {
+			this.resources = resources;
+			String watermark = null;
+			for (R resource : resources.values()) {
+				String updatedAt = resource.getUpdatedAt();
+				if (updatedAt != null && (watermark == null || isOlder(watermark, updatedAt))) {
+					watermark = updatedAt;
+				}
+			}
+			this.watermark = watermark;
+		}
+
+		private Listing<R> merge(List<R> updated) {
+			if (updated.isEmpty()) {
+				return this;
+			}
+			Map<String, R> resources = new LinkedHashMap<>(this.resources);
+			for (R resource : updated) {
+				resources.put(resource.getId(), resource);
+			}
+			return new Listing<>(resources);
+		}
+
+	}
+
+}
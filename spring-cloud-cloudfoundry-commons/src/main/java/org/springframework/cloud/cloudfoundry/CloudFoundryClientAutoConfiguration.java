@@ -16,6 +16,8 @@
 
 package org.springframework.cloud.cloudfoundry;
 
+import java.util.stream.Collectors;
+
 import org.cloudfoundry.client.CloudFoundryClient;
 import org.cloudfoundry.doppler.DopplerClient;
 import org.cloudfoundry.operations.CloudFoundryOperations;
@@ -26,18 +28,25 @@ import org.cloudfoundry.reactor.TokenProvider;
 import org.cloudfoundry.reactor.client.ReactorCloudFoundryClient;
 import org.cloudfoundry.reactor.doppler.ReactorDopplerClient;
 import org.cloudfoundry.reactor.routing.ReactorRoutingClient;
+import org.cloudfoundry.reactor.tokenprovider.AbstractUaaTokenProvider;
+import org.cloudfoundry.reactor.tokenprovider.ClientCredentialsGrantTokenProvider;
 import org.cloudfoundry.reactor.tokenprovider.PasswordGrantTokenProvider;
 import org.cloudfoundry.reactor.uaa.ReactorUaaClient;
 import org.cloudfoundry.routing.RoutingClient;
 import org.cloudfoundry.uaa.UaaClient;
+import reactor.netty.resources.ConnectionProvider;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Primary;
 
 /**
  * Provides auto-configuration for the Reactor-based Cloud Foundry client v3.x.
@@ -47,7 +56,7 @@ import org.springframework.context.annotation.Lazy;
  * @author Scott Frederick
  */
 @Configuration(proxyBeanMethods = false)
-@ConditionalOnProperty(prefix = "spring.cloud.cloudfoundry", name = { "username", "password" })
+@Conditional(OnCloudFoundryCredentialsCondition.class)
 @ConditionalOnClass(name = { "reactor.core.publisher.Flux", "org.cloudfoundry.operations.DefaultCloudFoundryOperations",
 		"org.cloudfoundry.reactor.client.ReactorCloudFoundryClient", "org.reactivestreams.Publisher" })
 @EnableConfigurationProperties(CloudFoundryProperties.class)
@@ -62,8 +71,49 @@ public class CloudFoundryClientAutoConfiguration {
 	@Bean
 	@Lazy
 	@ConditionalOnMissingBean
-	public CloudFoundryService cloudFoundryService(CloudFoundryOperations cloudFoundryOperations) {
-		return new CloudFoundryService(cloudFoundryOperations);
+	public CloudFoundryService cloudFoundryService(CloudFoundryOperations cloudFoundryOperations,
+			ObjectProvider<CloudFoundryRequestListener> requestListeners,
+			CloudFoundryRequestThrottle cloudFoundryRequestThrottle, CloudFoundryRetryPolicy cloudFoundryRetryPolicy) {
+		return new CloudFoundryService(cloudFoundryOperations, requestListener(requestListeners),
+				cloudFoundryRequestThrottle, cloudFoundryRetryPolicy);
+	}
+
+	@Bean
+	@Lazy
+	@ConditionalOnMissingBean
+	public CloudFoundryCatalogLoader cloudFoundryCatalogLoader(CloudFoundryClient cloudFoundryClient,
+			DefaultCloudFoundryOperations cloudFoundryOperations,
+			ObjectProvider<CloudFoundryRequestListener> requestListeners,
+			CloudFoundryRequestThrottle cloudFoundryRequestThrottle, CloudFoundryRetryPolicy cloudFoundryRetryPolicy) {
+		return new CloudFoundryCatalogLoader(cloudFoundryClient, cloudFoundryOperations.getSpaceId(),
+				CloudFoundryCatalogLoader.DEFAULT_PAGE_SIZE, requestListener(requestListeners),
+				cloudFoundryRequestThrottle, cloudFoundryRetryPolicy);
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	public CloudFoundryRequestThrottle cloudFoundryRequestThrottle() {
+		return new CloudFoundryRequestThrottle(this.cloudFoundryProperties.getThrottle());
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	public CloudFoundryRetryPolicy cloudFoundryRetryPolicy() {
+		return new CloudFoundryRetryPolicy(this.cloudFoundryProperties.getRetry());
+	}
+
+	private static CloudFoundryRequestListener requestListener(
+			ObjectProvider<CloudFoundryRequestListener> requestListeners) {
+		return CloudFoundryRequestListener.of(requestListeners.orderedStream().collect(Collectors.toList()));
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@ConditionalOnProperty("spring.cloud.cloudfoundry.warm-up.enabled")
+	public CloudFoundryClientWarmUp cloudFoundryClientWarmUp(ConnectionContext connectionContext,
+			TokenProvider tokenProvider, CloudFoundryClient cloudFoundryClient) {
+		return new CloudFoundryClientWarmUp(connectionContext, tokenProvider, cloudFoundryClient,
+				this.cloudFoundryProperties.getWarmUp());
 	}
 
 	@Bean
@@ -111,20 +161,83 @@ public class CloudFoundryClientAutoConfiguration {
 	@Bean
 	@Lazy
 	@ConditionalOnMissingBean
-	public DefaultConnectionContext connectionContext() {
+	public DefaultConnectionContext connectionContext(ConnectionProvider connectionProvider) {
 		String apiHost = this.cloudFoundryProperties.getUrl();
 		Boolean skipSslValidation = this.cloudFoundryProperties.isSkipSslValidation();
 
-		return DefaultConnectionContext.builder().apiHost(apiHost).skipSslValidation(skipSslValidation).build();
+		return DefaultConnectionContext.builder().apiHost(apiHost).httpClient(CloudFoundryHttpClientFactory
+				.httpClient(connectionProvider, this.cloudFoundryProperties.getHttp(), skipSslValidation)).build();
+	}
+
+	@Bean(destroyMethod = "dispose")
+	@Lazy
+	@ConditionalOnMissingBean(name = "cloudFoundryConnectionProvider")
+	public ConnectionProvider cloudFoundryConnectionProvider() {
+		return CloudFoundryHttpClientFactory.connectionProvider(this.cloudFoundryProperties.getHttp());
 	}
 
 	@Bean
 	@Lazy
-	@ConditionalOnMissingBean
+	@ConditionalOnMissingBean(TokenProvider.class)
+	@ConditionalOnProperty(prefix = "spring.cloud.cloudfoundry", name = { "client-id", "client-secret" })
+	public ClientCredentialsGrantTokenProvider clientCredentialsTokenProvider() {
+		String clientId = this.cloudFoundryProperties.getClientId();
+		String clientSecret = this.cloudFoundryProperties.getClientSecret();
+		return ClientCredentialsGrantTokenProvider.builder().clientId(clientId).clientSecret(clientSecret).build();
+	}
+
+	@Bean
+	@Lazy
+	@ConditionalOnMissingBean(TokenProvider.class)
+	@ConditionalOnProperty(prefix = "spring.cloud.cloudfoundry", name = { "username", "password" })
 	public PasswordGrantTokenProvider tokenProvider() {
 		String username = this.cloudFoundryProperties.getUsername();
 		String password = this.cloudFoundryProperties.getPassword();
 		return PasswordGrantTokenProvider.builder().password(password).username(username).build();
 	}
 
+	@Bean
+	@Lazy
+	@Primary
+	@ConditionalOnBean(AbstractUaaTokenProvider.class)
+	@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.token-refresh.enabled", matchIfMissing = true)
+	public RefreshingTokenProvider refreshingTokenProvider(AbstractUaaTokenProvider tokenProvider,
+			CloudFoundryRetryPolicy cloudFoundryRetryPolicy) {
+		RefreshingTokenProvider refreshingTokenProvider = new RefreshingTokenProvider(tokenProvider,
+				this.cloudFoundryProperties.getTokenRefresh().getBeforeExpiry());
+		refreshingTokenProvider.setRetryPolicy(cloudFoundryRetryPolicy);
+		return refreshingTokenProvider;
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+	static class CloudFoundryClientMetricsConfiguration {
+
+		@Bean
+		@ConditionalOnMissingBean
+		CloudFoundryRequestMetrics cloudFoundryRequestMetrics(CloudFoundryProperties properties) {
+			return new CloudFoundryRequestMetrics(properties.getMetrics().getMaxServiceIds());
+		}
+
+		@Bean
+		CloudFoundryRequestThrottleMetrics cloudFoundryRequestThrottleMetrics(
+				ObjectProvider<CloudFoundryRequestThrottle> requestThrottle) {
+			return new CloudFoundryRequestThrottleMetrics(requestThrottle);
+		}
+
+		@Bean
+		CloudFoundryRetryPolicyMetrics cloudFoundryRetryPolicyMetrics(
+				ObjectProvider<CloudFoundryRetryPolicy> retryPolicy) {
+			return new CloudFoundryRetryPolicyMetrics(retryPolicy);
+		}
+
+		@Bean
+		@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.token-refresh.enabled", matchIfMissing = true)
+		RefreshingTokenProviderMetrics refreshingTokenProviderMetrics(
+				ObjectProvider<RefreshingTokenProvider> tokenProvider) {
+			return new RefreshingTokenProviderMetrics(tokenProvider);
+		}
+
+	}
+
 }
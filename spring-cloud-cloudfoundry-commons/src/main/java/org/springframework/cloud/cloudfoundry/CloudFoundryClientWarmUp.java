@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.info.GetInfoRequest;
+import org.cloudfoundry.reactor.ConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+
+/**
+ * Warms up the Cloud Foundry client during startup: obtains an access token and opens the
+ * configured number of connections to the Cloud Controller, so that the first requests do
+ * not pay for them.
+ * <p>
+ * The warm-up runs in the background. Startup waits for it at most the configured
+ * timeout; past that, the warm-up carries on without holding startup back.
+ */
+public class CloudFoundryClientWarmUp implements SmartInitializingSingleton {
+
+	private static final Logger log = LoggerFactory.getLogger(CloudFoundryClientWarmUp.class);
+
+	private final ConnectionContext connectionContext;
+
+	private final TokenProvider tokenProvider;
+
+	private final CloudFoundryClient cloudFoundryClient;
+
+	private final CloudFoundryProperties.WarmUp properties;
+
+	private volatile Duration duration;
+
+	public CloudFoundryClientWarmUp(ConnectionContext connectionContext, TokenProvider tokenProvider,
+			CloudFoundryClient cloudFoundryClient, CloudFoundryProperties.WarmUp properties) {
+		this.connectionContext = connectionContext;
+		this.tokenProvider = tokenProvider;
+		this.cloudFoundryClient = cloudFoundryClient;
+		this.properties = properties;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		try {
+			warmUp().toFuture().get(this.properties.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException ex) {
+			log.info("Cloud Foundry client warm-up still running after {}, continuing startup",
+					this.properties.getTimeout());
+		}
+		catch (ExecutionException ex) {
+			log.warn("Cloud Foundry client warm-up failed: {}", ex.getCause().getMessage());
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Obtains an access token, then opens the configured number of connections to the
+	 * Cloud Controller with concurrent requests.
+	 * @return the time the warm-up took
+	 */
+	public Mono<Duration> warmUp() {
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			int connections = Math.max(1, this.properties.getConnections());
+			return this.tokenProvider.getToken(this.connectionContext)
+					.thenMany(Flux.range(0, connections).flatMap(
+							i -> this.cloudFoundryClient.info().get(GetInfoRequest.builder().build()), connections))
+					.then(Mono.fromCallable(() -> Duration.ofNanos(System.nanoTime() - start)));
+		}).doOnNext(duration -> {
+			this.duration = duration;
+			log.info("Cloud Foundry client warmed up in {} ms", duration.toMillis());
+		});
+	}
+
+	/**
+	 * Returns how long the last completed warm-up took.
+	 * @return the warm-up duration, {@code null} until a warm-up completes
+	 */
+	public Duration getDuration() {
+		return this.duration;
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.util.function.ToIntFunction;
+
+import jdk.jfr.EventType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import org.springframework.util.ClassUtils;
+
+/**
+ * Records the lookups made on behalf of discovery as {@code Cloud Foundry Lookup} JFR
+ * events, which carry the service id, the duration, the number of instances returned,
+ * whether the lookup was served from a cache and the error, if any. A lookup is recorded
+ * for every subscription, from subscription to termination.
+ * <p>
+ * When the event is not enabled in any running recording, or on a JVM without JFR, the
+ * lookup is subscribed to as is.
+ */
+public final class CloudFoundryFlightRecorder {
+
+	private static final boolean JFR_PRESENT = ClassUtils.isPresent("jdk.jfr.Event",
+			CloudFoundryFlightRecorder.class.getClassLoader());
+
+	private CloudFoundryFlightRecorder() {
+	}
+
+	/**
+	 * Records every subscription to the given lookup. The lookup is returned as is, and
+	 * nothing is allocated, unless the event is enabled when the lookup is assembled.
+	 * @param source the component making the lookup
+	 * @param operation the operation
+	 * @param serviceId the service id the lookup is made for
+	 * @param cacheHit whether the lookup is served from a cache
+	 * @param lookup the lookup
+	 * @param instanceCount the number of instances in the result of the lookup
+	 * @param <T> the result type
+	 * @return the recorded lookup
+	 */
+	public static <T> Mono<T> record(Object source, String operation, String serviceId, boolean cacheHit,
+			Mono<T> lookup, ToIntFunction<? super T> instanceCount) {
+		if (!JFR_PRESENT || !Recorder.isEnabled()) {
+			return lookup;
+		}
+		return Mono.defer(() -> Recorder.record(source, operation, serviceId, cacheHit, lookup, instanceCount));
+	}
+
+	/**
+	 * Records every subscription to the given lookup, counting the elements it emits as
+	 * instances. The lookup is returned as is unless the event is enabled when the lookup
+	 * is assembled.
+	 * @param source the component making the lookup
+	 * @param operation the operation
+	 * @param serviceId the service id the lookup is made for
+	 * @param lookup the lookup
+	 * @param <T> the type of the result elements
+	 * @return the recorded lookup
+	 */
+	public static <T> Flux<T> record(Object source, String operation, String serviceId, Flux<T> lookup) {
+		if (!JFR_PRESENT || !Recorder.isEnabled()) {
+			return lookup;
+		}
+		return Flux.defer(() -> Recorder.record(source, operation, serviceId, lookup));
+	}
+
+	/**
+	 * Records a lookup served synchronously from a cache. Nothing is allocated unless the
+	 * event is enabled.
+	 * @param source the component making the lookup
+	 * @param operation the operation
+	 * @param serviceId the service id the lookup is made for
+	 * @param instanceCount the number of instances in the result of the lookup
+	 */
+	public static void recordHit(Object source, String operation, String serviceId, int instanceCount) {
+		if (JFR_PRESENT) {
+			Recorder.recordHit(source, operation, serviceId, instanceCount);
+		}
+	}
+
+	/**
+	 * Keeps the references to the event out of {@link CloudFoundryFlightRecorder}, so
+	 * that it loads on a JVM without JFR.
+	 */
+	private static final class Recorder {
+
+		private static final EventType EVENT_TYPE = EventType.getEventType(CloudFoundryLookupEvent.class);
+
+		static boolean isEnabled() {
+			return EVENT_TYPE.isEnabled();
+		}
+
+		static void recordHit(Object source, String operation, String serviceId, int instanceCount) {
+			if (!EVENT_TYPE.isEnabled()) {
+				return;
+			}
+			CloudFoundryLookupEvent event = new CloudFoundryLookupEvent();
+			begin(event, source, operation, serviceId);
+			event.cacheHit = true;
+			event.instanceCount = instanceCount;
+			commit(event);
+		}
+
+		static <T> Mono<T> record(Object source, String operation, String serviceId, boolean cacheHit, Mono<T> lookup,
+				ToIntFunction<? super T> instanceCount) {
+			if (!EVENT_TYPE.isEnabled()) {
+				return lookup;
+			}
+			CloudFoundryLookupEvent event = new CloudFoundryLookupEvent();
+			begin(event, source, operation, serviceId);
+			event.cacheHit = cacheHit;
+			return lookup.doOnNext(result -> event.instanceCount = instanceCount.applyAsInt(result))
+					.doOnError(error -> event.error = error.toString()).doFinally(signal -> commit(event));
+		}
+
+		static <T> Flux<T> record(Object source, String operation, String serviceId, Flux<T> lookup) {
+			if (!EVENT_TYPE.isEnabled()) {
+				return lookup;
+			}
+			CloudFoundryLookupEvent event = new CloudFoundryLookupEvent();
+			begin(event, source, operation, serviceId);
+			return lookup.doOnNext(result -> event.instanceCount++).doOnError(error -> event.error = error.toString())
+					.doFinally(signal -> commit(event));
+		}
+
+		private static void begin(CloudFoundryLookupEvent event, Object source, String operation, String serviceId) {
+			event.source = source.getClass().getSimpleName();
+			event.operation = operation;
+			event.serviceId = serviceId;
+			event.subscribingThread = Thread.currentThread();
+			event.begin();
+		}
+
+		private static void commit(CloudFoundryLookupEvent event) {
+			event.end();
+			if (event.shouldCommit()) {
+				event.commit();
+			}
+		}
+
+	}
+
+}
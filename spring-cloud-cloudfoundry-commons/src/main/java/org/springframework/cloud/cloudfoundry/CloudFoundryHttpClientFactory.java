@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import reactor.netty.http.Http11SslContextSpec;
+import reactor.netty.http.Http2SslContextSpec;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.tcp.SslProvider;
+
+import org.springframework.util.ClassUtils;
+
+/**
+ * Creates the connection pool and HTTP client shared by the Cloud Foundry API clients
+ * from {@link CloudFoundryProperties.Http}. The connection pool publishes its Micrometer
+ * metrics, under {@code reactor.netty.connection.provider} with the {@value #POOL_NAME}
+ * name, when Micrometer is present.
+ */
+final class CloudFoundryHttpClientFactory {
+
+	static final String POOL_NAME = "cloudfoundry-client";
+
+	private static final int SEND_RECEIVE_BUFFER_SIZE = 10 * 1024 * 1024;
+
+	private static final boolean MICROMETER_PRESENT = ClassUtils.isPresent("io.micrometer.core.instrument.Metrics",
+			CloudFoundryHttpClientFactory.class.getClassLoader());
+
+	private CloudFoundryHttpClientFactory() {
+	}
+
+	static ConnectionProvider connectionProvider(CloudFoundryProperties.Http properties) {
+		ConnectionProvider.Builder builder = ConnectionProvider.builder(POOL_NAME)
+				.pendingAcquireMaxCount(properties.getPendingAcquireMaxCount())
+				.pendingAcquireTimeout(properties.getPendingAcquireTimeout()).metrics(MICROMETER_PRESENT);
+		if (properties.getMaxConnections() != null) {
+			builder.maxConnections(properties.getMaxConnections());
+		}
+		if (properties.getMaxIdleTime() != null) {
+			builder.maxIdleTime(properties.getMaxIdleTime());
+		}
+		if (properties.getMaxLifeTime() != null) {
+			builder.maxLifeTime(properties.getMaxLifeTime());
+		}
+		if (properties.getEvictInBackground() != null) {
+			builder.evictInBackground(properties.getEvictInBackground());
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Creates an HTTP client with the same defaults as the one the Cloud Foundry client
+	 * creates itself, on top of the given connection pool. The client hands the
+	 * {@code Retry-After} header of its responses to the {@link CloudFoundryRetryPolicy}.
+	 */
+	static HttpClient httpClient(ConnectionProvider connectionProvider, CloudFoundryProperties.Http properties,
+			boolean skipSslValidation) {
+		HttpClient httpClient = HttpClient.create(connectionProvider).compress(properties.isCompression())
+				.keepAlive(true).option(ChannelOption.SO_KEEPALIVE, properties.isKeepAlive())
+				.option(ChannelOption.SO_SNDBUF, SEND_RECEIVE_BUFFER_SIZE)
+				.option(ChannelOption.SO_RCVBUF, SEND_RECEIVE_BUFFER_SIZE)
+				.secure(spec -> configureSsl(spec, properties.isHttp2(), skipSslValidation))
+				.doOnResponse((response, connection) -> CloudFoundryRetryPolicy.onResponse(response));
+		if (properties.isHttp2()) {
+			httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+		}
+		if (properties.getConnectTimeout() != null) {
+			httpClient = httpClient.option(ChannelOption.CONNECT_TIMEOUT_MILLIS,
+					(int) properties.getConnectTimeout().toMillis());
+		}
+		if (properties.getResponseTimeout() != null) {
+			httpClient = httpClient.responseTimeout(properties.getResponseTimeout());
+		}
+		return httpClient;
+	}
+
+	private static void configureSsl(SslProvider.SslContextSpec spec, boolean http2, boolean skipSslValidation) {
+		if (http2) {
+			spec.sslContext(Http2SslContextSpec.forClient().configure(builder -> trust(builder, skipSslValidation)));
+		}
+		else {
+			spec.sslContext(Http11SslContextSpec.forClient().configure(builder -> trust(builder, skipSslValidation)));
+		}
+	}
+
+	private static void trust(SslContextBuilder builder, boolean skipSslValidation) {
+		if (skipSslValidation) {
+			builder.trustManager(InsecureTrustManagerFactory.INSTANCE);
+		}
+	}
+
+}
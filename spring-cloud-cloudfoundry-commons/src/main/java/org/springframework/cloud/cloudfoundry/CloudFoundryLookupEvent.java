@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a lookup made on behalf of discovery. Recorded through
+ * {@link CloudFoundryFlightRecorder}, which only loads this class when JFR is available.
+ */
+@Name("org.springframework.cloud.cloudfoundry.Lookup")
+@Label("Cloud Foundry Lookup")
+@Category({ "Spring Cloud", "Cloud Foundry" })
+@Description("A Cloud Controller request, DNS resolution, cache lookup or heartbeat poll made by discovery")
+@StackTrace(false)
+class CloudFoundryLookupEvent extends Event {
+
+	@Label("Source")
+	@Description("Simple class name of the component that made the lookup")
+	String source;
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Service Id")
+	String serviceId;
+
+	@Label("Instance Count")
+	@Description("Number of instances, or of services, returned by the lookup")
+	int instanceCount;
+
+	@Label("Cache Hit")
+	boolean cacheHit;
+
+	@Label("Error")
+	String error;
+
+	@Label("Subscribing Thread")
+	@Description("Thread that started the lookup, the event thread being the one that completed it")
+	Thread subscribingThread;
+
+}
@@ -16,6 +16,7 @@
 
 package org.springframework.cloud.cloudfoundry;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -52,6 +53,17 @@ public class CloudFoundryProperties implements InitializingBean {
 	 */
 	private String password;
 
+	/**
+	 * Client id to authenticate with the client credentials grant, instead of a username
+	 * and password.
+	 */
+	private String clientId;
+
+	/**
+	 * Client secret to authenticate with the client credentials grant.
+	 */
+	private String clientSecret;
+
 	/**
 	 * Organization name to initially target.
 	 */
@@ -65,6 +77,37 @@ public class CloudFoundryProperties implements InitializingBean {
 
 	private boolean skipSslValidation;
 
+	/**
+	 * Warm-up of the Cloud Foundry client during startup.
+	 */
+	private final WarmUp warmUp = new WarmUp();
+
+	/**
+	 * Background refresh of the access token.
+	 */
+	private final TokenRefresh tokenRefresh = new TokenRefresh();
+
+	/**
+	 * HTTP connections to the Cloud Foundry API.
+	 */
+	private final Http http = new Http();
+
+	/**
+	 * Metrics of the requests made to the Cloud Foundry API.
+	 */
+	private final Metrics metrics = new Metrics();
+
+	/**
+	 * Client-side rate limit and bulkhead of the requests made to the Cloud Controller.
+	 */
+	private final Throttle throttle = new Throttle();
+
+	/**
+	 * Retries of the requests made to the Cloud Controller and UAA that fail with a
+	 * transient error.
+	 */
+	private final Retry retry = new Retry();
+
 	public String getUrl() {
 		return this.url;
 	}
@@ -102,6 +145,22 @@ public class CloudFoundryProperties implements InitializingBean {
 		this.password = password;
 	}
 
+	public String getClientId() {
+		return this.clientId;
+	}
+
+	public void setClientId(String clientId) {
+		this.clientId = clientId;
+	}
+
+	public String getClientSecret() {
+		return this.clientSecret;
+	}
+
+	public void setClientSecret(String clientSecret) {
+		this.clientSecret = clientSecret;
+	}
+
 	public String getOrg() {
 		return this.org;
 	}
@@ -130,17 +189,52 @@ public class CloudFoundryProperties implements InitializingBean {
 		this.skipSslValidation = skipSslValidation;
 	}
 
+	public WarmUp getWarmUp() {
+		return this.warmUp;
+	}
+
+	public TokenRefresh getTokenRefresh() {
+		return this.tokenRefresh;
+	}
+
+	public Http getHttp() {
+		return this.http;
+	}
+
+	public Metrics getMetrics() {
+		return this.metrics;
+	}
+
+	public Throttle getThrottle() {
+		return this.throttle;
+	}
+
+	public Retry getRetry() {
+		return this.retry;
+	}
+
 	@Override
 	public void afterPropertiesSet() {
 		this.url = safeUrl(this.url);
-		this.password = this.password.trim();
-		this.username = this.username.trim();
 		if (this.org != null) {
 			this.org = this.org.trim();
 		}
 		if (this.space != null) {
 			this.space = this.space.trim();
 		}
+		if (this.clientId != null) {
+			this.clientId = this.clientId.trim();
+		}
+		if (this.clientSecret != null) {
+			this.clientSecret = this.clientSecret.trim();
+		}
+		if (StringUtils.hasText(this.clientId) && !StringUtils.hasText(this.username)) {
+			Assert.hasText(getUrl(), "'url' must be provided");
+			Assert.hasText(getClientSecret(), "'clientSecret' must be provided");
+			return;
+		}
+		this.password = this.password.trim();
+		this.username = this.username.trim();
 
 		Map<String, String> vals = new HashMap<>();
 		vals.put("url", getUrl());
@@ -149,4 +243,367 @@ public class CloudFoundryProperties implements InitializingBean {
 		vals.forEach((key, value) -> Assert.hasText(value, String.format("'%s' must be provided", key)));
 	}
 
+	public static class WarmUp {
+
+		/**
+		 * Whether to obtain an access token and open connections to the Cloud Controller
+		 * during startup.
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * Number of connections to the Cloud Controller to open.
+		 */
+		private int connections = 2;
+
+		/**
+		 * Maximum time startup waits for the warm-up. The warm-up carries on in the
+		 * background afterwards.
+		 */
+		private Duration timeout = Duration.ofSeconds(5);
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getConnections() {
+			return this.connections;
+		}
+
+		public void setConnections(int connections) {
+			this.connections = connections;
+		}
+
+		public Duration getTimeout() {
+			return this.timeout;
+		}
+
+		public void setTimeout(Duration timeout) {
+			this.timeout = timeout;
+		}
+
+	}
+
+	public static class TokenRefresh {
+
+		/**
+		 * Whether to refresh the access token in the background before it expires,
+		 * instead of when a request finds it expired.
+		 */
+		private boolean enabled = true;
+
+		/**
+		 * How long before its expiry the access token is refreshed.
+		 */
+		private Duration beforeExpiry = Duration.ofMinutes(1);
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public Duration getBeforeExpiry() {
+			return this.beforeExpiry;
+		}
+
+		public void setBeforeExpiry(Duration beforeExpiry) {
+			this.beforeExpiry = beforeExpiry;
+		}
+
+	}
+
+	public static class Metrics {
+
+		/**
+		 * Maximum number of service ids used as tag values. Requests for any other
+		 * service are tagged with 'other'.
+		 */
+		private int maxServiceIds = 100;
+
+		public int getMaxServiceIds() {
+			return this.maxServiceIds;
+		}
+
+		public void setMaxServiceIds(int maxServiceIds) {
+			this.maxServiceIds = maxServiceIds;
+		}
+
+	}
+
+	public static class Throttle {
+
+		/**
+		 * Maximum rate of the requests made to the Cloud Controller, in requests per
+		 * second. Zero or less leaves the rate unlimited.
+		 */
+		private double requestsPerSecond = 0;
+
+		/**
+		 * Number of requests that can be made at once after a quiet period, above the
+		 * steady rate.
+		 */
+		private int burst = 10;
+
+		/**
+		 * Maximum number of requests to the Cloud Controller in flight at once. Zero or
+		 * less leaves the concurrency unlimited.
+		 */
+		private int maxConcurrentRequests = 0;
+
+		/**
+		 * Maximum time an on-demand lookup waits for the throttle before it fails.
+		 * Background refreshes and heartbeats never wait; they are shed instead.
+		 */
+		private Duration maxWait = Duration.ofSeconds(5);
+
+		public double getRequestsPerSecond() {
+			return this.requestsPerSecond;
+		}
+
+		public void setRequestsPerSecond(double requestsPerSecond) {
+			this.requestsPerSecond = requestsPerSecond;
+		}
+
+		public int getBurst() {
+			return this.burst;
+		}
+
+		public void setBurst(int burst) {
+			this.burst = burst;
+		}
+
+		public int getMaxConcurrentRequests() {
+			return this.maxConcurrentRequests;
+		}
+
+		public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+			this.maxConcurrentRequests = maxConcurrentRequests;
+		}
+
+		public Duration getMaxWait() {
+			return this.maxWait;
+		}
+
+		public void setMaxWait(Duration maxWait) {
+			this.maxWait = maxWait;
+		}
+
+	}
+
+	public static class Retry {
+
+		/**
+		 * Maximum number of attempts of a request, including the first one. One disables
+		 * the retries.
+		 */
+		private int maxAttempts = 3;
+
+		/**
+		 * Upper bound of the backoff before the first retry. The bound doubles with every
+		 * retry, and the actual backoff is a random duration below it.
+		 */
+		private Duration initialBackoff = Duration.ofMillis(200);
+
+		/**
+		 * Maximum upper bound of the backoff between two attempts.
+		 */
+		private Duration maxBackoff = Duration.ofSeconds(5);
+
+		/**
+		 * Maximum time from the first attempt of a request to the start of its last
+		 * retry.
+		 */
+		private Duration budget = Duration.ofSeconds(8);
+
+		public int getMaxAttempts() {
+			return this.maxAttempts;
+		}
+
+		public void setMaxAttempts(int maxAttempts) {
+			this.maxAttempts = maxAttempts;
+		}
+
+		public Duration getInitialBackoff() {
+			return this.initialBackoff;
+		}
+
+		public void setInitialBackoff(Duration initialBackoff) {
+			this.initialBackoff = initialBackoff;
+		}
+
+		public Duration getMaxBackoff() {
+			return this.maxBackoff;
+		}
+
+		public void setMaxBackoff(Duration maxBackoff) {
+			this.maxBackoff = maxBackoff;
+		}
+
+		public Duration getBudget() {
+			return this.budget;
+		}
+
+		public void setBudget(Duration budget) {
+			this.budget = budget;
+		}
+
+	}
+
+	public static class Http {
+
+		/**
+		 * Maximum number of connections in the pool. Defaults to twice the number of
+		 * available processors, with a minimum of 16.
+		 */
+		private Integer maxConnections;
+
+		/**
+		 * Maximum number of requests waiting for a connection. Unbounded when negative.
+		 */
+		private int pendingAcquireMaxCount = -1;
+
+		/**
+		 * Maximum time a request waits for a connection.
+		 */
+		private Duration pendingAcquireTimeout = Duration.ofSeconds(45);
+
+		/**
+		 * Time after which an idle connection is closed.
+		 */
+		private Duration maxIdleTime;
+
+		/**
+		 * Time after which a connection is closed, whether it is idle or not.
+		 */
+		private Duration maxLifeTime;
+
+		/**
+		 * Interval at which idle and expired connections are evicted in the background,
+		 * instead of when they are next acquired.
+		 */
+		private Duration evictInBackground;
+
+		/**
+		 * Whether to enable TCP keep-alive.
+		 */
+		private boolean keepAlive = true;
+
+		/**
+		 * Whether to ask for compressed responses.
+		 */
+		private boolean compression = true;
+
+		/**
+		 * Whether to negotiate HTTP/2, falling back to HTTP/1.1 when the server does not
+		 * support it.
+		 */
+		private boolean http2 = false;
+
+		/**
+		 * Maximum time to establish a connection.
+		 */
+		private Duration connectTimeout;
+
+		/**
+		 * Maximum time to wait for a response once the request is sent.
+		 */
+		private Duration responseTimeout;
+
+		public Integer getMaxConnections() {
+			return this.maxConnections;
+		}
+
+		public void setMaxConnections(Integer maxConnections) {
+			this.maxConnections = maxConnections;
+		}
+
+		public int getPendingAcquireMaxCount() {
+			return this.pendingAcquireMaxCount;
+		}
+
+		public void setPendingAcquireMaxCount(int pendingAcquireMaxCount) {
+			this.pendingAcquireMaxCount = pendingAcquireMaxCount;
+		}
+
+		public Duration getPendingAcquireTimeout() {
+			return this.pendingAcquireTimeout;
+		}
+
+		public void setPendingAcquireTimeout(Duration pendingAcquireTimeout) {
+			this.pendingAcquireTimeout = pendingAcquireTimeout;
+		}
+
+		public Duration getMaxIdleTime() {
+			return this.maxIdleTime;
+		}
+
+		public void setMaxIdleTime(Duration maxIdleTime) {
+			this.maxIdleTime = maxIdleTime;
+		}
+
+		public Duration getMaxLifeTime() {
+			return this.maxLifeTime;
+		}
+
+		public void setMaxLifeTime(Duration maxLifeTime) {
+			this.maxLifeTime = maxLifeTime;
+		}
+
+		public Duration getEvictInBackground() {
+			return this.evictInBackground;
+		}
+
+		public void setEvictInBackground(Duration evictInBackground) {
+			this.evictInBackground = evictInBackground;
+		}
+
+		public boolean isKeepAlive() {
+			return this.keepAlive;
+		}
+
+		public void setKeepAlive(boolean keepAlive) {
+			this.keepAlive = keepAlive;
+		}
+
+		public boolean isCompression() {
+			return this.compression;
+		}
+
+		public void setCompression(boolean compression) {
+			this.compression = compression;
+		}
+
+		public boolean isHttp2() {
+			return this.http2;
+		}
+
+		public void setHttp2(boolean http2) {
+			this.http2 = http2;
+		}
+
+		public Duration getConnectTimeout() {
+			return this.connectTimeout;
+		}
+
+		public void setConnectTimeout(Duration connectTimeout) {
+			this.connectTimeout = connectTimeout;
+		}
+
+		public Duration getResponseTimeout() {
+			return this.responseTimeout;
+		}
+
+		public void setResponseTimeout(Duration responseTimeout) {
+			this.responseTimeout = responseTimeout;
+		}
+
+	}
+
 }
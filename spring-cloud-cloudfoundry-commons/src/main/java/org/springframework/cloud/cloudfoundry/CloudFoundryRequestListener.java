@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Listener notified of every request made to the Cloud Controller, or to DNS, on behalf
+ * of discovery, once the request completes, fails or is cancelled.
+ */
+@FunctionalInterface
+public interface CloudFoundryRequestListener {
+
+	/**
+	 * Listener that ignores every request.
+	 */
+	CloudFoundryRequestListener NONE = (operation, serviceId, outcome, durationNanos) -> {
+	};
+
+	/**
+	 * Operation that lists resources.
+	 */
+	String LIST = "list";
+
+	/**
+	 * Operation that gets a single application, with the stats of its instances.
+	 */
+	String GET = "get";
+
+	/**
+	 * Operation that resolves the instances of a service with DNS.
+	 */
+	String RESOLVE = "resolve";
+
+	/**
+	 * Service id of the requests that do not target a single service.
+	 */
+	String NO_SERVICE = "none";
+
+	/**
+	 * Called once a request has completed, failed or been cancelled.
+	 * @param operation the operation, {@link #LIST}, {@link #GET} or {@link #RESOLVE}
+	 * @param serviceId the service id the request was made for, or {@link #NO_SERVICE}
+	 * @param outcome the outcome of the request
+	 * @param durationNanos the time from subscription to termination, in nanoseconds
+	 */
+	void onRequest(String operation, String serviceId, Outcome outcome, long durationNanos);
+
+	/**
+	 * Notifies this listener when each subscription to the given request terminates.
+	 * @param operation the operation
+	 * @param serviceId the service id the request is made for
+	 * @param request the request
+	 * @param <T> the type of the response
+	 * @return the observed request
+	 */
+	default <T> Mono<T> observe(String operation, String serviceId, Mono<T> request) {
+		if (this == NONE) {
+			return request;
+		}
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			return request.doFinally(
+					signal -> onRequest(operation, serviceId, Outcome.of(signal), System.nanoTime() - start));
+		});
+	}
+
+	/**
+	 * Notifies this listener when each subscription to the given request terminates.
+	 * @param operation the operation
+	 * @param serviceId the service id the request is made for
+	 * @param request the request
+	 * @param <T> the type of the response elements
+	 * @return the observed request
+	 */
+	default <T> Flux<T> observe(String operation, String serviceId, Flux<T> request) {
+		if (this == NONE) {
+			return request;
+		}
+		return Flux.defer(() -> {
+			long start = System.nanoTime();
+			return request.doFinally(
+					signal -> onRequest(operation, serviceId, Outcome.of(signal), System.nanoTime() - start));
+		});
+	}
+
+	/**
+	 * Returns a listener that notifies every given listener in turn.
+	 * @param listeners the listeners
+	 * @return the composite listener, or {@link #NONE} if there are no listeners
+	 */
+	static CloudFoundryRequestListener of(List<? extends CloudFoundryRequestListener> listeners) {
+		if (listeners.isEmpty()) {
+			return NONE;
+		}
+		if (listeners.size() == 1) {
+			return listeners.get(0);
+		}
+		List<CloudFoundryRequestListener> copy = new ArrayList<>(listeners);
+		return (operation, serviceId, outcome, durationNanos) -> copy
+				.forEach(listener -> listener.onRequest(operation, serviceId, outcome, durationNanos));
+	}
+
+	/**
+	 * Outcome of a request.
+	 */
+	enum Outcome {
+
+		/**
+		 * The request completed.
+		 */
+		SUCCESS,
+
+		/**
+		 * The request failed.
+		 */
+		ERROR,
+
+		/**
+		 * The caller lost interest in the request before it completed, usually because it
+		 * timed out.
+		 */
+		CANCELLED;
+
+		/**
+		 * Returns the outcome of a request that terminated with the given signal.
+		 * @param signal the signal that terminated the request
+		 * @return the outcome
+		 */
+		public static Outcome of(SignalType signal) {
+			switch (signal) {
+			case ON_ERROR:
+				return ERROR;
+			case CANCEL:
+				return CANCELLED;
+			default:
+				return SUCCESS;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Records every request made to the Cloud Controller or DNS on behalf of discovery with
+ * the {@code cloudfoundry.requests} Micrometer timer, tagged with the operation, its
+ * outcome and the service id. Only the first {@code maxServiceIds} service ids are used
+ * as tag values; the requests for any other service are tagged with
+ * {@value #OTHER_SERVICE}.
+ */
+public class CloudFoundryRequestMetrics implements CloudFoundryRequestListener, MeterBinder {
+
+	static final String OTHER_SERVICE = "other";
+
+	private final int maxServiceIds;
+
+	private final Set<String> serviceIds = ConcurrentHashMap.newKeySet();
+
+	private volatile MeterRegistry registry;
+
+	public CloudFoundryRequestMetrics(int maxServiceIds) {
+		this.maxServiceIds = maxServiceIds;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public void onRequest(String operation, String serviceId, Outcome outcome, long durationNanos) {
+		MeterRegistry registry = this.registry;
+		if (registry == null) {
+			return;
+		}
+		Timer.builder("cloudfoundry.requests").tag("operation", operation).tag("outcome", outcome.name())
+				.tag("service", serviceTag(serviceId)).description("Requests made to the Cloud Controller or DNS")
+				.register(registry).record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private String serviceTag(String serviceId) {
+		if (this.serviceIds.contains(serviceId)) {
+			return serviceId;
+		}
+		if (this.serviceIds.size() < this.maxServiceIds && this.serviceIds.add(serviceId)) {
+			return serviceId;
+		}
+		return this.serviceIds.contains(serviceId) ? serviceId : OTHER_SERVICE;
+	}
+
+}
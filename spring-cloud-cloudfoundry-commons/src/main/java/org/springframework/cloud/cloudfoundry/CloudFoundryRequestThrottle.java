@@ -0,0 +1,274 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+/**
+ * Client-side rate limiter and bulkhead for the requests made to the Cloud Controller. A
+ * token bucket limits the rate of the requests, allowing a burst after a quiet period,
+ * and the number of requests in flight at once is capped.
+ * <p>
+ * Requests are urgent unless they are subscribed to with the {@link #background()}
+ * context, as refreshes and heartbeats are. A throttled urgent request waits for its
+ * turn, in order, up to the maximum wait. A throttled background request is shed at once,
+ * so that background traffic never delays the lookups an application is waiting for. Both
+ * fail with a {@link RejectedExecutionException}.
+ */
+public class CloudFoundryRequestThrottle {
+
+	/**
+	 * Throttle that lets every request through.
+	 */
+	public static final CloudFoundryRequestThrottle UNLIMITED = new CloudFoundryRequestThrottle(0, 0, 0, Duration.ZERO);
+
+	private static final String BACKGROUND = CloudFoundryRequestThrottle.class.getName() + ".BACKGROUND";
+
+	private final double permitsPerNano;
+
+	private final int burst;
+
+	private final int maxConcurrentRequests;
+
+	private final Duration maxWait;
+
+	private final Scheduler scheduler;
+
+	private final Deque<Permit> waiting = new ArrayDeque<>();
+
+	private final LongAdder delayed = new LongAdder();
+
+	private final LongAdder rejected = new LongAdder();
+
+	private final LongAdder shed = new LongAdder();
+
+	private double tokens;
+
+	private long refilledAt;
+
+	private int inFlight;
+
+	private boolean drainScheduled;
+
+	public CloudFoundryRequestThrottle(CloudFoundryProperties.Throttle properties) {
+		this(properties.getRequestsPerSecond(), properties.getBurst(), properties.getMaxConcurrentRequests(),
+				properties.getMaxWait());
+	}
+
+	public CloudFoundryRequestThrottle(double requestsPerSecond, int burst, int maxConcurrentRequests,
+			Duration maxWait) {
+		this(requestsPerSecond, burst, maxConcurrentRequests, maxWait, Schedulers.parallel());
+	}
+
+	CloudFoundryRequestThrottle(double requestsPerSecond, int burst, int maxConcurrentRequests, Duration maxWait,
+			Scheduler scheduler) {
+		this.permitsPerNano = requestsPerSecond > 0 ? requestsPerSecond / TimeUnit.SECONDS.toNanos(1) : 0;
+		this.burst = Math.max(burst, 1);
+		this.maxConcurrentRequests = maxConcurrentRequests;
+		this.maxWait = maxWait;
+		this.scheduler = scheduler;
+		this.tokens = this.burst;
+		this.refilledAt = scheduler.now(TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the context that marks the requests subscribed to with it as background
+	 * requests, which are shed rather than delayed.
+	 * @return the context to write to the subscription
+	 */
+	public static Context background() {
+		return Context.of(BACKGROUND, Boolean.TRUE);
+	}
+
+	/**
+	 * Throttles every subscription to the given request.
+	 * @param request the request
+	 * @param <T> the type of the response
+	 * @return the throttled request
+	 */
+	public <T> Mono<T> throttle(Mono<T> request) {
+		if (isUnlimited()) {
+			return request;
+		}
+		return Mono.deferContextual(context -> {
+			Permit permit = new Permit(isBackground(context));
+			return acquire(permit).then(request).doFinally(signal -> release(permit));
+		});
+	}
+
+	/**
+	 * Throttles every subscription to the given request.
+	 * @param request the request
+	 * @param <T> the type of the response elements
+	 * @return the throttled request
+	 */
+	public <T> Flux<T> throttle(Flux<T> request) {
+		if (isUnlimited()) {
+			return request;
+		}
+		return Flux.deferContextual(context -> {
+			Permit permit = new Permit(isBackground(context));
+			return acquire(permit).thenMany(request).doFinally(signal -> release(permit));
+		});
+	}
+
+	/**
+	 * Returns the number of urgent requests that had to wait for their turn.
+	 * @return the number of delayed requests
+	 */
+	public long getDelayedCount() {
+		return this.delayed.sum();
+	}
+
+	/**
+	 * Returns the number of urgent requests that failed after waiting for the maximum
+	 * wait.
+	 * @return the number of rejected requests
+	 */
+	public long getRejectedCount() {
+		return this.rejected.sum();
+	}
+
+	/**
+	 * Returns the number of background requests that were shed.
+	 * @return the number of shed requests
+	 */
+	public long getShedCount() {
+		return this.shed.sum();
+	}
+
+	private boolean isUnlimited() {
+		return this.permitsPerNano == 0 && this.maxConcurrentRequests <= 0;
+	}
+
+	static boolean isBackground(ContextView context) {
+		return context.getOrDefault(BACKGROUND, Boolean.FALSE);
+	}
+
+	private Mono<Void> acquire(Permit permit) {
+		Mono<Void> acquire = Mono.create(sink -> {
+			boolean admitted;
+			synchronized (this) {
+				permit.sink = sink;
+				admitted = this.waiting.isEmpty() && tryAdmit(permit);
+				if (!admitted && !permit.background) {
+					this.delayed.increment();
+					this.waiting.add(permit);
+					scheduleDrain();
+				}
+			}
+			if (admitted) {
+				sink.success();
+			}
+			else if (permit.background) {
+				this.shed.increment();
+				sink.error(new RejectedExecutionException("Background request to the Cloud Controller shed"));
+			}
+		});
+		return acquire.timeout(this.maxWait, Mono.defer(() -> {
+			this.rejected.increment();
+			return Mono.error(new RejectedExecutionException(
+					"Request to the Cloud Controller throttled for more than " + this.maxWait));
+		}), this.scheduler);
+	}
+
+	private void release(Permit permit) {
+		synchronized (this) {
+			if (permit.admitted) {
+				permit.admitted = false;
+				this.inFlight--;
+			}
+			else {
+				this.waiting.remove(permit);
+			}
+		}
+		drain();
+	}
+
+	private void drain() {
+		List<Permit> admitted = new ArrayList<>();
+		synchronized (this) {
+			this.drainScheduled = false;
+			while (!this.waiting.isEmpty() && tryAdmit(this.waiting.peek())) {
+				admitted.add(this.waiting.poll());
+			}
+			scheduleDrain();
+		}
+		admitted.forEach(permit -> permit.sink.success());
+	}
+
+	/**
+	 * Schedules a drain for when the next token is available, if requests are waiting for
+	 * one. Requests waiting for a request in flight are admitted on its release.
+	 */
+	private void scheduleDrain() {
+		if (this.waiting.isEmpty() || this.drainScheduled || this.permitsPerNano == 0 || this.tokens >= 1) {
+			return;
+		}
+		this.drainScheduled = true;
+		long delay = (long) Math.ceil((1 - this.tokens) / this.permitsPerNano);
+		this.scheduler.schedule(this::drain, delay, TimeUnit.NANOSECONDS);
+	}
+
+	private boolean tryAdmit(Permit permit) {
+		if (this.maxConcurrentRequests > 0 && this.inFlight >= this.maxConcurrentRequests) {
+			return false;
+		}
+		if (this.permitsPerNano > 0) {
+			long now = this.scheduler.now(TimeUnit.NANOSECONDS);
+			this.tokens = Math.min(this.burst, this.tokens + (now - this.refilledAt) * this.permitsPerNano);
+			this.refilledAt = now;
+			if (this.tokens < 1) {
+				return false;
+			}
+			this.tokens--;
+		}
+		this.inFlight++;
+		permit.admitted = true;
+		return true;
+	}
+
+	private static final class Permit {
+
+		private final boolean background;
+
+		private MonoSink<Void> sink;
+
+		private boolean admitted;
+
+		private Permit(boolean background) {
+			this.background = background;
+		}
+
+	}
+
+}
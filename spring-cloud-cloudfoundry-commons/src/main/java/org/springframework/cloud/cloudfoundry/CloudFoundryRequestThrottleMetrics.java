@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.util.function.ToDoubleFunction;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import org.springframework.beans.factory.ObjectProvider;
+
+/**
+ * Exposes the requests delayed, rejected and shed by a
+ * {@link CloudFoundryRequestThrottle} as the {@code cloudfoundry.requests.throttled}
+ * Micrometer counter, tagged with the outcome.
+ */
+public class CloudFoundryRequestThrottleMetrics implements MeterBinder {
+
+	private final ObjectProvider<CloudFoundryRequestThrottle> requestThrottle;
+
+	public CloudFoundryRequestThrottleMetrics(ObjectProvider<CloudFoundryRequestThrottle> requestThrottle) {
+		this.requestThrottle = requestThrottle;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.requestThrottle.ifAvailable(requestThrottle -> {
+			register(registry, requestThrottle, "delayed", CloudFoundryRequestThrottle::getDelayedCount,
+					"Urgent requests that waited for the throttle");
+			register(registry, requestThrottle, "rejected", CloudFoundryRequestThrottle::getRejectedCount,
+					"Urgent requests that failed after waiting for the throttle");
+			register(registry, requestThrottle, "shed", CloudFoundryRequestThrottle::getShedCount,
+					"Background requests shed by the throttle");
+		});
+	}
+
+	private static void register(MeterRegistry registry, CloudFoundryRequestThrottle requestThrottle, String outcome,
+			ToDoubleFunction<CloudFoundryRequestThrottle> count, String description) {
+		FunctionCounter.builder("cloudfoundry.requests.throttled", requestThrottle, count).tag("outcome", outcome)
+				.description(description).register(registry);
+	}
+
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import io.netty.handler.timeout.TimeoutException;
+import org.cloudfoundry.AbstractCloudFoundryException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClientResponse;
+import reactor.util.context.Context;
+import reactor.util.retry.Retry;
+
+/**
+ * Retries the requests made to the Cloud Controller and UAA that fail with a transient
+ * error: a {@code 429}, {@code 502}, {@code 503} or {@code 504} response, an I/O error or
+ * a response timeout. Retries back off exponentially with full jitter, so that the
+ * instances of a fleet do not retry in step, and wait at least as long as the
+ * {@code Retry-After} header of the failed response asks. A request is retried until it
+ * has been attempted the maximum number of times, or until the next attempt would start
+ * after the time budget, counted from the first attempt.
+ * <p>
+ * A request that already emitted elements is never retried, so that its elements are not
+ * emitted twice.
+ */
+public class CloudFoundryRetryPolicy {
+
+	/**
+	 * Policy that never retries.
+	 */
+	public static final CloudFoundryRetryPolicy NONE = new CloudFoundryRetryPolicy(1, Duration.ZERO, Duration.ZERO,
+			Duration.ZERO);
+
+	private static final String ATTEMPTS = CloudFoundryRetryPolicy.class.getName() + ".ATTEMPTS";
+
+	private static final int MAX_BACKOFF_SHIFT = 30;
+
+	private final int maxAttempts;
+
+	private final long initialBackoffNanos;
+
+	private final long maxBackoffNanos;
+
+	private final long budgetNanos;
+
+	private final Scheduler scheduler;
+
+	private final DoubleSupplier jitter;
+
+	private final LongAdder retries = new LongAdder();
+
+	private final LongAdder exhausted = new LongAdder();
+
+	public CloudFoundryRetryPolicy(CloudFoundryProperties.Retry properties) {
+		this(properties.getMaxAttempts(), properties.getInitialBackoff(), properties.getMaxBackoff(),
+				properties.getBudget());
+	}
+
+	public CloudFoundryRetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff, Duration budget) {
+		this(maxAttempts, initialBackoff, maxBackoff, budget, Schedulers.parallel(),
+				() -> ThreadLocalRandom.current().nextDouble());
+	}
+
+	CloudFoundryRetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff, Duration budget,
+			Scheduler scheduler, DoubleSupplier jitter) {
+		this.maxAttempts = maxAttempts;
+		this.initialBackoffNanos = initialBackoff.toNanos();
+		this.maxBackoffNanos = maxBackoff.toNanos();
+		this.budgetNanos = budget.toNanos();
+		this.scheduler = scheduler;
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Retries every subscription to the given request on transient errors.
+	 * @param request the request
+	 * @param <T> the type of the response
+	 * @return the retried request
+	 */
+	public <T> Mono<T> retry(Mono<T> request) {
+		if (this.maxAttempts <= 1) {
+			return request;
+		}
+		return Mono.defer(() -> {
+			Attempts attempts = new Attempts(now());
+			return request.retryWhen(retry(attempts)).contextWrite(Context.of(ATTEMPTS, attempts));
+		});
+	}
+
+	/**
+	 * Retries every subscription to the given request on transient errors, as long as it
+	 * did not emit any element.
+	 * @param request the request
+	 * @param <T> the type of the response elements
+	 * @return the retried request
+	 */
+	public <T> Flux<T> retry(Flux<T> request) {
+		if (this.maxAttempts <= 1) {
+			return request;
+		}
+		return Flux.defer(() -> {
+			Attempts attempts = new Attempts(now());
+			return request.doOnNext(element -> attempts.emitted = true).retryWhen(retry(attempts))
+					.contextWrite(Context.of(ATTEMPTS, attempts));
+		});
+	}
+
+	/**
+	 * Returns the number of retries made.
+	 * @return the number of retries
+	 */
+	public long getRetryCount() {
+		return this.retries.sum();
+	}
+
+	/**
+	 * Returns the number of requests that failed with a transient error after they ran
+	 * out of attempts or time budget.
+	 * @return the number of exhausted requests
+	 */
+	public long getExhaustedCount() {
+		return this.exhausted.sum();
+	}
+
+	/**
+	 * Keeps the {@code Retry-After} header of a response, for the next retry of the
+	 * request it answers.
+	 * @param response the response
+	 */
+	static void onResponse(HttpClientResponse response) {
+		int status = response.status().code();
+		if (status != 429 && status != 503) {
+			return;
+		}
+		String retryAfter = response.responseHeaders().get("Retry-After");
+		if (retryAfter != null) {
+			response.currentContextView().<Attempts>getOrEmpty(ATTEMPTS)
+					.ifPresent(attempts -> attempts.retryAfter = parseRetryAfter(retryAfter, Instant.now()));
+		}
+	}
+
+	/**
+	 * Parses a {@code Retry-After} header, either a number of seconds or an HTTP date.
+	 * @return the time to wait, or {@code null} if the header cannot be parsed
+	 */
+	static Duration parseRetryAfter(String value, Instant now) {
+		String trimmed = value.trim();
+		try {
+			return Duration.ofSeconds(Math.max(0, Long.parseLong(trimmed)));
+		}
+		catch (NumberFormatException ex) {
+			// not a number of seconds, try an HTTP date
+		}
+		try {
+			Instant date = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+			return date.isAfter(now) ? Duration.between(now, date) : Duration.ZERO;
+		}
+		catch (DateTimeParseException ex) {
+			return null;
+		}
+	}
+
+	private Retry retry(Attempts attempts) {
+		return Retry.from(signals -> signals.concatMap(signal -> {
+			Throwable failure = signal.failure();
+			if (attempts.emitted || !isTransient(failure)) {
+				return Mono.error(failure);
+			}
+			long delay = delayNanos(attempts, signal.totalRetries());
+			if (delay < 0) {
+				this.exhausted.increment();
+				return Mono.error(failure);
+			}
+			this.retries.increment();
+			return Mono.delay(Duration.ofNanos(delay), this.scheduler);
+		}));
+	}
+
+	/**
+	 * Returns the delay before the next attempt, or {@code -1} if the request is out of
+	 * attempts or time budget.
+	 */
+	private long delayNanos(Attempts attempts, long retries) {
+		if (retries + 1 >= this.maxAttempts) {
+			return -1;
+		}
+		long ceiling = Math.min(this.maxBackoffNanos, this.initialBackoffNanos << Math.min(retries, MAX_BACKOFF_SHIFT));
+		if (ceiling < 0) {
+			ceiling = this.maxBackoffNanos;
+		}
+		long delay = (long) (this.jitter.getAsDouble() * ceiling);
+		Duration retryAfter = attempts.retryAfter;
+		attempts.retryAfter = null;
+		if (retryAfter != null) {
+			delay = Math.max(delay, retryAfter.toNanos());
+		}
+		return (now() - attempts.start + delay <= this.budgetNanos) ? delay : -1;
+	}
+
+	private long now() {
+		return this.scheduler.now(TimeUnit.NANOSECONDS);
+	}
+
+	private static boolean isTransient(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof AbstractCloudFoundryException) {
+				Integer status = statusCode((AbstractCloudFoundryException) cause);
+				return status != null && (status == 429 || status == 502 || status == 503 || status == 504);
+			}
+			if (cause instanceof IOException || cause instanceof TimeoutException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the HTTP status of a Cloud Controller error, or {@code null} if it has
+	 * none, which {@link AbstractCloudFoundryException#getStatusCode()} reports by
+	 * failing to unbox it.
+	 * @param error the Cloud Controller error
+	 * @return the HTTP status of the error, or {@code null}
+	 */
+	public static Integer statusCode(AbstractCloudFoundryException error) {
+		try {
+			return error.getStatusCode();
+		}
+		catch (NullPointerException ex) {
+			return null;
+		}
+	}
+
+	private static final class Attempts {
+
+		private final long start;
+
+		private volatile boolean emitted;
+
+		private volatile Duration retryAfter;
+
+		private Attempts(long start) {
+			this.start = start;
+		}
+
+	}
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import org.springframework.beans.factory.ObjectProvider;
+
+/**
+ * Exposes the retries of a {@link CloudFoundryRetryPolicy} as Micrometer counters, so
+ * that retry storms show up next to the requests that cause them.
+ */
+public class CloudFoundryRetryPolicyMetrics implements MeterBinder {
+
+	private final ObjectProvider<CloudFoundryRetryPolicy> retryPolicy;
+
+	public CloudFoundryRetryPolicyMetrics(ObjectProvider<CloudFoundryRetryPolicy> retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.retryPolicy.ifAvailable(retryPolicy -> {
+			FunctionCounter
+					.builder("cloudfoundry.requests.retries", retryPolicy, CloudFoundryRetryPolicy::getRetryCount)
+					.description("Retries of requests that failed with a transient error").register(registry);
+			FunctionCounter
+					.builder("cloudfoundry.requests.retries.exhausted", retryPolicy,
+							CloudFoundryRetryPolicy::getExhaustedCount)
+					.description("Requests that failed with a transient error after running out of retries")
+					.register(registry);
+		});
+	}
+
+}
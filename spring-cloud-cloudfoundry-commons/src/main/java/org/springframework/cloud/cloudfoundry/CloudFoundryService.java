@@ -16,16 +16,25 @@
 
 package org.springframework.cloud.cloudfoundry;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.UnaryOperator;
+
 import org.cloudfoundry.operations.CloudFoundryOperations;
 import org.cloudfoundry.operations.applications.ApplicationDetail;
 import org.cloudfoundry.operations.applications.GetApplicationRequest;
 import org.cloudfoundry.operations.applications.InstanceDetail;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 /**
  * Supports the discovery of a combination of an application instance's URI, port,
- * application ID, and application index.
+ * application ID, and application index. Concurrent lookups of the same application share
+ * a single in-flight request to the Cloud Controller, as long as they have the same
+ * {@link CloudFoundryRequestThrottle#background() priority}: a background lookup that is
+ * shed by the throttle never fails the urgent lookups of the same application.
  *
  * @author Josh Long
  */
@@ -33,18 +42,72 @@ public class CloudFoundryService {
 
 	private final CloudFoundryOperations cloudFoundryOperations;
 
+	private final CloudFoundryRequestListener requestListener;
+
+	private final CloudFoundryRequestThrottle requestThrottle;
+
+	private final CloudFoundryRetryPolicy retryPolicy;
+
+	private final ConcurrentMap<Tuple2<String, Boolean>, Flux<Tuple2<ApplicationDetail, InstanceDetail>>> inFlight = new ConcurrentHashMap<>();
+
+	private UnaryOperator<Mono<ApplicationDetail>> requestGuard = UnaryOperator.identity();
+
 	public CloudFoundryService(CloudFoundryOperations cloudFoundryOperations) {
+		this(cloudFoundryOperations, CloudFoundryRequestListener.NONE);
+	}
+
+	public CloudFoundryService(CloudFoundryOperations cloudFoundryOperations,
+			CloudFoundryRequestListener requestListener) {
+		this(cloudFoundryOperations, requestListener, CloudFoundryRequestThrottle.UNLIMITED);
+	}
+
+	public CloudFoundryService(CloudFoundryOperations cloudFoundryOperations,
+			CloudFoundryRequestListener requestListener, CloudFoundryRequestThrottle requestThrottle) {
+		this(cloudFoundryOperations, requestListener, requestThrottle, CloudFoundryRetryPolicy.NONE);
+	}
+
+	public CloudFoundryService(CloudFoundryOperations cloudFoundryOperations,
+			CloudFoundryRequestListener requestListener, CloudFoundryRequestThrottle requestThrottle,
+			CloudFoundryRetryPolicy retryPolicy) {
 		this.cloudFoundryOperations = cloudFoundryOperations;
+		this.requestListener = requestListener;
+		this.requestThrottle = requestThrottle;
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Sets the guard around the requests made to the Cloud Controller, such as a circuit
+	 * breaker. It is applied once to each request, however many lookups share it.
+	 * @param requestGuard the guard
+	 */
+	public void setRequestGuard(UnaryOperator<Mono<ApplicationDetail>> requestGuard) {
+		this.requestGuard = requestGuard;
 	}
 
 	public Flux<Tuple2<ApplicationDetail, InstanceDetail>> getApplicationInstances(String serviceId) {
+		return Flux.deferContextual(context -> this.inFlight.computeIfAbsent(
+				Tuples.of(serviceId, CloudFoundryRequestThrottle.isBackground(context)),
+				this::sharedApplicationInstances));
+	}
+
+	private Flux<Tuple2<ApplicationDetail, InstanceDetail>> sharedApplicationInstances(Tuple2<String, Boolean> key) {
+		// replay the single result to every caller of the same priority that joins while
+		// the request is running, then forget it so that the next lookup hits the Cloud
+		// Controller again
+		return fetchApplicationInstances(key.getT1()).doFinally(signal -> this.inFlight.remove(key)).cache();
+	}
+
+	private Flux<Tuple2<ApplicationDetail, InstanceDetail>> fetchApplicationInstances(String serviceId) {
 		GetApplicationRequest applicationRequest = GetApplicationRequest.builder().name(serviceId).build();
-		return this.cloudFoundryOperations.applications().get(applicationRequest).flatMapMany(applicationDetail -> {
-			Flux<InstanceDetail> ids = Flux.fromStream(applicationDetail.getInstanceDetails().stream())
-					.filter(id -> id.getState().equalsIgnoreCase("RUNNING"));
-			Flux<ApplicationDetail> generate = Flux.generate(sink -> sink.next(applicationDetail));
-			return generate.zipWith(ids);
-		});
+		Mono<ApplicationDetail> application = this.requestGuard.apply(this.retryPolicy
+				.retry(this.requestThrottle.throttle(this.requestListener.observe(CloudFoundryRequestListener.GET,
+						serviceId, this.cloudFoundryOperations.applications().get(applicationRequest)))));
+		return CloudFoundryFlightRecorder.record(this, CloudFoundryRequestListener.GET, serviceId, false, application,
+				ApplicationDetail::getRunningInstances).flatMapMany(applicationDetail -> {
+					return Flux.fromIterable(applicationDetail.getInstanceDetails())
+							.filter(id -> id.getState().equalsIgnoreCase("RUNNING"))
+							.map(id -> Tuples.of(applicationDetail, id));
+				});
 	}
 
 }
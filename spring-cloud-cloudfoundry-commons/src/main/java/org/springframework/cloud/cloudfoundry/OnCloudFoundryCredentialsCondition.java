@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import org.springframework.boot.autoconfigure.condition.AnyNestedCondition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+
+/**
+ * Matches when credentials for the Cloud Foundry API are configured, either a username
+ * and password or a client id and secret.
+ */
+class OnCloudFoundryCredentialsCondition extends AnyNestedCondition {
+
+	OnCloudFoundryCredentialsCondition() {
+		super(ConfigurationPhase.PARSE_CONFIGURATION);
+	}
+
+	@ConditionalOnProperty(prefix = "spring.cloud.cloudfoundry", name = { "username", "password" })
+	static class UserCredentials {
+
+	}
+
+	@ConditionalOnProperty(prefix = "spring.cloud.cloudfoundry", name = { "client-id", "client-secret" })
+	static class ClientCredentials {
+
+	}
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.cloudfoundry.reactor.ConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * {@link TokenProvider} that refreshes the access token of another provider in the
+ * background, some time before it expires, so that requests never wait for a token once
+ * the first one has been obtained. The previous token keeps being served until the new
+ * one arrives; a failed refresh is retried while the previous token is valid.
+ * <p>
+ * The expiry is read from the {@code exp} claim of the token. Tokens without one are
+ * passed through as they are.
+ */
+public class RefreshingTokenProvider implements TokenProvider, DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(RefreshingTokenProvider.class);
+
+	private static final Pattern EXPIRY_CLAIM = Pattern.compile("\"exp\"\\s*:\\s*(\\d+)");
+
+	private static final Duration RETRY_INTERVAL = Duration.ofSeconds(10);
+
+	private final TokenProvider delegate;
+
+	private final Duration refreshBeforeExpiry;
+
+	private final Scheduler scheduler;
+
+	private final Clock clock;
+
+	private final ConcurrentMap<ConnectionContext, Token> tokens = new ConcurrentHashMap<>();
+
+	private final LongAdder refreshes = new LongAdder();
+
+	private final LongAdder failures = new LongAdder();
+
+	private final AtomicLong refreshNanos = new AtomicLong();
+
+	private CloudFoundryRetryPolicy retryPolicy = CloudFoundryRetryPolicy.NONE;
+
+	public RefreshingTokenProvider(TokenProvider delegate, Duration refreshBeforeExpiry) {
+		this(delegate, refreshBeforeExpiry, Schedulers.newSingle("cloudfoundry-token-refresh", true),
+				Clock.systemUTC());
+	}
+
+	RefreshingTokenProvider(TokenProvider delegate, Duration refreshBeforeExpiry, Scheduler scheduler, Clock clock) {
+		this.delegate = delegate;
+		this.refreshBeforeExpiry = refreshBeforeExpiry;
+		this.scheduler = scheduler;
+		this.clock = clock;
+	}
+
+	@Override
+	public Mono<String> getToken(ConnectionContext connectionContext) {
+		Token token = this.tokens.get(connectionContext);
+		if (token != null && this.clock.instant().isBefore(token.expiresAt)) {
+			return Mono.just(token.value);
+		}
+		return this.delegate.getToken(connectionContext).doOnNext(value -> store(connectionContext, value));
+	}
+
+	@Override
+	public void invalidate(ConnectionContext connectionContext) {
+		Token token = this.tokens.remove(connectionContext);
+		if (token != null) {
+			token.refresh.dispose();
+		}
+		this.delegate.invalidate(connectionContext);
+	}
+
+	private void store(ConnectionContext connectionContext, String value) {
+		Instant expiresAt = expiry(value);
+		if (expiresAt == null) {
+			return;
+		}
+		Token token = new Token(value, expiresAt);
+		Token previous = this.tokens.put(connectionContext, token);
+		if (previous != null) {
+			previous.refresh.dispose();
+		}
+		scheduleRefresh(connectionContext, token,
+				Duration.between(this.clock.instant(), expiresAt.minus(this.refreshBeforeExpiry)));
+	}
+
+	private void scheduleRefresh(ConnectionContext connectionContext, Token token, Duration delay) {
+		token.refresh = this.scheduler.schedule(() -> refresh(connectionContext), Math.max(0, delay.toMillis()),
+				TimeUnit.MILLISECONDS);
+	}
+
+	private void refresh(ConnectionContext connectionContext) {
+		long start = System.nanoTime();
+		this.delegate.invalidate(connectionContext);
+		this.retryPolicy.retry(this.delegate.getToken(connectionContext)).subscribe(value -> {
+			this.refreshes.increment();
+			this.refreshNanos.addAndGet(System.nanoTime() - start);
+			store(connectionContext, value);
+		}, error -> {
+			this.failures.increment();
+			log.warn("Failed to refresh the Cloud Foundry access token: {}", error.getMessage());
+			Token token = this.tokens.get(connectionContext);
+			if (token != null && this.clock.instant().plus(RETRY_INTERVAL).isBefore(token.expiresAt)) {
+				scheduleRefresh(connectionContext, token, RETRY_INTERVAL);
+			}
+		});
+	}
+
+	static Instant expiry(String token) {
+		String[] parts = token.substring(token.indexOf(' ') + 1).split("\\.");
+		if (parts.length < 2) {
+			return null;
+		}
+		try {
+			String claims = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+			Matcher matcher = EXPIRY_CLAIM.matcher(claims);
+			return matcher.find() ? Instant.ofEpochSecond(Long.parseLong(matcher.group(1))) : null;
+		}
+		catch (IllegalArgumentException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Sets the policy that retries the background refreshes of the token.
+	 * @param retryPolicy the retry policy
+	 */
+	public void setRetryPolicy(CloudFoundryRetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Returns how many times a token was refreshed ahead of its expiry.
+	 * @return the number of successful refreshes
+	 */
+	public long getRefreshCount() {
+		return this.refreshes.sum();
+	}
+
+	/**
+	 * Returns the total time spent obtaining refreshed tokens.
+	 * @return the total refresh time, in nanoseconds
+	 */
+	public long getRefreshTimeNanos() {
+		return this.refreshNanos.get();
+	}
+
+	/**
+	 * Returns how many refreshes failed.
+	 * @return the number of failed refreshes
+	 */
+	public long getRefreshFailureCount() {
+		return this.failures.sum();
+	}
+
+	@Override
+	public void destroy() {
+		this.tokens.values().forEach(token -> token.refresh.dispose());
+		this.scheduler.dispose();
+	}
+
+	private static final class Token {
+
+		private final String value;
+
+		private final Instant expiresAt;
+
+		private volatile Disposable refresh = () -> {
+		};
+
+		private Token(String value, Instant expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import org.springframework.beans.factory.ObjectProvider;
+
+/**
+ * Exposes the background token refreshes of a {@link RefreshingTokenProvider} as
+ * Micrometer meters.
+ */
+public class RefreshingTokenProviderMetrics implements MeterBinder {
+
+	private final ObjectProvider<RefreshingTokenProvider> tokenProvider;
+
+	public RefreshingTokenProviderMetrics(ObjectProvider<RefreshingTokenProvider> tokenProvider) {
+		this.tokenProvider = tokenProvider;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.tokenProvider.ifAvailable(tokenProvider -> {
+			FunctionTimer
+					.builder("cloudfoundry.token.refresh", tokenProvider, RefreshingTokenProvider::getRefreshCount,
+							RefreshingTokenProvider::getRefreshTimeNanos, TimeUnit.NANOSECONDS)
+					.description("Time taken to refresh the access token ahead of its expiry").register(registry);
+			FunctionCounter
+					.builder("cloudfoundry.token.refresh.failures", tokenProvider,
+							RefreshingTokenProvider::getRefreshFailureCount)
+					.description("Number of failed refreshes of the access token").register(registry);
+		});
+	}
+
+}
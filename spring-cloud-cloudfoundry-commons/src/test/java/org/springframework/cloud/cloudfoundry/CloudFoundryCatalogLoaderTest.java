@@ -0,0 +1,241 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v3.BuildpackData;
+import org.cloudfoundry.client.v3.Lifecycle;
+import org.cloudfoundry.client.v3.LifecycleType;
+import org.cloudfoundry.client.v3.Link;
+import org.cloudfoundry.client.v3.Metadata;
+import org.cloudfoundry.client.v3.Pagination;
+import org.cloudfoundry.client.v3.Relationship;
+import org.cloudfoundry.client.v3.ToOneRelationship;
+import org.cloudfoundry.client.v3.applications.ApplicationResource;
+import org.cloudfoundry.client.v3.applications.ApplicationState;
+import org.cloudfoundry.client.v3.applications.ApplicationsV3;
+import org.cloudfoundry.client.v3.applications.ListApplicationsRequest;
+import org.cloudfoundry.client.v3.applications.ListApplicationsResponse;
+import org.cloudfoundry.client.v3.processes.Data;
+import org.cloudfoundry.client.v3.processes.HealthCheck;
+import org.cloudfoundry.client.v3.processes.HealthCheckType;
+import org.cloudfoundry.client.v3.processes.ListProcessesRequest;
+import org.cloudfoundry.client.v3.processes.ListProcessesResponse;
+import org.cloudfoundry.client.v3.processes.ProcessRelationships;
+import org.cloudfoundry.client.v3.processes.ProcessResource;
+import org.cloudfoundry.client.v3.processes.Processes;
+import org.cloudfoundry.client.v3.routes.Application;
+import org.cloudfoundry.client.v3.routes.Destination;
+import org.cloudfoundry.client.v3.routes.ListRoutesRequest;
+import org.cloudfoundry.client.v3.routes.ListRoutesResponse;
+import org.cloudfoundry.client.v3.routes.RouteRelationships;
+import org.cloudfoundry.client.v3.routes.RouteResource;
+import org.cloudfoundry.client.v3.routes.RoutesV3;
+import org.cloudfoundry.operations.applications.ApplicationDetail;
+import org.cloudfoundry.operations.applications.InstanceDetail;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.function.Tuple2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CloudFoundryCatalogLoaderTest {
+
+	private static final String JANUARY_1 = "2022-01-01T00:00:00Z";
+
+	private ApplicationsV3 applications;
+
+	private Processes processes;
+
+	private RoutesV3 routes;
+
+	private CloudFoundryCatalogLoader loader;
+
+	@Before
+	public void setUp() {
+		CloudFoundryClient client = mock(CloudFoundryClient.class);
+		this.applications = mock(ApplicationsV3.class);
+		this.processes = mock(Processes.class);
+		this.routes = mock(RoutesV3.class);
+		given(client.applicationsV3()).willReturn(this.applications);
+		given(client.processes()).willReturn(this.processes);
+		given(client.routesV3()).willReturn(this.routes);
+		ListApplicationsResponse applicationsResponse = ListApplicationsResponse.builder().pagination(pagination(2))
+				.resource(application("billing-id", "billing", ApplicationState.STARTED, JANUARY_1))
+				.resource(application("catalog-id", "catalog", ApplicationState.STOPPED, JANUARY_1)).build();
+		ListProcessesResponse processesResponse = ListProcessesResponse.builder().pagination(pagination(2))
+				.resource(process("billing-id", 2)).resource(process("catalog-id", 1)).build();
+		ListRoutesResponse routesResponse = ListRoutesResponse.builder().pagination(pagination(1))
+				.resource(route("billing-id", "billing.apps.internal")).build();
+		given(this.applications.list(any(ListApplicationsRequest.class))).willReturn(Mono.just(applicationsResponse));
+		given(this.processes.list(any(ListProcessesRequest.class))).willReturn(Mono.just(processesResponse));
+		given(this.routes.list(any(ListRoutesRequest.class))).willReturn(Mono.just(routesResponse));
+		this.loader = new CloudFoundryCatalogLoader(client, Mono.just("space-id"));
+	}
+
+	@Test
+	public void joinsApplicationsProcessesAndRoutes() {
+		Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>> catalog = this.loader.loadApplicationInstances()
+				.block();
+
+		assertThat(catalog).containsOnlyKeys("billing", "catalog");
+		assertThat(catalog.get("billing")).extracting(tuple -> tuple.getT2().getIndex()).containsExactly("0", "1");
+		ApplicationDetail billing = catalog.get("billing").get(0).getT1();
+		assertThat(billing.getId()).isEqualTo("billing-id");
+		assertThat(billing.getUrls()).containsExactly("billing.apps.internal");
+		assertThat(billing.getRunningInstances()).isEqualTo(2);
+		assertThat(billing.getStack()).isEqualTo("cflinuxfs3");
+		assertThat(catalog.get("catalog")).isEmpty();
+	}
+
+	@Test
+	public void listsEachResourceOncePerLoad() {
+		this.loader.loadApplicationInstances().block();
+
+		verify(this.applications, times(1)).list(any(ListApplicationsRequest.class));
+		verify(this.processes, times(1)).list(any(ListProcessesRequest.class));
+		verify(this.routes, times(1)).list(any(ListRoutesRequest.class));
+	}
+
+	@Test
+	public void concurrentLoadsShareOneSetOfRequests() {
+		Sinks.One<ListApplicationsResponse> response = Sinks.one();
+		given(this.applications.list(any(ListApplicationsRequest.class))).willReturn(response.asMono());
+		Mono<Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>>> first = this.loader
+				.loadApplicationInstances();
+		Mono<Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>>> second = this.loader
+				.loadApplicationInstances();
+
+		AtomicReference<Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>>> result = new AtomicReference<>();
+		ListApplicationsResponse empty = ListApplicationsResponse.builder().pagination(pagination(0))
+				.resources(Collections.emptyList()).build();
+
+		first.subscribe();
+		second.subscribe(result::set);
+		response.tryEmitValue(empty);
+
+		verify(this.applications, times(1)).list(any(ListApplicationsRequest.class));
+		assertThat(result.get()).isEmpty();
+	}
+
+	@Test
+	public void laterLoadsListOnlyUpdatedResources() {
+		this.loader.loadApplicationInstances().block();
+		ListApplicationsResponse updated = ListApplicationsResponse.builder()
+				.pagination(Pagination.builder().totalPages(2).totalResults(2)
+						.next(Link.builder().href("https://api/v3/apps?page=2").build()).build())
+				.resource(application("billing-id", "billing", ApplicationState.STOPPED, "2022-01-02T00:00:00Z"))
+				.resource(application("catalog-id", "catalog", ApplicationState.STOPPED, "2021-12-31T00:00:00Z"))
+				.build();
+		given(this.applications.list(any(ListApplicationsRequest.class))).willReturn(Mono.just(updated));
+
+		Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>> catalog = this.loader.loadApplicationInstances()
+				.block();
+
+		assertThat(catalog).containsOnlyKeys("billing", "catalog");
+		assertThat(catalog.get("billing")).isEmpty();
+		verify(this.applications, times(1)).list(argThat(request -> request.getPerPage() == 50));
+		verify(this.applications, times(1)).list(argThat(request -> request.getPerPage() == 5000));
+		verify(this.applications, never()).list(argThat(request -> request.getPage() == 2));
+	}
+
+	@Test
+	public void laterLoadsPageUntilTheFirstResourceAlreadySeen() {
+		this.loader.loadApplicationInstances().block();
+		ListApplicationsResponse first = ListApplicationsResponse.builder()
+				.pagination(Pagination.builder().totalPages(2).totalResults(2)
+						.next(Link.builder().href("https://api/v3/apps?page=2").build()).build())
+				.resource(application("billing-id", "billing", ApplicationState.STOPPED, "2022-01-02T00:00:00Z"))
+				.build();
+		ListApplicationsResponse second = ListApplicationsResponse.builder().pagination(pagination(2))
+				.resource(application("catalog-id", "catalog", ApplicationState.STOPPED, JANUARY_1)).build();
+		given(this.applications.list(any(ListApplicationsRequest.class))).willAnswer(invocation -> Mono
+				.just((invocation.<ListApplicationsRequest>getArgument(0).getPage() == 1) ? first : second));
+
+		Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>> catalog = this.loader.loadApplicationInstances()
+				.block();
+
+		assertThat(catalog.get("billing")).isEmpty();
+		verify(this.applications, times(1)).list(argThat(request -> request.getPage() == 2));
+		verify(this.applications, never()).list(argThat(request -> request.getPage() == 3));
+		verify(this.applications, times(1)).list(argThat(request -> request.getPerPage() == 5000));
+	}
+
+	@Test
+	public void laterLoadsDropDeletedResources() {
+		this.loader.loadApplicationInstances().block();
+		ListRoutesResponse empty = ListRoutesResponse.builder().pagination(pagination(0))
+				.resources(Collections.emptyList()).build();
+		given(this.routes.list(any(ListRoutesRequest.class))).willReturn(Mono.just(empty));
+
+		Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>> catalog = this.loader.loadApplicationInstances()
+				.block();
+
+		assertThat(catalog.get("billing").get(0).getT1().getUrls()).isEmpty();
+		verify(this.applications, times(1)).list(argThat(request -> request.getPerPage() == 5000));
+		verify(this.applications, times(1)).list(argThat(request -> request.getPerPage() == 50));
+		verify(this.routes, times(2)).list(argThat(request -> request.getPerPage() == 5000));
+		verify(this.routes, times(1)).list(argThat(request -> request.getPerPage() == 50));
+	}
+
+	private static Pagination pagination(int totalResults) {
+		return Pagination.builder().totalPages(1).totalResults(totalResults).build();
+	}
+
+	private static ApplicationResource application(String id, String name, ApplicationState state, String updatedAt) {
+		return ApplicationResource.builder().id(id).name(name).state(state).createdAt(JANUARY_1).updatedAt(updatedAt)
+				.metadata(Metadata.builder().build()).lifecycle(Lifecycle.builder().type(LifecycleType.BUILDPACK)
+						.data(BuildpackData.builder().stack("cflinuxfs3").build()).build())
+				.build();
+	}
+
+	private static ProcessResource process(String applicationId, int instances) {
+		return ProcessResource.builder().id(applicationId + "-web").type("web").instances(instances).memoryInMb(1024)
+				.diskInMb(1024).command("run").createdAt(JANUARY_1).updatedAt(JANUARY_1)
+				.metadata(Metadata.builder().build())
+				.healthCheck(HealthCheck.builder().type(HealthCheckType.PORT).data(Data.builder().build()).build())
+				.relationships(ProcessRelationships.builder().app(toOne(applicationId)).build()).build();
+	}
+
+	private static ToOneRelationship toOne(String id) {
+		return ToOneRelationship.builder().data(Relationship.builder().id(id).build()).build();
+	}
+
+	private static RouteResource route(String applicationId, String url) {
+		return RouteResource.builder().id(url).url(url).host(url.substring(0, url.indexOf('.'))).path("")
+				.createdAt(JANUARY_1).updatedAt(JANUARY_1).metadata(Metadata.builder().build())
+				.destination(Destination.builder()
+						.application(Application.builder().applicationId(applicationId).build()).build())
+				.relationships(RouteRelationships.builder().domain(toOne("domain-id")).space(toOne("space-id")).build())
+				.build();
+	}
+
+}
@@ -16,17 +16,24 @@
 
 package org.springframework.cloud.cloudfoundry;
 
+import java.time.Duration;
+
 import org.cloudfoundry.doppler.DopplerClient;
 import org.cloudfoundry.operations.CloudFoundryOperations;
 import org.cloudfoundry.operations.DefaultCloudFoundryOperations;
 import org.cloudfoundry.operations.organizations.OrganizationSummary;
 import org.cloudfoundry.reactor.DefaultConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
 import org.cloudfoundry.reactor.client.ReactorCloudFoundryClient;
+import org.cloudfoundry.reactor.tokenprovider.ClientCredentialsGrantTokenProvider;
 import org.cloudfoundry.reactor.tokenprovider.PasswordGrantTokenProvider;
 import org.cloudfoundry.reactor.uaa.ReactorUaaClient;
 import org.cloudfoundry.routing.RoutingClient;
 import org.junit.Assume;
 import org.junit.Test;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClientConfig;
+import reactor.netty.resources.ConnectionProvider;
 
 import org.springframework.boot.autoconfigure.AutoConfigurations;
 import org.springframework.boot.test.context.assertj.AssertableApplicationContext;
@@ -77,6 +84,46 @@ public class CloudFoundryClientAutoConfigurationTest {
 					DefaultCloudFoundryOperations operations = context.getBean(DefaultCloudFoundryOperations.class);
 					assertThat(operations.getOrganization()).isNullOrEmpty();
 					assertThat(operations.getSpace()).isNullOrEmpty();
+					assertThat(context).doesNotHaveBean(CloudFoundryClientWarmUp.class);
+				});
+	}
+
+	@Test
+	public void autoConfiguresClientCredentialsTokenProvider() {
+		this.contextRunner.withPropertyValues("spring.cloud.cloudfoundry.url=api.example.com",
+				"spring.cloud.cloudfoundry.client-id=discovery", "spring.cloud.cloudfoundry.client-secret=secret")
+				.run((context) -> {
+					assertThat(context).hasSingleBean(ClientCredentialsGrantTokenProvider.class);
+					assertThat(context).doesNotHaveBean(PasswordGrantTokenProvider.class);
+					assertThat(context.getBean(TokenProvider.class)).isInstanceOf(RefreshingTokenProvider.class);
+				});
+	}
+
+	@Test
+	public void tokenRefreshCanBeDisabled() {
+		this.contextRunner.withPropertyValues("spring.cloud.cloudfoundry.username=user",
+				"spring.cloud.cloudfoundry.password=secret", "spring.cloud.cloudfoundry.token-refresh.enabled=false")
+				.run((context) -> {
+					assertThat(context).doesNotHaveBean(RefreshingTokenProvider.class);
+					assertThat(context.getBean(TokenProvider.class)).isInstanceOf(PasswordGrantTokenProvider.class);
+				});
+	}
+
+	@Test
+	public void configuresConnectionPoolAndHttpClient() {
+		this.contextRunner.withPropertyValues("spring.cloud.cloudfoundry.username=user",
+				"spring.cloud.cloudfoundry.password=secret", "spring.cloud.cloudfoundry.http.max-connections=4",
+				"spring.cloud.cloudfoundry.http.response-timeout=3s", "spring.cloud.cloudfoundry.http.http2=true")
+				.run((context) -> {
+					ConnectionProvider connectionProvider = context.getBean(ConnectionProvider.class);
+					assertThat(connectionProvider.maxConnections()).isEqualTo(4);
+
+					HttpClientConfig configuration = context.getBean(DefaultConnectionContext.class).getHttpClient()
+							.configuration();
+					assertThat(configuration.connectionProvider().maxConnections()).isEqualTo(4);
+					assertThat(configuration.responseTimeout()).isEqualTo(Duration.ofSeconds(3));
+					assertThat(configuration.protocols()).containsExactly(HttpProtocol.H2, HttpProtocol.HTTP11);
+					assertThat(configuration.isSecure()).isTrue();
 				});
 	}
 
@@ -104,6 +151,7 @@ public class CloudFoundryClientAutoConfigurationTest {
 		assertThat(context).hasSingleBean(RoutingClient.class);
 		assertThat(context).hasSingleBean(PasswordGrantTokenProvider.class);
 		assertThat(context).hasSingleBean(ReactorUaaClient.class);
+		assertThat(context).hasSingleBean(CloudFoundryCatalogLoader.class);
 	}
 
 }
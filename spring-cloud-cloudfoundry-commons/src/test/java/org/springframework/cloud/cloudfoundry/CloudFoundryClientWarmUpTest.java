@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.info.GetInfoRequest;
+import org.cloudfoundry.client.v2.info.GetInfoResponse;
+import org.cloudfoundry.client.v2.info.Info;
+import org.cloudfoundry.reactor.ConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CloudFoundryClientWarmUpTest {
+
+	private final ConnectionContext connectionContext = mock(ConnectionContext.class);
+
+	private final TokenProvider tokenProvider = mock(TokenProvider.class);
+
+	private final CloudFoundryClient cloudFoundryClient = mock(CloudFoundryClient.class);
+
+	private final Info info = mock(Info.class);
+
+	private final CloudFoundryProperties.WarmUp properties = new CloudFoundryProperties.WarmUp();
+
+	private final AtomicInteger concurrentRequests = new AtomicInteger();
+
+	private CloudFoundryClientWarmUp warmUp;
+
+	@Before
+	public void setUp() {
+		given(this.cloudFoundryClient.info()).willReturn(this.info);
+		this.properties.setConnections(3);
+		this.warmUp = new CloudFoundryClientWarmUp(this.connectionContext, this.tokenProvider, this.cloudFoundryClient,
+				this.properties);
+	}
+
+	@Test
+	public void obtainsTokenThenOpensConnectionsConcurrently() {
+		AtomicInteger inFlight = new AtomicInteger();
+		given(this.tokenProvider.getToken(this.connectionContext)).willReturn(Mono.just("token"));
+		given(this.info.get(any(GetInfoRequest.class))).willAnswer(invocation -> Mono.defer(() -> {
+			this.concurrentRequests.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			return Mono.delay(Duration.ofMillis(50)).then(Mono.fromCallable(() -> {
+				inFlight.decrementAndGet();
+				return GetInfoResponse.builder().build();
+			}));
+		}));
+
+		this.warmUp.afterSingletonsInstantiated();
+
+		verify(this.info, times(3)).get(any(GetInfoRequest.class));
+		assertThat(this.concurrentRequests).hasValue(3);
+		assertThat(this.warmUp.getDuration()).isNotNull();
+	}
+
+	@Test
+	public void startupWaitsAtMostTheTimeout() {
+		this.properties.setTimeout(Duration.ofMillis(100));
+		given(this.tokenProvider.getToken(this.connectionContext)).willReturn(Mono.never());
+		long start = System.nanoTime();
+
+		this.warmUp.afterSingletonsInstantiated();
+
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+		assertThat(this.warmUp.getDuration()).isNull();
+	}
+
+	@Test
+	public void failureDoesNotFailStartup() {
+		given(this.tokenProvider.getToken(this.connectionContext))
+				.willReturn(Mono.error(new IllegalStateException("bad credentials")));
+
+		this.warmUp.afterSingletonsInstantiated();
+
+		assertThat(this.warmUp.getDuration()).isNull();
+	}
+
+}
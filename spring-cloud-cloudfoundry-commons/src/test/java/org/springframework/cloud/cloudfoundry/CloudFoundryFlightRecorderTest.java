@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CloudFoundryFlightRecorderTest {
+
+	private static final String EVENT = "org.springframework.cloud.cloudfoundry.Lookup";
+
+	private Recording recording;
+
+	@Before
+	public void setUp() {
+		this.recording = new Recording();
+		this.recording.enable(EVENT);
+		this.recording.start();
+	}
+
+	@After
+	public void tearDown() {
+		this.recording.close();
+	}
+
+	@Test
+	public void recordsEverySubscriptionToALookup() throws IOException {
+		Mono<List<String>> lookup = CloudFoundryFlightRecorder.record(this, CloudFoundryRequestListener.GET, "billing",
+				true, Mono.just(Arrays.asList("0", "1")), List::size);
+		lookup.block();
+		lookup.block();
+		assertThatThrownBy(() -> CloudFoundryFlightRecorder
+				.record(this, CloudFoundryRequestListener.LIST, CloudFoundryRequestListener.NO_SERVICE,
+						Flux.just("billing").concatWith(Flux.error(new IllegalStateException("unavailable"))))
+				.blockLast()).isInstanceOf(IllegalStateException.class);
+
+		List<RecordedEvent> events = stop();
+
+		assertThat(events).hasSize(3);
+		assertThat(events).extracting(event -> event.getString("serviceId")).containsExactly("billing", "billing",
+				"none");
+		RecordedEvent get = events.get(0);
+		assertThat(get.getString("source")).isEqualTo("CloudFoundryFlightRecorderTest");
+		assertThat(get.getString("operation")).isEqualTo("get");
+		assertThat(get.getInt("instanceCount")).isEqualTo(2);
+		assertThat(get.getBoolean("cacheHit")).isTrue();
+		assertThat(get.getString("error")).isNull();
+		assertThat(get.getThread("subscribingThread").getJavaName()).isEqualTo(Thread.currentThread().getName());
+		RecordedEvent list = events.get(2);
+		assertThat(list.getInt("instanceCount")).isEqualTo(1);
+		assertThat(list.getBoolean("cacheHit")).isFalse();
+		assertThat(list.getString("error")).contains("unavailable");
+	}
+
+	@Test
+	public void disabledEventLeavesLookupAsIs() throws IOException {
+		this.recording.disable(EVENT);
+		Mono<String> lookup = Mono.just("billing");
+		Flux<String> services = Flux.just("billing");
+
+		assertThat(CloudFoundryFlightRecorder.record(this, CloudFoundryRequestListener.GET, "billing", false, lookup,
+				String::length)).isSameAs(lookup);
+		assertThat(CloudFoundryFlightRecorder.record(this, CloudFoundryRequestListener.LIST,
+				CloudFoundryRequestListener.NO_SERVICE, services)).isSameAs(services);
+		CloudFoundryFlightRecorder.recordHit(this, CloudFoundryRequestListener.GET, "billing", 1);
+
+		assertThat(stop()).isEmpty();
+	}
+
+	private List<RecordedEvent> stop() throws IOException {
+		this.recording.stop();
+		Path file = Files.createTempFile("cloudfoundry", ".jfr");
+		try {
+			this.recording.dump(file);
+			return RecordingFile.readAllEvents(file).stream()
+					.filter(event -> event.getEventType().getName().equals(EVENT)).collect(Collectors.toList());
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.time.Duration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CloudFoundryRequestMetricsTest {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final CloudFoundryRequestMetrics metrics = new CloudFoundryRequestMetrics(2);
+
+	@Before
+	public void setUp() {
+		this.metrics.bindTo(this.registry);
+	}
+
+	@Test
+	public void recordsOutcomeOfEveryRequest() {
+		this.metrics.observe(CloudFoundryRequestListener.GET, "billing", Mono.just("billing")).block();
+		this.metrics.observe(CloudFoundryRequestListener.GET, "billing", Mono.just("billing")).block();
+		assertThatThrownBy(
+				() -> this.metrics.observe(CloudFoundryRequestListener.LIST, CloudFoundryRequestListener.NO_SERVICE,
+						Flux.error(new IllegalStateException("unavailable"))).blockLast())
+								.isInstanceOf(IllegalStateException.class);
+		assertThatThrownBy(() -> this.metrics.observe(CloudFoundryRequestListener.GET, "billing", Mono.never())
+				.timeout(Duration.ofMillis(10)).block()).isInstanceOf(RuntimeException.class);
+
+		assertThat(count("get", "SUCCESS", "billing")).isEqualTo(2);
+		assertThat(count("list", "ERROR", "none")).isEqualTo(1);
+		assertThat(count("get", "CANCELLED", "billing")).isEqualTo(1);
+	}
+
+	@Test
+	public void boundsServiceTagValues() {
+		for (String serviceId : new String[] { "billing", "catalog", "orders", "billing", "payments" }) {
+			this.metrics.observe(CloudFoundryRequestListener.GET, serviceId, Mono.just(serviceId)).block();
+		}
+
+		assertThat(count("get", "SUCCESS", "billing")).isEqualTo(2);
+		assertThat(count("get", "SUCCESS", "catalog")).isEqualTo(1);
+		assertThat(count("get", "SUCCESS", CloudFoundryRequestMetrics.OTHER_SERVICE)).isEqualTo(2);
+		assertThat(this.registry.find("cloudfoundry.requests").timers()).hasSize(3);
+	}
+
+	@Test
+	public void subscribesOnceToObservedRequest() {
+		int[] subscriptions = new int[1];
+		Mono<String> request = Mono.fromCallable(() -> {
+			subscriptions[0]++;
+			return "billing";
+		});
+
+		this.metrics.observe(CloudFoundryRequestListener.GET, "billing", request).block();
+
+		assertThat(subscriptions[0]).isEqualTo(1);
+	}
+
+	private long count(String operation, String outcome, String service) {
+		return this.registry.get("cloudfoundry.requests").tag("operation", operation).tag("outcome", outcome)
+				.tag("service", service).timer().count();
+	}
+
+}
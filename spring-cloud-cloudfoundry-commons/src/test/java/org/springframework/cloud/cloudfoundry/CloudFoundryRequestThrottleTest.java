@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CloudFoundryRequestThrottleTest {
+
+	private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+
+	@Test
+	public void rateLimitDelaysUrgentRequestsInOrder() {
+		CloudFoundryRequestThrottle throttle = new CloudFoundryRequestThrottle(1, 2, 0, Duration.ofSeconds(10),
+				this.scheduler);
+
+		CompletableFuture<String> first = throttle.throttle(Mono.just("first")).toFuture();
+		CompletableFuture<String> second = throttle.throttle(Mono.just("second")).toFuture();
+		CompletableFuture<String> third = throttle.throttle(Mono.just("third")).toFuture();
+		CompletableFuture<String> fourth = throttle.throttle(Mono.just("fourth")).toFuture();
+
+		assertThat(first).isCompletedWithValue("first");
+		assertThat(second).isCompletedWithValue("second");
+		assertThat(third).isNotDone();
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(1));
+		assertThat(third).isCompletedWithValue("third");
+		assertThat(fourth).isNotDone();
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(1));
+		assertThat(fourth).isCompletedWithValue("fourth");
+		assertThat(throttle.getDelayedCount()).isEqualTo(2);
+	}
+
+	@Test
+	public void backgroundRequestsAreShedInsteadOfDelayed() {
+		CloudFoundryRequestThrottle throttle = new CloudFoundryRequestThrottle(1, 1, 0, Duration.ofSeconds(10),
+				this.scheduler);
+		throttle.throttle(Flux.just("urgent")).blockLast();
+
+		assertThatThrownBy(() -> throttle.throttle(Mono.just("refresh"))
+				.contextWrite(CloudFoundryRequestThrottle.background()).block())
+						.isInstanceOf(RejectedExecutionException.class);
+
+		assertThat(throttle.getShedCount()).isEqualTo(1);
+		assertThat(throttle.getDelayedCount()).isZero();
+	}
+
+	@Test
+	public void bulkheadAdmitsWaitingRequestOnRelease() {
+		CloudFoundryRequestThrottle throttle = new CloudFoundryRequestThrottle(0, 1, 1, Duration.ofSeconds(10),
+				this.scheduler);
+		Sinks.One<String> running = Sinks.one();
+
+		CompletableFuture<String> first = throttle.throttle(running.asMono()).toFuture();
+		CompletableFuture<String> second = throttle.throttle(Mono.just("second")).toFuture();
+
+		assertThat(second).isNotDone();
+		running.tryEmitValue("first");
+		assertThat(first).isCompletedWithValue("first");
+		assertThat(second).isCompletedWithValue("second");
+	}
+
+	@Test
+	public void urgentRequestFailsAfterMaxWait() {
+		CloudFoundryRequestThrottle throttle = new CloudFoundryRequestThrottle(0, 1, 1, Duration.ofSeconds(5),
+				this.scheduler);
+		Sinks.One<String> running = Sinks.one();
+		throttle.throttle(running.asMono()).subscribe();
+
+		CompletableFuture<String> waiting = throttle.throttle(Mono.just("waiting")).toFuture();
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(5));
+
+		assertThat(waiting).isCompletedExceptionally();
+		assertThat(throttle.getRejectedCount()).isEqualTo(1);
+		running.tryEmitValue("running");
+		assertThat(throttle.throttle(Mono.just("next")).toFuture()).isCompletedWithValue("next");
+	}
+
+	@Test
+	public void unlimitedThrottleLeavesRequestsAsIs() {
+		Mono<String> request = Mono.just("billing");
+
+		assertThat(CloudFoundryRequestThrottle.UNLIMITED.throttle(request)).isSameAs(request);
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.cloudfoundry.UnknownCloudFoundryException;
+import org.cloudfoundry.client.v2.ClientV2Exception;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CloudFoundryRetryPolicyTest {
+
+	private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+
+	private final AtomicInteger attempts = new AtomicInteger();
+
+	@Test
+	public void retriesTransientErrorsWithJitteredExponentialBackoff() {
+		CloudFoundryRetryPolicy policy = policy(3, Duration.ofMinutes(1));
+
+		CompletableFuture<String> result = policy.retry(failing(2, 503)).toFuture();
+
+		assertThat(this.attempts).hasValue(1);
+		this.scheduler.advanceTimeBy(Duration.ofMillis(500));
+		assertThat(this.attempts).hasValue(2);
+		this.scheduler.advanceTimeBy(Duration.ofMillis(999));
+		assertThat(result).isNotDone();
+		this.scheduler.advanceTimeBy(Duration.ofMillis(1));
+		assertThat(result).isCompletedWithValue("billing");
+		assertThat(policy.getRetryCount()).isEqualTo(2);
+		assertThat(policy.getExhaustedCount()).isZero();
+	}
+
+	@Test
+	public void doesNotRetryOtherErrors() {
+		CloudFoundryRetryPolicy policy = policy(3, Duration.ofMinutes(1));
+
+		assertThatThrownBy(() -> policy.retry(failing(1, 404)).block())
+				.isInstanceOf(UnknownCloudFoundryException.class);
+		assertThatThrownBy(() -> policy.retry(Mono.error(new IllegalStateException("unavailable"))).block())
+				.isInstanceOf(IllegalStateException.class);
+		assertThatThrownBy(() -> policy
+				.retry(Mono.error(new ClientV2Exception(null, 10001, "Unknown error", "CF-Unknown"))).block())
+						.isInstanceOf(ClientV2Exception.class);
+
+		assertThat(this.attempts).hasValue(1);
+		assertThat(policy.getRetryCount()).isZero();
+	}
+
+	@Test
+	public void givesUpAfterMaxAttempts() {
+		CloudFoundryRetryPolicy policy = policy(2, Duration.ofMinutes(1));
+
+		CompletableFuture<String> result = policy.retry(failing(5, 502)).toFuture();
+		this.scheduler.advanceTimeBy(Duration.ofMinutes(1));
+
+		assertThat(result).isCompletedExceptionally();
+		assertThat(this.attempts).hasValue(2);
+		assertThat(policy.getExhaustedCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void givesUpWhenNextAttemptWouldExceedBudget() {
+		CloudFoundryRetryPolicy policy = policy(5, Duration.ofMillis(1000));
+
+		CompletableFuture<String> result = policy.retry(failing(5, 429)).toFuture();
+		this.scheduler.advanceTimeBy(Duration.ofMinutes(1));
+
+		assertThat(result).isCompletedExceptionally();
+		assertThat(this.attempts).hasValue(2);
+		assertThat(policy.getExhaustedCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void doesNotRetryRequestThatAlreadyEmitted() {
+		CloudFoundryRetryPolicy policy = policy(3, Duration.ofMinutes(1));
+		Flux<String> request = Flux.defer(() -> {
+			this.attempts.incrementAndGet();
+			return Flux.just("billing").concatWith(Mono.error(new UnknownCloudFoundryException(503)));
+		});
+
+		assertThatThrownBy(() -> policy.retry(request).blockLast()).isInstanceOf(UnknownCloudFoundryException.class);
+		assertThat(this.attempts).hasValue(1);
+	}
+
+	@Test
+	public void parsesRetryAfterSecondsAndDate() {
+		Instant now = Instant.parse("2022-01-01T00:00:00Z");
+
+		assertThat(CloudFoundryRetryPolicy.parseRetryAfter("3", now)).isEqualTo(Duration.ofSeconds(3));
+		assertThat(CloudFoundryRetryPolicy.parseRetryAfter("Sat, 01 Jan 2022 00:00:10 GMT", now))
+				.isEqualTo(Duration.ofSeconds(10));
+		assertThat(CloudFoundryRetryPolicy.parseRetryAfter("soon", now)).isNull();
+	}
+
+	@Test
+	public void waitsAsLongAsRetryAfterHeaderAsks() {
+		AtomicInteger requests = new AtomicInteger();
+		DisposableServer server = HttpServer.create().host("localhost").port(0).handle((request, response) -> {
+			if (requests.incrementAndGet() == 1) {
+				return response.status(HttpResponseStatus.SERVICE_UNAVAILABLE).header("Retry-After", "1").send();
+			}
+			return response.sendString(Mono.just("billing"));
+		}).bindNow();
+		ConnectionProvider connectionProvider = ConnectionProvider.newConnection();
+		try {
+			HttpClient httpClient = CloudFoundryHttpClientFactory
+					.httpClient(connectionProvider, new CloudFoundryProperties.Http(), false)
+					.baseUrl("http://localhost:" + server.port());
+			CloudFoundryRetryPolicy policy = new CloudFoundryRetryPolicy(3, Duration.ofMillis(1), Duration.ofMillis(1),
+					Duration.ofSeconds(10), Schedulers.parallel(), () -> 0);
+			Mono<String> request = httpClient.get().uri("/")
+					.responseSingle((response, body) -> response.status().code() == 503
+							? Mono.error(new UnknownCloudFoundryException(503)) : body.asString());
+
+			long start = System.nanoTime();
+			assertThat(policy.retry(request).block(Duration.ofSeconds(10))).isEqualTo("billing");
+
+			assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofSeconds(1));
+			assertThat(requests).hasValue(2);
+		}
+		finally {
+			connectionProvider.dispose();
+			server.disposeNow();
+		}
+	}
+
+	private CloudFoundryRetryPolicy policy(int maxAttempts, Duration budget) {
+		return new CloudFoundryRetryPolicy(maxAttempts, Duration.ofSeconds(1), Duration.ofSeconds(10), budget,
+				this.scheduler, () -> 0.5);
+	}
+
+	private Mono<String> failing(int failures, int status) {
+		return Mono.defer(() -> this.attempts.incrementAndGet() <= failures
+				? Mono.error(new UnknownCloudFoundryException(status)) : Mono.just("billing"));
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cloudfoundry.operations.CloudFoundryOperations;
+import org.cloudfoundry.operations.applications.ApplicationDetail;
+import org.cloudfoundry.operations.applications.Applications;
+import org.cloudfoundry.operations.applications.GetApplicationRequest;
+import org.cloudfoundry.operations.applications.InstanceDetail;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.function.Tuple2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CloudFoundryServiceTest {
+
+	private CloudFoundryOperations operations;
+
+	private Applications applications;
+
+	private CloudFoundryService cloudFoundryService;
+
+	@Before
+	public void setUp() {
+		this.operations = mock(CloudFoundryOperations.class);
+		this.applications = mock(Applications.class);
+		given(this.operations.applications()).willReturn(this.applications);
+		this.cloudFoundryService = new CloudFoundryService(this.operations);
+	}
+
+	@Test
+	public void concurrentLookupsShareOneRequest() {
+		Sinks.One<ApplicationDetail> response = Sinks.one();
+		given(this.applications.get(any(GetApplicationRequest.class))).willReturn(response.asMono());
+		List<Tuple2<ApplicationDetail, InstanceDetail>> first = new ArrayList<>();
+		List<Tuple2<ApplicationDetail, InstanceDetail>> second = new ArrayList<>();
+
+		this.cloudFoundryService.getApplicationInstances("billing").subscribe(first::add);
+		this.cloudFoundryService.getApplicationInstances("billing").subscribe(second::add);
+		response.tryEmitValue(applicationDetail());
+
+		verify(this.applications, times(1)).get(any(GetApplicationRequest.class));
+		assertThat(first).hasSize(2);
+		assertThat(second).hasSize(2);
+	}
+
+	@Test
+	public void completedLookupIsNotReused() {
+		given(this.applications.get(any(GetApplicationRequest.class)))
+				.willAnswer(invocation -> Mono.just(applicationDetail()));
+
+		assertThat(this.cloudFoundryService.getApplicationInstances("billing").collectList().block()).hasSize(2);
+		assertThat(this.cloudFoundryService.getApplicationInstances("billing").collectList().block()).hasSize(2);
+
+		verify(this.applications, times(2)).get(any(GetApplicationRequest.class));
+	}
+
+	@Test
+	public void failedLookupIsNotReused() {
+		given(this.applications.get(any(GetApplicationRequest.class)))
+				.willReturn(Mono.error(new IllegalStateException("unavailable")))
+				.willAnswer(invocation -> Mono.just(applicationDetail()));
+
+		assertThat(this.cloudFoundryService.getApplicationInstances("billing").onErrorResume(e -> Mono.empty())
+				.collectList().block()).isEmpty();
+		assertThat(this.cloudFoundryService.getApplicationInstances("billing").collectList().block()).hasSize(2);
+	}
+
+	@Test
+	public void backgroundLookupsDoNotShareTheRequestOfUrgentLookups() {
+		Sinks.One<ApplicationDetail> response = Sinks.one();
+		given(this.applications.get(any(GetApplicationRequest.class))).willReturn(response.asMono());
+		List<Tuple2<ApplicationDetail, InstanceDetail>> urgent = new ArrayList<>();
+		List<Tuple2<ApplicationDetail, InstanceDetail>> background = new ArrayList<>();
+
+		this.cloudFoundryService.getApplicationInstances("billing")
+				.contextWrite(CloudFoundryRequestThrottle.background()).subscribe(background::add);
+		this.cloudFoundryService.getApplicationInstances("billing").subscribe(urgent::add);
+		response.tryEmitValue(applicationDetail());
+
+		verify(this.applications, times(2)).get(any(GetApplicationRequest.class));
+		assertThat(background).hasSize(2);
+		assertThat(urgent).hasSize(2);
+	}
+
+	@Test
+	public void shedBackgroundLookupDoesNotFailUrgentLookups() {
+		CloudFoundryRequestThrottle throttle = new CloudFoundryRequestThrottle(0, 1, 1, Duration.ofSeconds(1));
+		CloudFoundryService service = new CloudFoundryService(this.operations, CloudFoundryRequestListener.NONE,
+				throttle);
+		Sinks.One<ApplicationDetail> response = Sinks.one();
+		given(this.applications.get(any(GetApplicationRequest.class))).willReturn(response.asMono());
+		List<Tuple2<ApplicationDetail, InstanceDetail>> urgent = new ArrayList<>();
+		AtomicReference<Throwable> backgroundError = new AtomicReference<>();
+
+		service.getApplicationInstances("billing").subscribe(urgent::add);
+		service.getApplicationInstances("billing").contextWrite(CloudFoundryRequestThrottle.background())
+				.doOnError(backgroundError::set).onErrorResume(error -> Mono.empty()).subscribe();
+		response.tryEmitValue(applicationDetail());
+
+		assertThat(backgroundError.get()).isInstanceOf(RejectedExecutionException.class);
+		assertThat(urgent).hasSize(2);
+	}
+
+	@Test
+	public void requestGuardIsAppliedOnceToASharedRequest() {
+		Sinks.One<ApplicationDetail> response = Sinks.one();
+		given(this.applications.get(any(GetApplicationRequest.class))).willReturn(response.asMono());
+		AtomicInteger guarded = new AtomicInteger();
+		this.cloudFoundryService.setRequestGuard(request -> request.doOnSubscribe(s -> guarded.incrementAndGet()));
+
+		this.cloudFoundryService.getApplicationInstances("billing").subscribe();
+		this.cloudFoundryService.getApplicationInstances("billing").subscribe();
+		response.tryEmitValue(applicationDetail());
+
+		assertThat(guarded).hasValue(1);
+	}
+
+	private static ApplicationDetail applicationDetail() {
+		return ApplicationDetail.builder().id("billing-id").name("billing").instances(3).memoryLimit(1024)
+				.stack("cflinux3").diskQuota(1024).requestedState("STARTED").runningInstances(2)
+				.url("billing.apps.internal")
+				.instanceDetails(InstanceDetail.builder().index("0").state("RUNNING").build(),
+						InstanceDetail.builder().index("1").state("RUNNING").build(),
+						InstanceDetail.builder().index("2").state("CRASHED").build())
+				.build();
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.reactor.ConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class RefreshingTokenProviderTest {
+
+	private final ConnectionContext connectionContext = mock(ConnectionContext.class);
+
+	private final TokenProvider delegate = mock(TokenProvider.class);
+
+	private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+
+	private RefreshingTokenProvider tokenProvider;
+
+	@Before
+	public void setUp() {
+		this.tokenProvider = new RefreshingTokenProvider(this.delegate, Duration.ofMinutes(1), this.scheduler,
+				new SchedulerClock(this.scheduler));
+	}
+
+	@After
+	public void tearDown() {
+		this.tokenProvider.destroy();
+	}
+
+	@Test
+	public void cachesTokenUntilExpiry() {
+		given(this.delegate.getToken(this.connectionContext)).willReturn(Mono.just(token(600)));
+
+		assertThat(this.tokenProvider.getToken(this.connectionContext).block()).isEqualTo(token(600));
+		assertThat(this.tokenProvider.getToken(this.connectionContext).block()).isEqualTo(token(600));
+
+		verify(this.delegate, times(1)).getToken(this.connectionContext);
+	}
+
+	@Test
+	public void refreshesTokenAheadOfExpiry() {
+		given(this.delegate.getToken(this.connectionContext)).willReturn(Mono.just(token(600)))
+				.willReturn(Mono.just(token(1200)));
+		this.tokenProvider.getToken(this.connectionContext).block();
+
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(530));
+		assertThat(this.tokenProvider.getRefreshCount()).isZero();
+
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(10));
+		assertThat(this.tokenProvider.getRefreshCount()).isEqualTo(1);
+		verify(this.delegate).invalidate(this.connectionContext);
+		assertThat(this.tokenProvider.getToken(this.connectionContext).block()).isEqualTo(token(1200));
+	}
+
+	@Test
+	public void failedRefreshKeepsTokenAndRetries() {
+		given(this.delegate.getToken(this.connectionContext)).willReturn(Mono.just(token(600)))
+				.willReturn(Mono.error(new IllegalStateException("unavailable"))).willReturn(Mono.just(token(1200)));
+		this.tokenProvider.getToken(this.connectionContext).block();
+
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(540));
+		assertThat(this.tokenProvider.getRefreshFailureCount()).isEqualTo(1);
+		assertThat(this.tokenProvider.getToken(this.connectionContext).block()).isEqualTo(token(600));
+
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(10));
+		assertThat(this.tokenProvider.getRefreshCount()).isEqualTo(1);
+		assertThat(this.tokenProvider.getToken(this.connectionContext).block()).isEqualTo(token(1200));
+	}
+
+	@Test
+	public void tokenWithoutExpiryIsPassedThrough() {
+		given(this.delegate.getToken(this.connectionContext)).willReturn(Mono.just("bearer opaque"));
+
+		this.tokenProvider.getToken(this.connectionContext).block();
+		this.tokenProvider.getToken(this.connectionContext).block();
+
+		verify(this.delegate, times(2)).getToken(this.connectionContext);
+		assertThat(RefreshingTokenProvider.expiry("bearer opaque")).isNull();
+	}
+
+	private static String token(long expiresInSeconds) {
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+		String header = encoder.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8));
+		String claims = encoder.encodeToString(("{\"exp\":" + expiresInSeconds + "}").getBytes(StandardCharsets.UTF_8));
+		return "bearer " + header + "." + claims + ".signature";
+	}
+
+	static class SchedulerClock extends Clock {
+
+		private final VirtualTimeScheduler scheduler;
+
+		SchedulerClock(VirtualTimeScheduler scheduler) {
+			this.scheduler = scheduler;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(this.scheduler.now(TimeUnit.MILLISECONDS));
+		}
+
+	}
+
+}
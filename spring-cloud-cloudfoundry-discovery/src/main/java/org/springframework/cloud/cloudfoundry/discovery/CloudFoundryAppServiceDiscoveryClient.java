@@ -16,16 +16,19 @@
 
 package org.springframework.cloud.cloudfoundry.discovery;
 
-import java.util.HashMap;
 import java.util.List;
 
 import org.cloudfoundry.operations.CloudFoundryOperations;
 import org.cloudfoundry.operations.applications.ApplicationDetail;
 import org.cloudfoundry.operations.applications.InstanceDetail;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
 
-import org.springframework.cloud.client.DefaultServiceInstance;
 import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.cloudfoundry.CloudFoundryCatalogLoader;
 import org.springframework.cloud.cloudfoundry.CloudFoundryService;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryDiscoveryProperties.ServicePort;
 
 /**
  *
@@ -43,9 +46,17 @@ public class CloudFoundryAppServiceDiscoveryClient extends CloudFoundryDiscovery
 
 	private static final String INTERNAL_DOMAIN = "apps.internal";
 
+	private final CloudFoundryDiscoveryProperties properties;
+
 	CloudFoundryAppServiceDiscoveryClient(CloudFoundryOperations cloudFoundryOperations, CloudFoundryService svc,
 			CloudFoundryDiscoveryProperties cloudFoundryDiscoveryProperties) {
-		super(cloudFoundryOperations, svc, cloudFoundryDiscoveryProperties);
+		this(cloudFoundryOperations, svc, cloudFoundryDiscoveryProperties, null);
+	}
+
+	CloudFoundryAppServiceDiscoveryClient(CloudFoundryOperations cloudFoundryOperations, CloudFoundryService svc,
+			CloudFoundryDiscoveryProperties cloudFoundryDiscoveryProperties, CloudFoundryCatalogLoader catalogLoader) {
+		super(cloudFoundryOperations, svc, cloudFoundryDiscoveryProperties, catalogLoader);
+		this.properties = cloudFoundryDiscoveryProperties;
 	}
 
 	@Override
@@ -54,21 +65,17 @@ public class CloudFoundryAppServiceDiscoveryClient extends CloudFoundryDiscovery
 	}
 
 	@Override
-	public List<ServiceInstance> getInstances(String serviceId) {
-		return getCloudFoundryService().getApplicationInstances(serviceId)
-				.filter(tuple -> tuple.getT1().getUrls().stream().anyMatch(this::isInternalDomain)).map(tuple -> {
+	protected Mono<List<ServiceInstance>> toServiceInstances(
+			Flux<Tuple2<ApplicationDetail, InstanceDetail>> applicationInstances) {
+		return applicationInstances.filter(tuple -> tuple.getT1().getUrls().stream().anyMatch(this::isInternalDomain))
+				.map(tuple -> {
 					ApplicationDetail applicationDetail = tuple.getT1();
-					InstanceDetail instanceDetail = tuple.getT2();
-					String applicationId = applicationDetail.getId();
-					String applicationIndex = instanceDetail.getIndex();
-					String name = applicationDetail.getName();
-					String url = applicationDetail.getUrls().stream().filter(this::isInternalDomain).findFirst()
-							.map(x -> instanceDetail.getIndex() + "." + x).get();
-					HashMap<String, String> metadata = new HashMap<>();
-					metadata.put("applicationId", applicationId);
-					metadata.put("instanceId", applicationIndex);
-					return (ServiceInstance) new DefaultServiceInstance(null, name, url, 8080, false, metadata);
-				}).collectList().block();
+					String route = applicationDetail.getUrls().stream().filter(this::isInternalDomain).findFirst()
+							.get();
+					ServicePort servicePort = this.properties.getServicePort(applicationDetail.getName());
+					return (ServiceInstance) CloudFoundryServiceInstance.ofInternalRoute(applicationDetail,
+							tuple.getT2(), route, servicePort);
+				}).collectList();
 	}
 
 	private boolean isInternalDomain(String url) {
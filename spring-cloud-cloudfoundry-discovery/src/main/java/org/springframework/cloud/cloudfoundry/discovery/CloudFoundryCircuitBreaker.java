@@ -0,0 +1,382 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.cloudfoundry.AbstractCloudFoundryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.cloud.cloudfoundry.CloudFoundryRetryPolicy;
+
+/**
+ * Circuit breaker around the lookups a discovery client makes to the Cloud Controller.
+ * The outcome of the last calls is kept in a sliding window, and the breaker opens once
+ * enough of them failed or were slow. A call cancelled after the slow call duration, as
+ * when the caller timed out, counts as slow.
+ * <p>
+ * While the breaker is open, calls fail at once with a
+ * {@link RejectedExecutionException}, so that lookups are served from the last known
+ * instances and the instance cache instead of waiting for the Cloud Controller to time
+ * out. After the wait in open state, a single probe call is let through. The breaker
+ * closes if the probe succeeds, and otherwise opens again for twice as long, up to the
+ * maximum wait, so that probes are spaced out while the Cloud Controller stays down.
+ */
+public class CloudFoundryCircuitBreaker {
+
+	/**
+	 * Circuit breaker that never opens.
+	 */
+	public static final CloudFoundryCircuitBreaker NONE = new CloudFoundryCircuitBreaker(disabled(),
+			Schedulers.immediate());
+
+	private static final Logger log = LoggerFactory.getLogger(CloudFoundryCircuitBreaker.class);
+
+	/**
+	 * State of a circuit breaker.
+	 */
+	public enum State {
+
+		/**
+		 * Calls are let through and their outcome is recorded.
+		 */
+		CLOSED,
+
+		/**
+		 * Calls fail at once.
+		 */
+		OPEN,
+
+		/**
+		 * A single probe call is let through to decide whether to close again.
+		 */
+		HALF_OPEN
+
+	}
+
+	private final boolean enabled;
+
+	private final int failureRateThreshold;
+
+	private final int slowCallRateThreshold;
+
+	private final long slowCallNanos;
+
+	private final int minimumNumberOfCalls;
+
+	private final long initialWaitNanos;
+
+	private final long maxWaitNanos;
+
+	private final Scheduler scheduler;
+
+	private final boolean[] failures;
+
+	private final boolean[] slowCalls;
+
+	private final LongAdder notPermitted = new LongAdder();
+
+	private State state = State.CLOSED;
+
+	private int bufferedCalls;
+
+	private int nextCall;
+
+	private int failureCount;
+
+	private int slowCallCount;
+
+	private long openedAt;
+
+	private long waitNanos;
+
+	private boolean probing;
+
+	public CloudFoundryCircuitBreaker(CloudFoundryDiscoveryProperties.CircuitBreaker properties) {
+		this(properties, Schedulers.immediate());
+	}
+
+	CloudFoundryCircuitBreaker(CloudFoundryDiscoveryProperties.CircuitBreaker properties, Scheduler scheduler) {
+		this.enabled = properties.isEnabled();
+		this.failureRateThreshold = properties.getFailureRateThreshold();
+		this.slowCallRateThreshold = properties.getSlowCallRateThreshold();
+		this.slowCallNanos = properties.getSlowCallDuration().toNanos();
+		this.minimumNumberOfCalls = Math.max(1, properties.getMinimumNumberOfCalls());
+		this.initialWaitNanos = properties.getWaitInOpenState().toNanos();
+		this.maxWaitNanos = Math.max(this.initialWaitNanos, properties.getMaxWaitInOpenState().toNanos());
+		this.waitNanos = this.initialWaitNanos;
+		this.scheduler = scheduler;
+		int windowSize = Math.max(this.minimumNumberOfCalls, properties.getSlidingWindowSize());
+		this.failures = new boolean[windowSize];
+		this.slowCalls = new boolean[windowSize];
+	}
+
+	private static CloudFoundryDiscoveryProperties.CircuitBreaker disabled() {
+		CloudFoundryDiscoveryProperties.CircuitBreaker properties = new CloudFoundryDiscoveryProperties.CircuitBreaker();
+		properties.setEnabled(false);
+		return properties;
+	}
+
+	/**
+	 * Protects a call to the Cloud Controller, failing at once while the breaker is open.
+	 * @param call the call to protect
+	 * @param <T> the type of the result
+	 * @return the protected call
+	 */
+	public <T> Mono<T> protect(Mono<T> call) {
+		if (!this.enabled) {
+			return call;
+		}
+		return Mono.defer(() -> {
+			Call outcome = acquire();
+			if (outcome == null) {
+				return Mono.error(notPermitted());
+			}
+			return call.doOnSuccess(value -> outcome.onComplete()).doOnError(outcome::onError)
+					.doOnCancel(outcome::onCancel);
+		});
+	}
+
+	/**
+	 * Protects a call to the Cloud Controller, failing at once while the breaker is open.
+	 * @param call the call to protect
+	 * @param <T> the type of the elements
+	 * @return the protected call
+	 */
+	public <T> Flux<T> protect(Flux<T> call) {
+		if (!this.enabled) {
+			return call;
+		}
+		return Flux.defer(() -> {
+			Call outcome = acquire();
+			if (outcome == null) {
+				return Flux.error(notPermitted());
+			}
+			return call.doOnComplete(outcome::onComplete).doOnError(outcome::onError).doOnCancel(outcome::onCancel);
+		});
+	}
+
+	private RejectedExecutionException notPermitted() {
+		this.notPermitted.increment();
+		return new RejectedExecutionException("The circuit breaker of the Cloud Controller is open");
+	}
+
+	private synchronized Call acquire() {
+		if (this.state == State.OPEN) {
+			if (now() - this.openedAt < this.waitNanos) {
+				return null;
+			}
+			this.state = State.HALF_OPEN;
+		}
+		if (this.state == State.HALF_OPEN) {
+			if (this.probing) {
+				return null;
+			}
+			this.probing = true;
+			return new Call(true);
+		}
+		return new Call(false);
+	}
+
+	private synchronized void onOutcome(Call call, boolean failure, boolean slow) {
+		if (call.probe) {
+			this.probing = false;
+			if (failure || slow) {
+				this.waitNanos = Math.min(this.waitNanos * 2, this.maxWaitNanos);
+				open();
+			}
+			else {
+				close();
+			}
+			return;
+		}
+		if (this.state != State.CLOSED) {
+			return;
+		}
+		if (this.bufferedCalls == this.failures.length) {
+			this.failureCount -= this.failures[this.nextCall] ? 1 : 0;
+			this.slowCallCount -= this.slowCalls[this.nextCall] ? 1 : 0;
+		}
+		else {
+			this.bufferedCalls++;
+		}
+		this.failures[this.nextCall] = failure;
+		this.slowCalls[this.nextCall] = slow;
+		this.failureCount += failure ? 1 : 0;
+		this.slowCallCount += slow ? 1 : 0;
+		this.nextCall = (this.nextCall + 1) % this.failures.length;
+		if (this.bufferedCalls >= this.minimumNumberOfCalls && (exceeds(this.failureCount, this.failureRateThreshold)
+				|| exceeds(this.slowCallCount, this.slowCallRateThreshold))) {
+			open();
+		}
+	}
+
+	private synchronized void release(Call call) {
+		if (call.probe) {
+			this.probing = false;
+		}
+	}
+
+	private boolean exceeds(int count, int threshold) {
+		return count * 100L >= (long) threshold * this.bufferedCalls;
+	}
+
+	private void open() {
+		log.warn("Opening the circuit breaker of the Cloud Controller for {} ms",
+				TimeUnit.NANOSECONDS.toMillis(this.waitNanos));
+		this.state = State.OPEN;
+		this.openedAt = now();
+		resetWindow();
+	}
+
+	private void close() {
+		log.info("Closing the circuit breaker of the Cloud Controller");
+		this.state = State.CLOSED;
+		this.waitNanos = this.initialWaitNanos;
+		resetWindow();
+	}
+
+	private void resetWindow() {
+		this.bufferedCalls = 0;
+		this.nextCall = 0;
+		this.failureCount = 0;
+		this.slowCallCount = 0;
+	}
+
+	private float rate(int count) {
+		return (this.bufferedCalls > 0) ? count * 100f / this.bufferedCalls : 0;
+	}
+
+	private long now() {
+		return this.scheduler.now(TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns whether a failed call tells that the Cloud Controller is unhealthy. Calls
+	 * rejected before reaching it and client errors, such as a missing application, do
+	 * not.
+	 */
+	private static boolean isFailure(Throwable error) {
+		if (error instanceof RejectedExecutionException || error instanceof IllegalArgumentException) {
+			return false;
+		}
+		if (error instanceof AbstractCloudFoundryException) {
+			Integer status = CloudFoundryRetryPolicy.statusCode((AbstractCloudFoundryException) error);
+			return status != null && (status >= 500 || status == 429);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the current state of the breaker. An open breaker whose wait is over is
+	 * reported open until the next call probes the Cloud Controller.
+	 * @return the state
+	 */
+	public synchronized State getState() {
+		return this.state;
+	}
+
+	/**
+	 * Returns the percentage of the calls in the sliding window that failed.
+	 * @return the failure rate, between 0 and 100
+	 */
+	public synchronized float getFailureRate() {
+		return rate(this.failureCount);
+	}
+
+	/**
+	 * Returns the percentage of the calls in the sliding window that were slow.
+	 * @return the slow call rate, between 0 and 100
+	 */
+	public synchronized float getSlowCallRate() {
+		return rate(this.slowCallCount);
+	}
+
+	/**
+	 * Returns the number of calls in the sliding window.
+	 * @return the number of buffered calls
+	 */
+	public synchronized int getBufferedCalls() {
+		return this.bufferedCalls;
+	}
+
+	/**
+	 * Returns how many calls failed at once because the breaker was open.
+	 * @return the number of calls not permitted
+	 */
+	public long getNotPermittedCount() {
+		return this.notPermitted.sum();
+	}
+
+	/**
+	 * Outcome of a call let through by the breaker, recorded once.
+	 */
+	private final class Call {
+
+		private final boolean probe;
+
+		private final long startedAt = now();
+
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		Call(boolean probe) {
+			this.probe = probe;
+		}
+
+		void onComplete() {
+			if (this.done.compareAndSet(false, true)) {
+				onOutcome(this, false, isSlow());
+			}
+		}
+
+		void onError(Throwable error) {
+			if (this.done.compareAndSet(false, true)) {
+				if (isFailure(error)) {
+					onOutcome(this, true, isSlow());
+				}
+				else {
+					release(this);
+				}
+			}
+		}
+
+		void onCancel() {
+			if (this.done.compareAndSet(false, true)) {
+				if (isSlow()) {
+					onOutcome(this, false, true);
+				}
+				else {
+					release(this);
+				}
+			}
+		}
+
+		private boolean isSlow() {
+			return now() - this.startedAt >= CloudFoundryCircuitBreaker.this.slowCallNanos;
+		}
+
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+/**
+ * Reports the state of a {@link CloudFoundryCircuitBreaker}. An open breaker is reported
+ * with the {@code CIRCUIT_OPEN} status rather than {@code DOWN}, since the application
+ * keeps serving lookups from its last known instances and should not be restarted.
+ */
+public class CloudFoundryCircuitBreakerHealthIndicator extends AbstractHealthIndicator {
+
+	/**
+	 * Status of an open circuit breaker.
+	 */
+	public static final Status CIRCUIT_OPEN = new Status("CIRCUIT_OPEN",
+			"Lookups are served from the last known instances");
+
+	/**
+	 * Status of a half-open circuit breaker.
+	 */
+	public static final Status CIRCUIT_HALF_OPEN = new Status("CIRCUIT_HALF_OPEN",
+			"The Cloud Controller is being probed");
+
+	private final CloudFoundryCircuitBreaker circuitBreaker;
+
+	public CloudFoundryCircuitBreakerHealthIndicator(CloudFoundryCircuitBreaker circuitBreaker) {
+		super("Cloud Foundry circuit breaker health check failed");
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	@Override
+	protected void doHealthCheck(Health.Builder builder) {
+		CloudFoundryCircuitBreaker.State state = this.circuitBreaker.getState();
+		switch (state) {
+		case OPEN:
+			builder.status(CIRCUIT_OPEN);
+			break;
+		case HALF_OPEN:
+			builder.status(CIRCUIT_HALF_OPEN);
+			break;
+		default:
+			builder.up();
+		}
+		builder.withDetail("state", state).withDetail("failureRate", this.circuitBreaker.getFailureRate())
+				.withDetail("slowCallRate", this.circuitBreaker.getSlowCallRate())
+				.withDetail("bufferedCalls", this.circuitBreaker.getBufferedCalls())
+				.withDetail("notPermittedCalls", this.circuitBreaker.getNotPermittedCount());
+	}
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.util.Locale;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Exposes the state of a {@link CloudFoundryCircuitBreaker} and the calls it did not
+ * permit as Micrometer meters. The {@code cloudfoundry.discovery.circuitbreaker.state}
+ * gauge is 1 for the current state and 0 for the others.
+ */
+public class CloudFoundryCircuitBreakerMetrics implements MeterBinder {
+
+	private final CloudFoundryCircuitBreaker circuitBreaker;
+
+	public CloudFoundryCircuitBreakerMetrics(CloudFoundryCircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		for (CloudFoundryCircuitBreaker.State state : CloudFoundryCircuitBreaker.State.values()) {
+			Gauge.builder("cloudfoundry.discovery.circuitbreaker.state", this.circuitBreaker,
+					circuitBreaker -> (circuitBreaker.getState() == state) ? 1 : 0)
+					.tag("state", state.name().toLowerCase(Locale.ROOT))
+					.description("Whether the circuit breaker of the Cloud Controller is in that state")
+					.register(registry);
+		}
+		Gauge.builder("cloudfoundry.discovery.circuitbreaker.failure.rate", this.circuitBreaker,
+				CloudFoundryCircuitBreaker::getFailureRate).baseUnit("percent")
+				.description("Percentage of the last calls to the Cloud Controller that failed").register(registry);
+		Gauge.builder("cloudfoundry.discovery.circuitbreaker.slow.call.rate", this.circuitBreaker,
+				CloudFoundryCircuitBreaker::getSlowCallRate).baseUnit("percent")
+				.description("Percentage of the last calls to the Cloud Controller that were slow").register(registry);
+		FunctionCounter
+				.builder("cloudfoundry.discovery.circuitbreaker.not.permitted", this.circuitBreaker,
+						CloudFoundryCircuitBreaker::getNotPermittedCount)
+				.description("Number of calls to the Cloud Controller that failed at once because the breaker was open")
+				.register(registry);
+	}
+
+}
@@ -16,18 +16,36 @@
 
 package org.springframework.cloud.cloudfoundry.discovery;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.cloudfoundry.operations.CloudFoundryOperations;
 import org.cloudfoundry.operations.applications.ApplicationDetail;
 import org.cloudfoundry.operations.applications.ApplicationSummary;
 import org.cloudfoundry.operations.applications.InstanceDetail;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 import org.springframework.cloud.client.DefaultServiceInstance;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.cloudfoundry.CloudFoundryCatalogLoader;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestListener;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestListener.Outcome;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestThrottle;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRetryPolicy;
 import org.springframework.cloud.cloudfoundry.CloudFoundryService;
 
 /**
@@ -42,19 +60,67 @@ import org.springframework.cloud.cloudfoundry.CloudFoundryService;
  */
 public class CloudFoundryDiscoveryClient implements DiscoveryClient {
 
+	/**
+	 * Metadata key set to {@code true} on instances served from the last known result
+	 * because the Cloud Controller did not answer in time.
+	 */
+	public static final String STALE_METADATA_KEY = "stale";
+
+	private static final Logger log = LoggerFactory.getLogger(CloudFoundryDiscoveryClient.class);
+
 	private final CloudFoundryService cloudFoundryService;
 
 	private final CloudFoundryOperations cloudFoundryOperations;
 
 	private final CloudFoundryDiscoveryProperties properties;
 
+	private final ServiceInstanceCache serviceInstanceCache;
+
 	private final String description = "Cloud Foundry " + DiscoveryClient.class.getName() + " implementation";
 
+	private final String clientName = getClass().getSimpleName();
+
+	private final Map<String, List<ServiceInstance>> lastInstances = new ConcurrentHashMap<>();
+
+	private volatile List<String> lastServices;
+
+	private final LongAdder staleInstances = new LongAdder();
+
+	private final LongAdder staleServices = new LongAdder();
+
+	private CloudFoundryRequestListener requestListener = CloudFoundryRequestListener.NONE;
+
+	private CloudFoundryRequestThrottle requestThrottle = CloudFoundryRequestThrottle.UNLIMITED;
+
+	private CloudFoundryRetryPolicy retryPolicy = CloudFoundryRetryPolicy.NONE;
+
+	private CloudFoundryCircuitBreaker circuitBreaker = CloudFoundryCircuitBreaker.NONE;
+
+	private CloudFoundryDiscoveryLookupListener lookupListener = CloudFoundryDiscoveryLookupListener.NONE;
+
 	CloudFoundryDiscoveryClient(CloudFoundryOperations cloudFoundryOperations, CloudFoundryService svc,
 			CloudFoundryDiscoveryProperties properties) {
+		this(cloudFoundryOperations, svc, properties, null);
+	}
+
+	CloudFoundryDiscoveryClient(CloudFoundryOperations cloudFoundryOperations, CloudFoundryService svc,
+			CloudFoundryDiscoveryProperties properties, CloudFoundryCatalogLoader catalogLoader) {
 		this.cloudFoundryService = svc;
 		this.cloudFoundryOperations = cloudFoundryOperations;
 		this.properties = properties;
+		this.serviceInstanceCache = createServiceInstanceCache(properties.getCache(), catalogLoader);
+	}
+
+	private ServiceInstanceCache createServiceInstanceCache(CloudFoundryDiscoveryProperties.Cache cache,
+			CloudFoundryCatalogLoader catalogLoader) {
+		if (!cache.isEnabled()) {
+			return null;
+		}
+		ServiceInstanceCache serviceInstanceCache = (cache.isBulkLoad() && catalogLoader != null)
+				? ServiceInstanceCache.ofCatalog(() -> loadCatalog(catalogLoader), cache.getTtl())
+				: new ServiceInstanceCache(this::loadInstances, cache.getTtl());
+		serviceInstanceCache.setMaxStaleness(cache.getMaxStaleness());
+		return serviceInstanceCache;
 	}
 
 	@Override
@@ -62,32 +128,177 @@ public class CloudFoundryDiscoveryClient implements DiscoveryClient {
 		return this.description;
 	}
 
+	/**
+	 * Returns the instances of a service, waiting at most the configured request timeout.
+	 * If the lookup times out or fails, the last instances returned for the service are
+	 * served again, with their {@value #STALE_METADATA_KEY} metadata set to {@code true}.
+	 * A hit of the instance cache returns its immutable snapshot without allocating.
+	 */
 	@Override
 	public List<ServiceInstance> getInstances(String serviceId) {
-		return this.cloudFoundryService.getApplicationInstances(serviceId).map(tuple -> {
-			ApplicationDetail applicationDetail = tuple.getT1();
-			InstanceDetail instanceDetail = tuple.getT2();
+		CloudFoundryDiscoveryLookupListener listener = this.lookupListener;
+		long start = (listener != CloudFoundryDiscoveryLookupListener.NONE) ? System.nanoTime() : 0L;
+		List<ServiceInstance> cached = (this.serviceInstanceCache != null)
+				? this.serviceInstanceCache.getIfPresent(serviceId) : null;
+		if (cached == null) {
+			return listener.observe(this, CloudFoundryDiscoveryLookupListener.INSTANCES,
+					() -> lookupInstancesOrLast(serviceId));
+		}
+		if (this.lastInstances.get(serviceId) != cached) {
+			this.lastInstances.put(serviceId, cached);
+		}
+		if (listener != CloudFoundryDiscoveryLookupListener.NONE) {
+			listener.onLookup(this.clientName, CloudFoundryDiscoveryLookupListener.INSTANCES, Outcome.SUCCESS,
+					System.nanoTime() - start);
+		}
+		return cached;
+	}
+
+	private List<ServiceInstance> lookupInstancesOrLast(String serviceId) {
+		try {
+			List<ServiceInstance> result = instances(serviceId).timeout(this.properties.getRequestTimeout())
+					.blockOptional().orElse(new ArrayList<>());
+			this.lastInstances.put(serviceId, result);
+			return result;
+		}
+		catch (RuntimeException ex) {
+			List<ServiceInstance> lastInstances = this.lastInstances.get(serviceId);
+			if (lastInstances == null) {
+				throw ex;
+			}
+			log.warn("Serving the last known instances of '{}': {}", serviceId, ex.getMessage());
+			this.staleInstances.increment();
+			return markStale(lastInstances);
+		}
+	}
 
-			String applicationId = applicationDetail.getId();
-			String applicationIndex = instanceDetail.getIndex();
-			String instanceId = applicationId + "." + applicationIndex;
-			String name = applicationDetail.getName();
-			String url = applicationDetail.getUrls().size() > 0 ? applicationDetail.getUrls().get(0) : null;
-			boolean secure = (url + "").toLowerCase().startsWith("https");
+	/**
+	 * Returns the instances of several services, looking up at most the configured batch
+	 * concurrency at a time and waiting at most the configured request timeout for all of
+	 * them. When the instance cache loads the whole catalog, a single load serves every
+	 * service. If the lookup times out or fails and the last instances of every service
+	 * are known, those are served again and marked stale.
+	 * @param serviceIds the service ids to look up
+	 * @return the instances of each service, by service id
+	 */
+	public Map<String, List<ServiceInstance>> getInstances(Collection<String> serviceIds) {
+		return this.lookupListener.observe(this, CloudFoundryDiscoveryLookupListener.INSTANCES,
+				() -> lookupInstancesOrLast(serviceIds));
+	}
+
+	private Map<String, List<ServiceInstance>> lookupInstancesOrLast(Collection<String> serviceIds) {
+		try {
+			Map<String, List<ServiceInstance>> result = lookupInstances(serviceIds)
+					.timeout(this.properties.getRequestTimeout()).blockOptional().orElse(new LinkedHashMap<>());
+			this.lastInstances.putAll(result);
+			return result;
+		}
+		catch (RuntimeException ex) {
+			if (!this.lastInstances.keySet().containsAll(serviceIds)) {
+				throw ex;
+			}
+			log.warn("Serving the last known instances of {}: {}", serviceIds, ex.getMessage());
+			Map<String, List<ServiceInstance>> result = new LinkedHashMap<>();
+			for (String serviceId : serviceIds) {
+				this.staleInstances.increment();
+				result.put(serviceId, markStale(this.lastInstances.get(serviceId)));
+			}
+			return result;
+		}
+	}
 
-			HashMap<String, String> metadata = new HashMap<>();
-			metadata.put("applicationId", applicationId);
-			metadata.put("instanceId", applicationIndex);
+	/**
+	 * Looks up the instances of several services, at most the configured batch
+	 * concurrency at a time.
+	 * @param serviceIds the service ids to look up
+	 * @return the instances of each service, by service id
+	 */
+	public Mono<Map<String, List<ServiceInstance>>> lookupInstances(Collection<String> serviceIds) {
+		if (this.serviceInstanceCache != null) {
+			return this.serviceInstanceCache.getAll(serviceIds, this.properties.getBatchConcurrency());
+		}
+		return Flux.fromIterable(new LinkedHashSet<>(serviceIds))
+				.flatMap(
+						serviceId -> instances(serviceId).defaultIfEmpty(new ArrayList<>())
+								.map(instances -> Tuples.of(serviceId, instances)),
+						this.properties.getBatchConcurrency())
+				.collectMap(Tuple2::getT1, Tuple2::getT2, LinkedHashMap::new);
+	}
 
-			return (ServiceInstance) new DefaultServiceInstance(instanceId, name, url, secure ? 443 : 80, secure,
-					metadata);
-		}).collectList().blockOptional().orElse(new ArrayList<>());
+	private Mono<List<ServiceInstance>> instances(String serviceId) {
+		return (this.serviceInstanceCache != null) ? this.serviceInstanceCache.get(serviceId)
+				: loadInstances(serviceId);
 	}
 
+	private static List<ServiceInstance> markStale(List<ServiceInstance> instances) {
+		List<ServiceInstance> stale = new ArrayList<>(instances.size());
+		for (ServiceInstance instance : instances) {
+			Map<String, String> metadata = new HashMap<>(instance.getMetadata());
+			metadata.put(STALE_METADATA_KEY, "true");
+			stale.add(new DefaultServiceInstance(instance.getInstanceId(), instance.getServiceId(), instance.getHost(),
+					instance.getPort(), instance.isSecure(), metadata));
+		}
+		return stale;
+	}
+
+	/**
+	 * Looks up the current instances of a service from the Cloud Controller. Results are
+	 * cached by {@link #getInstances(String)} when the cache is enabled.
+	 * @param serviceId the service id to look up
+	 * @return the running instances of the service
+	 */
+	protected Mono<List<ServiceInstance>> loadInstances(String serviceId) {
+		// the circuit breaker guards the request shared by concurrent lookups, so that
+		// its outcome is recorded once
+		return toServiceInstances(this.cloudFoundryService.getApplicationInstances(serviceId));
+	}
+
+	/**
+	 * Maps the running instances of an application to service instances.
+	 * @param applicationInstances the running instances of an application
+	 * @return the service instances
+	 */
+	protected Mono<List<ServiceInstance>> toServiceInstances(
+			Flux<Tuple2<ApplicationDetail, InstanceDetail>> applicationInstances) {
+		return applicationInstances
+				.map(tuple -> (ServiceInstance) CloudFoundryServiceInstance.of(tuple.getT1(), tuple.getT2()))
+				.collectList();
+	}
+
+	private Mono<Map<String, List<ServiceInstance>>> loadCatalog(CloudFoundryCatalogLoader catalogLoader) {
+		return this.circuitBreaker.protect(catalogLoader.loadApplicationInstances()).flatMapIterable(Map::entrySet)
+				.flatMap(application -> toServiceInstances(Flux.fromIterable(application.getValue()))
+						.map(instances -> Tuples.of(application.getKey(), instances)))
+				.collectMap(Tuple2::getT1, Tuple2::getT2);
+	}
+
+	/**
+	 * Returns the names of the applications in the space, waiting at most the configured
+	 * request timeout. If the lookup times out or fails, the last names returned are
+	 * served again.
+	 */
 	@Override
 	public List<String> getServices() {
-		return this.cloudFoundryOperations.applications().list().map(ApplicationSummary::getName).collectList()
-				.blockOptional().orElse(new ArrayList<>());
+		return this.lookupListener.observe(this, CloudFoundryDiscoveryLookupListener.SERVICES,
+				this::lookupServicesOrLast);
+	}
+
+	private List<String> lookupServicesOrLast() {
+		try {
+			List<String> services = getApplications().map(ApplicationSummary::getName).collectList()
+					.timeout(this.properties.getRequestTimeout()).blockOptional().orElse(new ArrayList<>());
+			this.lastServices = services;
+			return services;
+		}
+		catch (RuntimeException ex) {
+			List<String> lastServices = this.lastServices;
+			if (lastServices == null) {
+				throw ex;
+			}
+			log.warn("Serving the last known services: {}", ex.getMessage());
+			this.staleServices.increment();
+			return lastServices;
+		}
 	}
 
 	@Override
@@ -95,8 +306,90 @@ public class CloudFoundryDiscoveryClient implements DiscoveryClient {
 		return this.properties.getOrder();
 	}
 
+	Flux<ApplicationSummary> getApplications() {
+		return this.circuitBreaker.protect(this.retryPolicy
+				.retry(this.requestThrottle.throttle(this.requestListener.observe(CloudFoundryRequestListener.LIST,
+						CloudFoundryRequestListener.NO_SERVICE, this.cloudFoundryOperations.applications().list()))));
+	}
+
+	Duration getRequestTimeout() {
+		return this.properties.getRequestTimeout();
+	}
+
 	CloudFoundryService getCloudFoundryService() {
 		return this.cloudFoundryService;
 	}
 
+	/**
+	 * Returns how many times the last known instances of a service were served because
+	 * the lookup timed out or failed.
+	 * @return the number of stale instance lookups
+	 */
+	public long getStaleInstancesCount() {
+		return this.staleInstances.sum();
+	}
+
+	/**
+	 * Returns how many times the last known services were served because the lookup timed
+	 * out or failed.
+	 * @return the number of stale service lookups
+	 */
+	public long getStaleServicesCount() {
+		return this.staleServices.sum();
+	}
+
+	/**
+	 * Sets the listener notified of the requests this client makes to the Cloud
+	 * Controller. Requests made through the {@link CloudFoundryService} and the
+	 * {@link CloudFoundryCatalogLoader} are reported by those.
+	 * @param requestListener the listener
+	 */
+	public void setRequestListener(CloudFoundryRequestListener requestListener) {
+		this.requestListener = requestListener;
+	}
+
+	/**
+	 * Sets the throttle of the requests this client makes to the Cloud Controller.
+	 * Requests made through the {@link CloudFoundryService} and the
+	 * {@link CloudFoundryCatalogLoader} are throttled by those.
+	 * @param requestThrottle the throttle
+	 */
+	public void setRequestThrottle(CloudFoundryRequestThrottle requestThrottle) {
+		this.requestThrottle = requestThrottle;
+	}
+
+	/**
+	 * Sets the policy that retries the requests this client makes to the Cloud
+	 * Controller. Requests made through the {@link CloudFoundryService} and the
+	 * {@link CloudFoundryCatalogLoader} are retried by those.
+	 * @param retryPolicy the retry policy
+	 */
+	public void setRetryPolicy(CloudFoundryRetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Sets the circuit breaker around the lookups this client makes to the Cloud
+	 * Controller, including those made through the {@link CloudFoundryService}. While it
+	 * is open, lookups are served from the last known instances and services, and from
+	 * the instance cache.
+	 * @param circuitBreaker the circuit breaker
+	 */
+	public void setCircuitBreaker(CloudFoundryCircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+		this.cloudFoundryService.setRequestGuard(circuitBreaker::protect);
+	}
+
+	/**
+	 * Sets the listener notified of the lookups made by this client.
+	 * @param lookupListener the listener
+	 */
+	public void setLookupListener(CloudFoundryDiscoveryLookupListener lookupListener) {
+		this.lookupListener = lookupListener;
+	}
+
+	ServiceInstanceCache getServiceInstanceCache() {
+		return this.serviceInstanceCache;
+	}
+
 }
@@ -16,7 +16,11 @@
 
 package org.springframework.cloud.cloudfoundry.discovery;
 
+import java.util.stream.Collectors;
+
+import org.cloudfoundry.doppler.DopplerClient;
 import org.cloudfoundry.operations.CloudFoundryOperations;
+import org.cloudfoundry.operations.applications.ApplicationSummary;
 
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
@@ -27,6 +31,10 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.cloud.client.ConditionalOnBlockingDiscoveryEnabled;
 import org.springframework.cloud.client.ConditionalOnDiscoveryEnabled;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.cloudfoundry.CloudFoundryCatalogLoader;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestListener;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestThrottle;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRetryPolicy;
 import org.springframework.cloud.cloudfoundry.CloudFoundryService;
 import org.springframework.cloud.cloudfoundry.discovery.SimpleDnsBasedDiscoveryClient.ServiceIdToHostnameConverter;
 import org.springframework.context.annotation.Bean;
@@ -49,6 +57,35 @@ public class CloudFoundryDiscoveryClientConfiguration {
 		return new CloudFoundryHeartbeatSender(client);
 	}
 
+	@Bean
+	@ConditionalOnBean(CloudFoundryDiscoveryClient.class)
+	public CloudFoundryDiscoveryPrefetcher cloudFoundryDiscoveryPrefetcher(CloudFoundryDiscoveryClient client,
+			CloudFoundryDiscoveryProperties properties) {
+		return new CloudFoundryDiscoveryPrefetcher(client::lookupInstances,
+				() -> client.getApplications().map(ApplicationSummary::getName).collectList(), properties);
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@ConditionalOnProperty("spring.cloud.cloudfoundry.discovery.circuit-breaker.enabled")
+	public CloudFoundryCircuitBreaker cloudFoundryCircuitBreaker(CloudFoundryDiscoveryProperties properties) {
+		return new CloudFoundryCircuitBreaker(properties.getCircuitBreaker());
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnClass(name = "org.springframework.boot.actuate.health.HealthIndicator")
+	@ConditionalOnProperty("spring.cloud.cloudfoundry.discovery.circuit-breaker.enabled")
+	public static class CloudFoundryCircuitBreakerHealthConfig {
+
+		@Bean
+		@ConditionalOnMissingBean
+		public CloudFoundryCircuitBreakerHealthIndicator cloudFoundryCircuitBreakerHealthIndicator(
+				CloudFoundryCircuitBreaker circuitBreaker) {
+			return new CloudFoundryCircuitBreakerHealthIndicator(circuitBreaker);
+		}
+
+	}
+
 	@Configuration(proxyBeanMethods = false)
 	@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.discovery.use-dns", havingValue = "false",
 			matchIfMissing = true)
@@ -57,8 +94,23 @@ public class CloudFoundryDiscoveryClientConfiguration {
 		@Bean
 		@ConditionalOnMissingBean(DiscoveryClient.class)
 		public CloudFoundryDiscoveryClient cloudFoundryDiscoveryClient(CloudFoundryOperations cf,
-				CloudFoundryService svc, CloudFoundryDiscoveryProperties cloudFoundryDiscoveryProperties) {
-			return new CloudFoundryDiscoveryClient(cf, svc, cloudFoundryDiscoveryProperties);
+				CloudFoundryService svc, CloudFoundryDiscoveryProperties cloudFoundryDiscoveryProperties,
+				ObjectProvider<CloudFoundryCatalogLoader> catalogLoader,
+				ObjectProvider<CloudFoundryRequestListener> requestListeners,
+				ObjectProvider<CloudFoundryDiscoveryLookupListener> lookupListeners,
+				ObjectProvider<CloudFoundryRequestThrottle> requestThrottle,
+				ObjectProvider<CloudFoundryRetryPolicy> retryPolicy,
+				ObjectProvider<CloudFoundryCircuitBreaker> circuitBreaker) {
+			CloudFoundryDiscoveryClient client = new CloudFoundryDiscoveryClient(cf, svc,
+					cloudFoundryDiscoveryProperties, catalogLoader.getIfAvailable());
+			client.setRequestThrottle(requestThrottle.getIfAvailable(() -> CloudFoundryRequestThrottle.UNLIMITED));
+			client.setRetryPolicy(retryPolicy.getIfAvailable(() -> CloudFoundryRetryPolicy.NONE));
+			client.setCircuitBreaker(circuitBreaker.getIfAvailable(() -> CloudFoundryCircuitBreaker.NONE));
+			client.setRequestListener(
+					CloudFoundryRequestListener.of(requestListeners.orderedStream().collect(Collectors.toList())));
+			client.setLookupListener(CloudFoundryDiscoveryLookupListener
+					.of(lookupListeners.orderedStream().collect(Collectors.toList())));
+			return client;
 		}
 
 	}
@@ -67,14 +119,29 @@ public class CloudFoundryDiscoveryClientConfiguration {
 	@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.discovery.use-dns", havingValue = "true")
 	public static class DnsBasedCloudFoundryDiscoveryClientConfig {
 
+		@Bean
+		@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.discovery.use-container-ip", havingValue = "true")
+		@ConditionalOnMissingBean
+		public DnsResolver cloudFoundryDnsResolver(CloudFoundryDiscoveryProperties properties) {
+			return new DnsResolver(properties.getDns());
+		}
+
 		@Bean
 		@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.discovery.use-container-ip", havingValue = "true")
 		@ConditionalOnMissingBean(DiscoveryClient.class)
 		public SimpleDnsBasedDiscoveryClient discoveryClient(ObjectProvider<ServiceIdToHostnameConverter> provider,
-				CloudFoundryDiscoveryProperties properties) {
-			ServiceIdToHostnameConverter converter = provider.getIfAvailable();
-			return converter == null ? new SimpleDnsBasedDiscoveryClient(properties)
-					: new SimpleDnsBasedDiscoveryClient(properties, converter);
+				CloudFoundryDiscoveryProperties properties, DnsResolver dnsResolver,
+				ObjectProvider<CloudFoundryRequestListener> requestListeners,
+				ObjectProvider<CloudFoundryDiscoveryLookupListener> lookupListeners) {
+			ServiceIdToHostnameConverter converter = provider
+					.getIfAvailable(() -> serviceId -> serviceId + "." + properties.getInternalDomain());
+			SimpleDnsBasedDiscoveryClient client = new SimpleDnsBasedDiscoveryClient(converter, dnsResolver,
+					properties);
+			client.setRequestListener(
+					CloudFoundryRequestListener.of(requestListeners.orderedStream().collect(Collectors.toList())));
+			client.setLookupListener(CloudFoundryDiscoveryLookupListener
+					.of(lookupListeners.orderedStream().collect(Collectors.toList())));
+			return client;
 		}
 
 		@Bean
@@ -82,8 +149,86 @@ public class CloudFoundryDiscoveryClientConfiguration {
 				matchIfMissing = true)
 		@ConditionalOnMissingBean(DiscoveryClient.class)
 		public CloudFoundryAppServiceDiscoveryClient cloudFoundryDiscoveryClient(CloudFoundryOperations cf,
-				CloudFoundryService svc, CloudFoundryDiscoveryProperties properties) {
-			return new CloudFoundryAppServiceDiscoveryClient(cf, svc, properties);
+				CloudFoundryService svc, CloudFoundryDiscoveryProperties properties,
+				ObjectProvider<CloudFoundryCatalogLoader> catalogLoader,
+				ObjectProvider<CloudFoundryRequestListener> requestListeners,
+				ObjectProvider<CloudFoundryDiscoveryLookupListener> lookupListeners,
+				ObjectProvider<CloudFoundryRequestThrottle> requestThrottle,
+				ObjectProvider<CloudFoundryRetryPolicy> retryPolicy,
+				ObjectProvider<CloudFoundryCircuitBreaker> circuitBreaker) {
+			CloudFoundryAppServiceDiscoveryClient client = new CloudFoundryAppServiceDiscoveryClient(cf, svc,
+					properties, catalogLoader.getIfAvailable());
+			client.setRequestThrottle(requestThrottle.getIfAvailable(() -> CloudFoundryRequestThrottle.UNLIMITED));
+			client.setRetryPolicy(retryPolicy.getIfAvailable(() -> CloudFoundryRetryPolicy.NONE));
+			client.setCircuitBreaker(circuitBreaker.getIfAvailable(() -> CloudFoundryCircuitBreaker.NONE));
+			client.setRequestListener(
+					CloudFoundryRequestListener.of(requestListeners.orderedStream().collect(Collectors.toList())));
+			client.setLookupListener(CloudFoundryDiscoveryLookupListener
+					.of(lookupListeners.orderedStream().collect(Collectors.toList())));
+			return client;
+		}
+
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnProperty("spring.cloud.cloudfoundry.discovery.cache.evict-on-crash")
+	public static class CloudFoundryInstanceEventConfig {
+
+		@Bean
+		@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.discovery.cache.enabled", matchIfMissing = true)
+		@ConditionalOnBean({ CloudFoundryDiscoveryClient.class, DopplerClient.class })
+		public CloudFoundryInstanceEventWatcher cloudFoundryInstanceEventWatcher(CloudFoundryDiscoveryClient client,
+				DopplerClient dopplerClient) {
+			return new CloudFoundryInstanceEventWatcher(dopplerClient, client.getServiceInstanceCache());
+		}
+
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnProperty("spring.cloud.cloudfoundry.discovery.snapshot.enabled")
+	public static class ServiceInstanceSnapshotConfig {
+
+		@Bean
+		@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.discovery.cache.enabled", matchIfMissing = true)
+		@ConditionalOnBean(CloudFoundryDiscoveryClient.class)
+		@ConditionalOnMissingBean
+		public ServiceInstanceSnapshotFile cloudFoundryServiceInstanceSnapshotFile(CloudFoundryDiscoveryClient client,
+				CloudFoundryDiscoveryProperties properties) {
+			return new ServiceInstanceSnapshotFile(client.getServiceInstanceCache(), properties.getSnapshot());
+		}
+
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+	public static class CloudFoundryDiscoveryClientMetricsConfig {
+
+		@Bean
+		@ConditionalOnMissingBean
+		public CloudFoundryDiscoveryLookupMetrics cloudFoundryDiscoveryLookupMetrics() {
+			return new CloudFoundryDiscoveryLookupMetrics();
+		}
+
+		@Bean
+		@ConditionalOnMissingBean
+		@ConditionalOnProperty("spring.cloud.cloudfoundry.discovery.circuit-breaker.enabled")
+		public CloudFoundryCircuitBreakerMetrics cloudFoundryCircuitBreakerMetrics(
+				CloudFoundryCircuitBreaker circuitBreaker) {
+			return new CloudFoundryCircuitBreakerMetrics(circuitBreaker);
+		}
+
+		@Bean
+		@ConditionalOnBean(CloudFoundryDiscoveryClient.class)
+		public CloudFoundryDiscoveryClientMetrics cloudFoundryDiscoveryClientMetrics(
+				CloudFoundryDiscoveryClient client) {
+			return new CloudFoundryDiscoveryClientMetrics(client);
+		}
+
+		@Bean
+		@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.discovery.cache.enabled", matchIfMissing = true)
+		@ConditionalOnBean(CloudFoundryDiscoveryClient.class)
+		public ServiceInstanceCacheMetrics cloudFoundryServiceInstanceCacheMetrics(CloudFoundryDiscoveryClient client) {
+			return new ServiceInstanceCacheMetrics(client.getServiceInstanceCache());
 		}
 
 	}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Exposes how often a {@link CloudFoundryDiscoveryClient} served its last known result
+ * instead of a fresh one as Micrometer meters.
+ */
+public class CloudFoundryDiscoveryClientMetrics implements MeterBinder {
+
+	private final CloudFoundryDiscoveryClient client;
+
+	public CloudFoundryDiscoveryClientMetrics(CloudFoundryDiscoveryClient client) {
+		this.client = client;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter
+				.builder("cloudfoundry.discovery.stale", this.client,
+						CloudFoundryDiscoveryClient::getStaleInstancesCount)
+				.tag("lookup", "instances").description("Number of instance lookups served from the last known result")
+				.register(registry);
+		FunctionCounter
+				.builder("cloudfoundry.discovery.stale", this.client,
+						CloudFoundryDiscoveryClient::getStaleServicesCount)
+				.tag("lookup", "services").description("Number of service lookups served from the last known result")
+				.register(registry);
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestListener;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestListener.Outcome;
+
+/**
+ * Listener notified of every {@code getInstances} and {@code getServices} lookup made by
+ * a discovery client, once the lookup completes, fails or is cancelled. The Cloud
+ * Controller and DNS requests made during the lookup are reported separately to the
+ * {@link CloudFoundryRequestListener}.
+ */
+@FunctionalInterface
+public interface CloudFoundryDiscoveryLookupListener {
+
+	/**
+	 * Listener that ignores every lookup.
+	 */
+	CloudFoundryDiscoveryLookupListener NONE = (client, lookup, outcome, durationNanos) -> {
+	};
+
+	/**
+	 * Lookup of the instances of a service.
+	 */
+	String INSTANCES = "instances";
+
+	/**
+	 * Lookup of the service ids.
+	 */
+	String SERVICES = "services";
+
+	/**
+	 * Called once a lookup has completed, failed or been cancelled.
+	 * @param client the simple class name of the discovery client
+	 * @param lookup the lookup, {@link #INSTANCES} or {@link #SERVICES}
+	 * @param outcome the outcome of the lookup
+	 * @param durationNanos the duration of the lookup, in nanoseconds
+	 */
+	void onLookup(String client, String lookup, Outcome outcome, long durationNanos);
+
+	/**
+	 * Notifies this listener once the given blocking lookup returns or throws.
+	 * @param client the discovery client making the lookup
+	 * @param lookup the lookup
+	 * @param call the lookup
+	 * @param <T> the result type
+	 * @return the result of the lookup
+	 */
+	default <T> T observe(Object client, String lookup, Supplier<T> call) {
+		if (this == NONE) {
+			return call.get();
+		}
+		long start = System.nanoTime();
+		Outcome outcome = Outcome.ERROR;
+		try {
+			T result = call.get();
+			outcome = Outcome.SUCCESS;
+			return result;
+		}
+		finally {
+			onLookup(client.getClass().getSimpleName(), lookup, outcome, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Notifies this listener when each subscription to the given lookup terminates.
+	 * @param client the discovery client making the lookup
+	 * @param lookup the lookup
+	 * @param call the lookup
+	 * @param <T> the type of the result elements
+	 * @return the observed lookup
+	 */
+	default <T> Flux<T> observe(Object client, String lookup, Flux<T> call) {
+		if (this == NONE) {
+			return call;
+		}
+		return Flux.defer(() -> {
+			long start = System.nanoTime();
+			return call.doFinally(signal -> onLookup(client.getClass().getSimpleName(), lookup, Outcome.of(signal),
+					System.nanoTime() - start));
+		});
+	}
+
+	/**
+	 * Notifies this listener when each subscription to the given lookup terminates.
+	 * @param client the discovery client making the lookup
+	 * @param lookup the lookup
+	 * @param call the lookup
+	 * @param <T> the result type
+	 * @return the observed lookup
+	 */
+	default <T> Mono<T> observe(Object client, String lookup, Mono<T> call) {
+		if (this == NONE) {
+			return call;
+		}
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			return call.doFinally(signal -> onLookup(client.getClass().getSimpleName(), lookup, Outcome.of(signal),
+					System.nanoTime() - start));
+		});
+	}
+
+	/**
+	 * Returns a listener that notifies every given listener in turn.
+	 * @param listeners the listeners
+	 * @return the composite listener, or {@link #NONE} if there are no listeners
+	 */
+	static CloudFoundryDiscoveryLookupListener of(List<? extends CloudFoundryDiscoveryLookupListener> listeners) {
+		if (listeners.isEmpty()) {
+			return NONE;
+		}
+		if (listeners.size() == 1) {
+			return listeners.get(0);
+		}
+		List<CloudFoundryDiscoveryLookupListener> copy = new ArrayList<>(listeners);
+		return (client, lookup, outcome, durationNanos) -> {
+			for (int i = 0; i < copy.size(); i++) {
+				copy.get(i).onLookup(client, lookup, outcome, durationNanos);
+			}
+		};
+	}
+
+}
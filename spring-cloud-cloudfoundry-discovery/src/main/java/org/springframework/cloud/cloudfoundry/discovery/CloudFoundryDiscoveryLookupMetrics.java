@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestListener.Outcome;
+
+/**
+ * Times the lookups of the discovery clients with the
+ * {@code cloudfoundry.discovery.lookups} Micrometer timer, tagged with the client, the
+ * lookup and its outcome. Together with the {@code cloudfoundry.requests} timer of the
+ * Cloud Controller and DNS requests, it tells the time spent in discovery itself apart
+ * from the time spent waiting for those requests.
+ */
+public class CloudFoundryDiscoveryLookupMetrics implements CloudFoundryDiscoveryLookupListener, MeterBinder {
+
+	private static final int OUTCOMES = Outcome.values().length;
+
+	/**
+	 * Timers by client, lookup and outcome ordinal, so that recording a lookup does not
+	 * build a new meter id every time.
+	 */
+	private final ConcurrentMap<String, ConcurrentMap<String, Timer[]>> timers = new ConcurrentHashMap<>();
+
+	private volatile MeterRegistry registry;
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.timers.clear();
+		this.registry = registry;
+	}
+
+	@Override
+	public void onLookup(String client, String lookup, Outcome outcome, long durationNanos) {
+		MeterRegistry registry = this.registry;
+		if (registry == null) {
+			return;
+		}
+		Timer[] timers = timers(client, lookup);
+		Timer timer = timers[outcome.ordinal()];
+		if (timer == null) {
+			timer = Timer.builder("cloudfoundry.discovery.lookups").tag("client", client).tag("lookup", lookup)
+					.tag("outcome", outcome.name()).description("Lookups made by the discovery clients")
+					.register(registry);
+			timers[outcome.ordinal()] = timer;
+		}
+		timer.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private Timer[] timers(String client, String lookup) {
+		ConcurrentMap<String, Timer[]> byLookup = this.timers.get(client);
+		if (byLookup == null) {
+			byLookup = this.timers.computeIfAbsent(client, key -> new ConcurrentHashMap<>());
+		}
+		Timer[] timers = byLookup.get(lookup);
+		if (timers == null) {
+			timers = byLookup.computeIfAbsent(lookup, key -> new Timer[OUTCOMES]);
+		}
+		return timers;
+	}
+
+}
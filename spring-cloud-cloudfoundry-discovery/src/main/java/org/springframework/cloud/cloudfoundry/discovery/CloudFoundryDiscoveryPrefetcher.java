@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestThrottle;
+import org.springframework.context.ApplicationListener;
+
+/**
+ * Looks up the instances of the services listed in
+ * {@code spring.cloud.cloudfoundry.discovery.prefetch}, or of every service when
+ * {@code prefetch-catalog} is enabled, once the application is ready. This warms up the
+ * Cloud Foundry clients and the instance cache before the first request needs them.
+ * <p>
+ * By default the lookup runs in the background. With {@code prefetch-before-ready} it
+ * runs before the application reports that it accepts traffic, waiting at most the
+ * configured request timeout.
+ */
+public class CloudFoundryDiscoveryPrefetcher implements ApplicationListener<ApplicationReadyEvent> {
+
+	private static final Logger log = LoggerFactory.getLogger(CloudFoundryDiscoveryPrefetcher.class);
+
+	private final Function<Collection<String>, Mono<Map<String, List<ServiceInstance>>>> instances;
+
+	private final Supplier<Mono<List<String>>> services;
+
+	private final CloudFoundryDiscoveryProperties properties;
+
+	/**
+	 * Creates a new prefetcher.
+	 * @param instances looks up the instances of several services
+	 * @param services lists every service
+	 * @param properties the discovery properties
+	 */
+	public CloudFoundryDiscoveryPrefetcher(
+			Function<Collection<String>, Mono<Map<String, List<ServiceInstance>>>> instances,
+			Supplier<Mono<List<String>>> services, CloudFoundryDiscoveryProperties properties) {
+		this.instances = instances;
+		this.services = services;
+		this.properties = properties;
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationReadyEvent event) {
+		if (this.properties.getPrefetch().isEmpty() && !this.properties.isPrefetchCatalog()) {
+			return;
+		}
+		Mono<Integer> prefetch = prefetch()
+				.doOnNext(count -> log.info("Prefetched the instances of {} services", count)).onErrorResume(ex -> {
+					log.warn("Failed to prefetch service instances: {}", ex.getMessage());
+					return Mono.empty();
+				});
+		if (this.properties.isPrefetchBeforeReady()) {
+			prefetch.timeout(this.properties.getRequestTimeout(), Mono.fromRunnable(
+					() -> log.warn("Prefetching service instances did not complete before the application was ready")))
+					.block();
+		}
+		else {
+			prefetch.contextWrite(CloudFoundryRequestThrottle.background()).subscribe();
+		}
+	}
+
+	/**
+	 * Looks up the instances of the services to prefetch.
+	 * @return the number of services looked up
+	 */
+	public Mono<Integer> prefetch() {
+		Mono<Set<String>> serviceIds = Mono.just(new LinkedHashSet<>(this.properties.getPrefetch()));
+		if (this.properties.isPrefetchCatalog()) {
+			serviceIds = serviceIds.zipWith(this.services.get(), (prefetch, services) -> {
+				prefetch.addAll(services);
+				return prefetch;
+			});
+		}
+		return serviceIds.flatMap(this.instances).map(Map::size);
+	}
+
+}
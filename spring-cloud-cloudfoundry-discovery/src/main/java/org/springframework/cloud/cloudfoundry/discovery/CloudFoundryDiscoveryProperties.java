@@ -16,6 +16,13 @@
 
 package org.springframework.cloud.cloudfoundry.discovery;
 
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.core.style.ToStringCreator;
 
@@ -36,6 +43,44 @@ public class CloudFoundryDiscoveryProperties {
 	 */
 	private long heartbeatFrequency = 5000;
 
+	/**
+	 * Maximum time to wait for the list of services when polling for heart beat. A poll
+	 * that takes longer is abandoned so that polls never overlap.
+	 */
+	private Duration heartbeatTimeout = Duration.ofSeconds(5);
+
+	/**
+	 * Maximum time the blocking discovery client waits for the Cloud Controller when
+	 * looking up instances or services. When a lookup takes longer or fails, the last
+	 * result is served instead and its instances are marked stale.
+	 */
+	private Duration requestTimeout = Duration.ofSeconds(10);
+
+	/**
+	 * Maximum number of services looked up in parallel when the instances of several
+	 * services are requested at once.
+	 */
+	private int batchConcurrency = 8;
+
+	/**
+	 * Service ids whose instances are looked up as soon as the application is ready, to
+	 * warm up the clients and the instance cache.
+	 */
+	private List<String> prefetch = new ArrayList<>();
+
+	/**
+	 * Whether to look up the instances of every service as soon as the application is
+	 * ready.
+	 */
+	private boolean prefetchCatalog = false;
+
+	/**
+	 * Whether to finish prefetching before the application reports that it accepts
+	 * traffic, waiting at most the request timeout. Otherwise instances are prefetched in
+	 * the background.
+	 */
+	private boolean prefetchBeforeReady = false;
+
 	/**
 	 * Port to use when no port is defined by service discovery.
 	 */
@@ -52,6 +97,33 @@ public class CloudFoundryDiscoveryProperties {
 	 */
 	private String internalDomain = "apps.internal";
 
+	/**
+	 * Container port and scheme of the instances of each service, by service id. Used
+	 * when calling instances directly over the container network and no SRV record
+	 * defines the port.
+	 */
+	private Map<String, ServicePort> ports = new LinkedHashMap<>();
+
+	/**
+	 * Cache of discovered service instances.
+	 */
+	private final Cache cache = new Cache();
+
+	/**
+	 * DNS resolution used by the DNS based discovery clients.
+	 */
+	private final Dns dns = new Dns();
+
+	/**
+	 * Circuit breaker around the lookups made to the Cloud Controller.
+	 */
+	private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+	/**
+	 * Snapshot of the instance cache persisted to local disk.
+	 */
+	private final Snapshot snapshot = new Snapshot();
+
 	public boolean isEnabled() {
 		return this.enabled;
 	}
@@ -68,6 +140,54 @@ public class CloudFoundryDiscoveryProperties {
 		this.heartbeatFrequency = heartbeatFrequency;
 	}
 
+	public Duration getHeartbeatTimeout() {
+		return this.heartbeatTimeout;
+	}
+
+	public void setHeartbeatTimeout(Duration heartbeatTimeout) {
+		this.heartbeatTimeout = heartbeatTimeout;
+	}
+
+	public Duration getRequestTimeout() {
+		return this.requestTimeout;
+	}
+
+	public void setRequestTimeout(Duration requestTimeout) {
+		this.requestTimeout = requestTimeout;
+	}
+
+	public int getBatchConcurrency() {
+		return this.batchConcurrency;
+	}
+
+	public void setBatchConcurrency(int batchConcurrency) {
+		this.batchConcurrency = batchConcurrency;
+	}
+
+	public List<String> getPrefetch() {
+		return this.prefetch;
+	}
+
+	public void setPrefetch(List<String> prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	public boolean isPrefetchCatalog() {
+		return this.prefetchCatalog;
+	}
+
+	public void setPrefetchCatalog(boolean prefetchCatalog) {
+		this.prefetchCatalog = prefetchCatalog;
+	}
+
+	public boolean isPrefetchBeforeReady() {
+		return this.prefetchBeforeReady;
+	}
+
+	public void setPrefetchBeforeReady(boolean prefetchBeforeReady) {
+		this.prefetchBeforeReady = prefetchBeforeReady;
+	}
+
 	public int getDefaultServerPort() {
 		return this.defaultServerPort;
 	}
@@ -92,17 +212,506 @@ public class CloudFoundryDiscoveryProperties {
 		this.internalDomain = internalDomain;
 	}
 
+	public Map<String, ServicePort> getPorts() {
+		return this.ports;
+	}
+
+	public void setPorts(Map<String, ServicePort> ports) {
+		this.ports = ports;
+	}
+
+	/**
+	 * Returns the container port and scheme of the instances of a service, falling back
+	 * to port 8080 over plain HTTP when none is configured.
+	 * @param serviceId the service id
+	 * @return the container port of the service
+	 */
+	public ServicePort getServicePort(String serviceId) {
+		return this.ports.getOrDefault(serviceId, ServicePort.DEFAULT);
+	}
+
+	public Cache getCache() {
+		return this.cache;
+	}
+
+	public Dns getDns() {
+		return this.dns;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return this.circuitBreaker;
+	}
+
+	public Snapshot getSnapshot() {
+		return this.snapshot;
+	}
+
 	@Override
 	public String toString() {
 		// @formatter:off
 		return new ToStringCreator(this)
 			.append("enabled", enabled)
 			.append("heartbeatFrequency", heartbeatFrequency)
+			.append("heartbeatTimeout", heartbeatTimeout)
+			.append("requestTimeout", requestTimeout)
+			.append("batchConcurrency", batchConcurrency)
+			.append("prefetch", prefetch)
+			.append("prefetchCatalog", prefetchCatalog)
+			.append("prefetchBeforeReady", prefetchBeforeReady)
 			.append("defaultServerPort", defaultServerPort)
 			.append("order", order)
 			.append("internalDomain", internalDomain)
+			.append("ports", ports)
+			.append("cache", cache)
+			.append("dns", dns)
+			.append("circuitBreaker", circuitBreaker)
+			.append("snapshot", snapshot)
 			.toString();
 		// @formatter:on
 	}
 
+	public static class ServicePort {
+
+		static final ServicePort DEFAULT = new ServicePort();
+
+		/**
+		 * Port the instances listen on.
+		 */
+		private int port = 8080;
+
+		/**
+		 * Whether the instances are called over HTTPS.
+		 */
+		private boolean secure = false;
+
+		public int getPort() {
+			return this.port;
+		}
+
+		public void setPort(int port) {
+			this.port = port;
+		}
+
+		public boolean isSecure() {
+			return this.secure;
+		}
+
+		public void setSecure(boolean secure) {
+			this.secure = secure;
+		}
+
+		@Override
+		public String toString() {
+			// @formatter:off
+			return new ToStringCreator(this)
+				.append("port", port)
+				.append("secure", secure)
+				.toString();
+			// @formatter:on
+		}
+
+	}
+
+	public static class Cache {
+
+		/**
+		 * Whether to cache the instances returned for each service id.
+		 */
+		private boolean enabled = true;
+
+		/**
+		 * Age after which a cached snapshot is refreshed in the background. The stale
+		 * snapshot keeps being served until the refresh completes.
+		 */
+		private Duration ttl = Duration.ofSeconds(30);
+
+		/**
+		 * Age after which a cached snapshot is reloaded before it is served again. A
+		 * snapshot whose refresh failed because the Cloud Controller could not be reached
+		 * is served whatever its age. Zero serves snapshots whatever their age.
+		 */
+		private Duration maxStaleness = Duration.ofMinutes(5);
+
+		/**
+		 * Whether to load the instances of every application in the space at once, with a
+		 * few paged requests to the v3 API, instead of looking up each service
+		 * separately. Instances of a started application are assumed to be running.
+		 */
+		private boolean bulkLoad = false;
+
+		/**
+		 * Whether to watch the Doppler log stream of the discovered applications and
+		 * evict crashed or stopped instances from the cache right away, instead of at the
+		 * next refresh.
+		 */
+		private boolean evictOnCrash = false;
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public Duration getTtl() {
+			return this.ttl;
+		}
+
+		public void setTtl(Duration ttl) {
+			this.ttl = ttl;
+		}
+
+		public Duration getMaxStaleness() {
+			return this.maxStaleness;
+		}
+
+		public void setMaxStaleness(Duration maxStaleness) {
+			this.maxStaleness = maxStaleness;
+		}
+
+		public boolean isBulkLoad() {
+			return this.bulkLoad;
+		}
+
+		public void setBulkLoad(boolean bulkLoad) {
+			this.bulkLoad = bulkLoad;
+		}
+
+		public boolean isEvictOnCrash() {
+			return this.evictOnCrash;
+		}
+
+		public void setEvictOnCrash(boolean evictOnCrash) {
+			this.evictOnCrash = evictOnCrash;
+		}
+
+		@Override
+		public String toString() {
+			// @formatter:off
+			return new ToStringCreator(this)
+				.append("enabled", enabled)
+				.append("ttl", ttl)
+				.append("maxStaleness", maxStaleness)
+				.append("bulkLoad", bulkLoad)
+				.append("evictOnCrash", evictOnCrash)
+				.toString();
+			// @formatter:on
+		}
+
+	}
+
+	public static class Dns {
+
+		/**
+		 * Maximum time to wait for the response to a DNS query.
+		 */
+		private Duration queryTimeout = Duration.ofSeconds(5);
+
+		/**
+		 * Maximum number of DNS queries in flight. Further queries wait for a free slot.
+		 */
+		private int maxConcurrentQueries = 64;
+
+		/**
+		 * Nameservers to query, as `host` or `host:port`. Defaults to the nameservers
+		 * configured for the platform.
+		 */
+		private List<String> nameservers = new ArrayList<>();
+
+		/**
+		 * Minimum time to cache a DNS answer, regardless of the TTL of its records.
+		 */
+		private Duration minTtl = Duration.ofSeconds(5);
+
+		/**
+		 * Maximum time to cache a DNS answer, regardless of the TTL of its records.
+		 */
+		private Duration maxTtl = Duration.ofSeconds(60);
+
+		/**
+		 * Time to cache the answer for a hostname that does not exist.
+		 */
+		private Duration negativeTtl = Duration.ofSeconds(2);
+
+		/**
+		 * Whether to look up the SRV and TXT records of a service hostname to find the
+		 * port and scheme of its instances. Hostnames without SRV records fall back to
+		 * their A records and the configured service ports.
+		 */
+		private boolean srvLookup = false;
+
+		public Duration getQueryTimeout() {
+			return this.queryTimeout;
+		}
+
+		public void setQueryTimeout(Duration queryTimeout) {
+			this.queryTimeout = queryTimeout;
+		}
+
+		public int getMaxConcurrentQueries() {
+			return this.maxConcurrentQueries;
+		}
+
+		public void setMaxConcurrentQueries(int maxConcurrentQueries) {
+			this.maxConcurrentQueries = maxConcurrentQueries;
+		}
+
+		public List<String> getNameservers() {
+			return this.nameservers;
+		}
+
+		public void setNameservers(List<String> nameservers) {
+			this.nameservers = nameservers;
+		}
+
+		public Duration getMinTtl() {
+			return this.minTtl;
+		}
+
+		public void setMinTtl(Duration minTtl) {
+			this.minTtl = minTtl;
+		}
+
+		public Duration getMaxTtl() {
+			return this.maxTtl;
+		}
+
+		public void setMaxTtl(Duration maxTtl) {
+			this.maxTtl = maxTtl;
+		}
+
+		public Duration getNegativeTtl() {
+			return this.negativeTtl;
+		}
+
+		public void setNegativeTtl(Duration negativeTtl) {
+			this.negativeTtl = negativeTtl;
+		}
+
+		public boolean isSrvLookup() {
+			return this.srvLookup;
+		}
+
+		public void setSrvLookup(boolean srvLookup) {
+			this.srvLookup = srvLookup;
+		}
+
+		@Override
+		public String toString() {
+			// @formatter:off
+			return new ToStringCreator(this)
+				.append("queryTimeout", queryTimeout)
+				.append("maxConcurrentQueries", maxConcurrentQueries)
+				.append("nameservers", nameservers)
+				.append("minTtl", minTtl)
+				.append("maxTtl", maxTtl)
+				.append("negativeTtl", negativeTtl)
+				.append("srvLookup", srvLookup)
+				.toString();
+			// @formatter:on
+		}
+
+	}
+
+	public static class CircuitBreaker {
+
+		/**
+		 * Whether to open a circuit breaker when the Cloud Controller fails or is slow,
+		 * and serve lookups from the last known instances and the instance cache while it
+		 * is open. Lookups then fail fast instead of waiting for the Cloud Controller.
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * Percentage of failed calls in the sliding window from which the breaker opens.
+		 */
+		private int failureRateThreshold = 50;
+
+		/**
+		 * Percentage of slow calls in the sliding window from which the breaker opens.
+		 */
+		private int slowCallRateThreshold = 100;
+
+		/**
+		 * Duration from which a call is slow. A call cancelled after that duration, as
+		 * when the lookup timed out, is slow as well.
+		 */
+		private Duration slowCallDuration = Duration.ofSeconds(5);
+
+		/**
+		 * Number of the last calls whose outcome is kept in the sliding window.
+		 */
+		private int slidingWindowSize = 20;
+
+		/**
+		 * Minimum number of calls in the sliding window before the breaker may open.
+		 */
+		private int minimumNumberOfCalls = 10;
+
+		/**
+		 * Time the breaker stays open before a probe call is let through.
+		 */
+		private Duration waitInOpenState = Duration.ofSeconds(10);
+
+		/**
+		 * Maximum time the breaker stays open. The wait doubles every time a probe call
+		 * fails, up to that time.
+		 */
+		private Duration maxWaitInOpenState = Duration.ofMinutes(2);
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getFailureRateThreshold() {
+			return this.failureRateThreshold;
+		}
+
+		public void setFailureRateThreshold(int failureRateThreshold) {
+			this.failureRateThreshold = failureRateThreshold;
+		}
+
+		public int getSlowCallRateThreshold() {
+			return this.slowCallRateThreshold;
+		}
+
+		public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+			this.slowCallRateThreshold = slowCallRateThreshold;
+		}
+
+		public Duration getSlowCallDuration() {
+			return this.slowCallDuration;
+		}
+
+		public void setSlowCallDuration(Duration slowCallDuration) {
+			this.slowCallDuration = slowCallDuration;
+		}
+
+		public int getSlidingWindowSize() {
+			return this.slidingWindowSize;
+		}
+
+		public void setSlidingWindowSize(int slidingWindowSize) {
+			this.slidingWindowSize = slidingWindowSize;
+		}
+
+		public int getMinimumNumberOfCalls() {
+			return this.minimumNumberOfCalls;
+		}
+
+		public void setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+			this.minimumNumberOfCalls = minimumNumberOfCalls;
+		}
+
+		public Duration getWaitInOpenState() {
+			return this.waitInOpenState;
+		}
+
+		public void setWaitInOpenState(Duration waitInOpenState) {
+			this.waitInOpenState = waitInOpenState;
+		}
+
+		public Duration getMaxWaitInOpenState() {
+			return this.maxWaitInOpenState;
+		}
+
+		public void setMaxWaitInOpenState(Duration maxWaitInOpenState) {
+			this.maxWaitInOpenState = maxWaitInOpenState;
+		}
+
+		@Override
+		public String toString() {
+			// @formatter:off
+			return new ToStringCreator(this)
+				.append("enabled", enabled)
+				.append("failureRateThreshold", failureRateThreshold)
+				.append("slowCallRateThreshold", slowCallRateThreshold)
+				.append("slowCallDuration", slowCallDuration)
+				.append("slidingWindowSize", slidingWindowSize)
+				.append("minimumNumberOfCalls", minimumNumberOfCalls)
+				.append("waitInOpenState", waitInOpenState)
+				.append("maxWaitInOpenState", maxWaitInOpenState)
+				.toString();
+			// @formatter:on
+		}
+
+	}
+
+	public static class Snapshot {
+
+		/**
+		 * Whether to persist the instance cache to local disk periodically and on
+		 * shutdown, and to restore it at startup so that lookups are served at once while
+		 * the cache is refreshed in the background.
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * File the snapshot is written to. Defaults to a file in the temporary directory
+		 * of the container.
+		 */
+		private File path = new File(System.getProperty("java.io.tmpdir"), "cloudfoundry-discovery.snapshot");
+
+		/**
+		 * Interval in milliseconds between two writes of the snapshot.
+		 */
+		private long writeInterval = 60000;
+
+		/**
+		 * Maximum age of the instances of a service restored at startup. Older ones are
+		 * ignored. Must not exceed the maximum staleness of the instance cache.
+		 */
+		private Duration maxAge = Duration.ofMinutes(5);
+
+		public boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public File getPath() {
+			return this.path;
+		}
+
+		public void setPath(File path) {
+			this.path = path;
+		}
+
+		public long getWriteInterval() {
+			return this.writeInterval;
+		}
+
+		public void setWriteInterval(long writeInterval) {
+			this.writeInterval = writeInterval;
+		}
+
+		public Duration getMaxAge() {
+			return this.maxAge;
+		}
+
+		public void setMaxAge(Duration maxAge) {
+			this.maxAge = maxAge;
+		}
+
+		@Override
+		public String toString() {
+			// @formatter:off
+			return new ToStringCreator(this)
+				.append("enabled", enabled)
+				.append("path", path)
+				.append("writeInterval", writeInterval)
+				.append("maxAge", maxAge)
+				.toString();
+			// @formatter:on
+		}
+
+	}
+
 }
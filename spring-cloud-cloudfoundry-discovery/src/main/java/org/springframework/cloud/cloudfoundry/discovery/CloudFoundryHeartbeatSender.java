@@ -16,17 +16,31 @@
 
 package org.springframework.cloud.cloudfoundry.discovery;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cloudfoundry.operations.applications.ApplicationSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+import org.springframework.cloud.cloudfoundry.CloudFoundryFlightRecorder;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestListener;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestThrottle;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 /**
- * Publishes a {@link HeartbeatEvent} listing the available services as its state
- * indicator. If consumers detect a change it means there is a change in the catalog.
+ * Publishes a {@link HeartbeatEvent} whenever the catalog changes. The state of the event
+ * is a version number that increases with every change, so consumers that detect a change
+ * can rely on the catalog having actually changed. The catalog is compared by a
+ * fingerprint of the application names, ids, states, instance counts and routes. A poll
+ * waits at most the configured request timeout, and a poll that times out or fails is
+ * skipped so that it does not hold up the other scheduled tasks.
  *
  * @author Dave Syer
  *
@@ -34,8 +48,16 @@ import org.springframework.stereotype.Component;
 @Component
 public class CloudFoundryHeartbeatSender implements ApplicationEventPublisherAware {
 
+	private static final Logger log = LoggerFactory.getLogger(CloudFoundryHeartbeatSender.class);
+
+	private static final Comparator<ApplicationSummary> BY_ID = Comparator.comparing(ApplicationSummary::getId);
+
 	private final CloudFoundryDiscoveryClient client;
 
+	private final AtomicLong stateVersion = new AtomicLong();
+
+	private volatile Long fingerprint;
+
 	private ApplicationEventPublisher publisher;
 
 	public CloudFoundryHeartbeatSender(CloudFoundryDiscoveryClient client) {
@@ -45,14 +67,52 @@ public class CloudFoundryHeartbeatSender implements ApplicationEventPublisherAwa
 	@Scheduled(fixedDelayString = "${spring.cloud.cloudfoundry.discovery.heartbeatFrequency:5000}")
 	public void poll() {
 		if (this.publisher != null) {
-			List<String> services = this.client.getServices();
-			this.publisher.publishEvent(new HeartbeatEvent(this.client, services));
+			List<ApplicationSummary> applications;
+			try {
+				applications = CloudFoundryFlightRecorder
+						.record(this, CloudFoundryRequestListener.LIST, CloudFoundryRequestListener.NO_SERVICE,
+								this.client.getApplications())
+						.contextWrite(CloudFoundryRequestThrottle.background()).collectList()
+						.blockOptional(this.client.getRequestTimeout()).orElse(new ArrayList<>());
+			}
+			catch (RuntimeException ex) {
+				log.warn("Skipping heartbeat, failed to list the applications: {}", ex.getMessage());
+				return;
+			}
+			long current = fingerprint(applications);
+			if (this.fingerprint == null || this.fingerprint != current) {
+				this.fingerprint = current;
+				this.publisher.publishEvent(new HeartbeatEvent(this.client, this.stateVersion.incrementAndGet()));
+			}
 		}
 	}
 
+	/**
+	 * Returns the version of the catalog published with the latest heartbeat.
+	 * @return the catalog version, {@code 0} if no heartbeat has been published yet
+	 */
+	public long getStateVersion() {
+		return this.stateVersion.get();
+	}
+
 	@Override
 	public void setApplicationEventPublisher(ApplicationEventPublisher publisher) {
 		this.publisher = publisher;
 	}
 
+	static long fingerprint(List<ApplicationSummary> applications) {
+		List<ApplicationSummary> sorted = new ArrayList<>(applications);
+		sorted.sort(BY_ID);
+		long hash = 1125899906842597L;
+		for (ApplicationSummary application : sorted) {
+			hash = 31 * hash + application.getId().hashCode();
+			hash = 31 * hash + application.getName().hashCode();
+			hash = 31 * hash + String.valueOf(application.getRequestedState()).hashCode();
+			hash = 31 * hash + application.getInstances();
+			hash = 31 * hash + application.getRunningInstances();
+			hash = 31 * hash + application.getUrls().hashCode();
+		}
+		return hash;
+	}
+
 }
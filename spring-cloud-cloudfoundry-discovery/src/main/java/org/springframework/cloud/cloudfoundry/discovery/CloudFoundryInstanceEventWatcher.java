@@ -0,0 +1,233 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.cloudfoundry.doppler.DopplerClient;
+import org.cloudfoundry.doppler.Envelope;
+import org.cloudfoundry.doppler.EventType;
+import org.cloudfoundry.doppler.LogMessage;
+import org.cloudfoundry.doppler.StreamRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Watches the Doppler log stream of every discovered application and updates the
+ * {@link ServiceInstanceCache} as soon as an instance crashes, is stopped or becomes
+ * healthy again, instead of waiting for the next refresh of the cache.
+ * <p>
+ * A crashed or stopped instance is evicted from the cache. An evicted instance that
+ * becomes healthy is put back; any other instance that becomes healthy triggers a refresh
+ * of its service. The applications to watch are those in the cache, checked on every
+ * heartbeat, and evicted instances are forgotten once their service leaves the cache.
+ */
+public class CloudFoundryInstanceEventWatcher implements DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(CloudFoundryInstanceEventWatcher.class);
+
+	private static final String APPLICATION_ID = "applicationId";
+
+	private static final String INSTANCE_ID = "instanceId";
+
+	private static final Duration MIN_BACKOFF = Duration.ofSeconds(1);
+
+	private static final Duration MAX_BACKOFF = Duration.ofMinutes(1);
+
+	private static final Pattern CRASHED_INDEX = Pattern.compile("\"index\"=>(\\d+)");
+
+	private final DopplerClient dopplerClient;
+
+	private final ServiceInstanceCache cache;
+
+	private final Scheduler scheduler;
+
+	private final ConcurrentMap<String, Disposable> streams = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, ServiceInstance> evicted = new ConcurrentHashMap<>();
+
+	public CloudFoundryInstanceEventWatcher(DopplerClient dopplerClient, ServiceInstanceCache cache) {
+		this(dopplerClient, cache, Schedulers.parallel());
+	}
+
+	CloudFoundryInstanceEventWatcher(DopplerClient dopplerClient, ServiceInstanceCache cache, Scheduler scheduler) {
+		this.dopplerClient = dopplerClient;
+		this.cache = cache;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Starts watching the applications that were discovered since the last call, and
+	 * stops watching those that are gone.
+	 */
+	@Scheduled(fixedDelayString = "${spring.cloud.cloudfoundry.discovery.heartbeatFrequency:5000}")
+	public void watchDiscoveredApplications() {
+		Map<String, List<ServiceInstance>> snapshot = this.cache.snapshot();
+		Map<String, String> applications = new HashMap<>();
+		snapshot.forEach((serviceId, instances) -> instances
+				.forEach(instance -> addApplication(applications, serviceId, instance)));
+		this.evicted.values().removeIf(instance -> !snapshot.containsKey(instance.getServiceId()));
+		this.evicted.values().forEach(instance -> addApplication(applications, instance.getServiceId(), instance));
+		applications.forEach((applicationId, serviceId) -> {
+			if (!this.streams.containsKey(applicationId)) {
+				watch(serviceId, applicationId);
+			}
+		});
+		this.streams.forEach((applicationId, stream) -> {
+			if (!applications.containsKey(applicationId) && this.streams.remove(applicationId, stream)) {
+				stream.dispose();
+			}
+		});
+	}
+
+	private static void addApplication(Map<String, String> applications, String serviceId, ServiceInstance instance) {
+		String applicationId = instance.getMetadata().get(APPLICATION_ID);
+		if (applicationId != null) {
+			applications.put(applicationId, serviceId);
+		}
+	}
+
+	/**
+	 * Subscribes to the log stream of an application, again with a backoff whenever the
+	 * stream fails or is closed by Doppler. The backoff starts over once a stream
+	 * delivers an event or stays open for the longest backoff, so that only streams that
+	 * keep failing to connect wait long. Once the subscription terminates it is
+	 * forgotten, so that the next call to {@link #watchDiscoveredApplications()} starts a
+	 * new one.
+	 */
+	private void watch(String serviceId, String applicationId) {
+		Disposable.Swap stream = Disposables.swap();
+		if (this.streams.putIfAbsent(applicationId, stream) != null) {
+			return;
+		}
+		AtomicLong connectedAt = new AtomicLong();
+		AtomicInteger reconnects = new AtomicInteger();
+		stream.update(Flux
+				.defer(() -> this.dopplerClient.stream(StreamRequest.builder().applicationId(applicationId).build()))
+				.doOnSubscribe(subscription -> connectedAt.set(now())).doOnNext(envelope -> reconnects.set(0))
+				.retryWhen(Retry.backoff(Long.MAX_VALUE, MIN_BACKOFF).maxBackoff(MAX_BACKOFF).transientErrors(true)
+						.scheduler(this.scheduler))
+				.repeatWhen(completions -> completions.concatMap(completion -> {
+					log.debug("Events of '{}' closed, watching them again", serviceId);
+					if (now() - connectedAt.get() >= MAX_BACKOFF.toMillis()) {
+						reconnects.set(0);
+					}
+					return Mono.delay(backoff(reconnects.getAndIncrement()), this.scheduler);
+				})).doFinally(signal -> this.streams.remove(applicationId, stream))
+				.subscribe(envelope -> onEnvelope(serviceId, applicationId, envelope),
+						error -> log.warn("Stopped watching the events of '{}': {}", serviceId, error.getMessage())));
+	}
+
+	private long now() {
+		return this.scheduler.now(TimeUnit.MILLISECONDS);
+	}
+
+	private static Duration backoff(int attempt) {
+		return (attempt >= 6) ? MAX_BACKOFF : MIN_BACKOFF.multipliedBy(1L << attempt);
+	}
+
+	private void onEnvelope(String serviceId, String applicationId, Envelope envelope) {
+		if (envelope.getEventType() != EventType.LOG_MESSAGE || envelope.getLogMessage() == null) {
+			return;
+		}
+		LogMessage message = envelope.getLogMessage();
+		String stoppedIndex = stoppedIndex(message);
+		if (stoppedIndex != null) {
+			evict(serviceId, applicationId, stoppedIndex);
+		}
+		else if (isHealthy(message)) {
+			restore(serviceId, applicationId, message.getSourceInstance());
+		}
+	}
+
+	private void evict(String serviceId, String applicationId, String index) {
+		List<ServiceInstance> instances = this.cache.evict(serviceId, isInstance(applicationId, index));
+		if (!instances.isEmpty()) {
+			log.debug("Evicted instance {} of '{}'", index, serviceId);
+			this.evicted.put(applicationId + "." + index, instances.get(0));
+		}
+	}
+
+	private void restore(String serviceId, String applicationId, String index) {
+		ServiceInstance instance = this.evicted.remove(applicationId + "." + index);
+		if (instance != null) {
+			log.debug("Restored instance {} of '{}'", index, serviceId);
+			this.cache.add(serviceId, instance, isInstance(applicationId, index));
+		}
+		else {
+			this.cache.refresh(serviceId);
+		}
+	}
+
+	/**
+	 * Returns the index of the instance that crashed or is being stopped.
+	 */
+	private static String stoppedIndex(LogMessage message) {
+		String text = message.getMessage();
+		if (text == null) {
+			return null;
+		}
+		if ("API".equals(message.getSourceType()) && text.startsWith("App instance exited")
+				&& text.contains("\"reason\"=>\"CRASHED\"")) {
+			Matcher matcher = CRASHED_INDEX.matcher(text);
+			return matcher.find() ? matcher.group(1) : null;
+		}
+		if ("CELL".equals(message.getSourceType()) && text.contains("stopping instance")) {
+			return message.getSourceInstance();
+		}
+		return null;
+	}
+
+	private static boolean isHealthy(LogMessage message) {
+		return "CELL".equals(message.getSourceType()) && message.getSourceInstance() != null
+				&& "Container became healthy".equals(message.getMessage());
+	}
+
+	private static Predicate<ServiceInstance> isInstance(String applicationId, String index) {
+		return instance -> applicationId.equals(instance.getMetadata().get(APPLICATION_ID))
+				&& index.equals(instance.getMetadata().get(INSTANCE_ID));
+	}
+
+	@Override
+	public void destroy() {
+		this.streams.values().forEach(Disposable::dispose);
+		this.streams.clear();
+	}
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.net.URI;
+import java.util.AbstractMap;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import org.cloudfoundry.operations.applications.ApplicationDetail;
+import org.cloudfoundry.operations.applications.InstanceDetail;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+/**
+ * Immutable {@link ServiceInstance} of a running Cloud Foundry application instance, kept
+ * small since discovery may cache many thousands of them. The service id, application id,
+ * index and host are interned, so that the instances of an application, and the snapshots
+ * that replace each other on every refresh, share the same strings. The
+ * {@code applicationId} and {@code instanceId} metadata is a read-only view of those
+ * fields rather than a map of its own.
+ */
+public final class CloudFoundryServiceInstance implements ServiceInstance {
+
+	private static final String APPLICATION_ID = "applicationId";
+
+	private static final String INSTANCE_ID = "instanceId";
+
+	private final String serviceId;
+
+	private final String applicationId;
+
+	private final String index;
+
+	private final String host;
+
+	private final int port;
+
+	private final boolean secure;
+
+	private final String instanceId;
+
+	private final Map<String, String> metadata = new Metadata();
+
+	private CloudFoundryServiceInstance(String serviceId, String applicationId, String index, String host, int port,
+			boolean secure, String instanceId) {
+		this.serviceId = intern(serviceId);
+		this.applicationId = intern(applicationId);
+		this.index = intern(index);
+		this.host = intern(host);
+		this.port = port;
+		this.secure = secure;
+		this.instanceId = intern(instanceId);
+	}
+
+	/**
+	 * Creates the service instance of a running application instance, reached through the
+	 * first route of the application.
+	 * @param application the application
+	 * @param instance the running instance
+	 * @return the service instance, identified by the application id and instance index
+	 */
+	public static CloudFoundryServiceInstance of(ApplicationDetail application, InstanceDetail instance) {
+		String url = application.getUrls().isEmpty() ? null : application.getUrls().get(0);
+		boolean secure = url != null && url.regionMatches(true, 0, "https", 0, 5);
+		return new CloudFoundryServiceInstance(application.getName(), application.getId(), instance.getIndex(), url,
+				secure ? 443 : 80, secure, application.getId() + "." + instance.getIndex());
+	}
+
+	/**
+	 * Creates the service instance of a running application instance, reached directly
+	 * through the instance-specific hostname of an internal route.
+	 * @param application the application
+	 * @param instance the running instance
+	 * @param route the internal route of the application
+	 * @param port the container port and scheme of the instance
+	 * @return the service instance, without an instance id
+	 */
+	public static CloudFoundryServiceInstance ofInternalRoute(ApplicationDetail application, InstanceDetail instance,
+			String route, CloudFoundryDiscoveryProperties.ServicePort port) {
+		return new CloudFoundryServiceInstance(application.getName(), application.getId(), instance.getIndex(),
+				instance.getIndex() + "." + route, port.getPort(), port.isSecure(), null);
+	}
+
+	/**
+	 * Recreates a service instance from its fields, such as those of a persisted
+	 * snapshot.
+	 * @param serviceId the service id
+	 * @param instanceId the instance id, or {@code null}
+	 * @param applicationId the application id
+	 * @param index the index of the application instance
+	 * @param host the host
+	 * @param port the port
+	 * @param secure whether the instance is reached over https
+	 * @return the service instance
+	 */
+	static CloudFoundryServiceInstance of(String serviceId, String instanceId, String applicationId, String index,
+			String host, int port, boolean secure) {
+		return new CloudFoundryServiceInstance(serviceId, applicationId, index, host, port, secure, instanceId);
+	}
+
+	/**
+	 * Returns the canonical representation of a string. The JVM string table holds its
+	 * entries weakly, so the strings of applications that are gone can be collected.
+	 */
+	private static String intern(String value) {
+		return (value != null) ? value.intern() : null;
+	}
+
+	@Override
+	public String getInstanceId() {
+		return this.instanceId;
+	}
+
+	@Override
+	public String getServiceId() {
+		return this.serviceId;
+	}
+
+	@Override
+	public String getHost() {
+		return this.host;
+	}
+
+	@Override
+	public int getPort() {
+		return this.port;
+	}
+
+	@Override
+	public boolean isSecure() {
+		return this.secure;
+	}
+
+	@Override
+	public URI getUri() {
+		return DefaultServiceInstance.getUri(this);
+	}
+
+	@Override
+	public Map<String, String> getMetadata() {
+		return this.metadata;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof CloudFoundryServiceInstance)) {
+			return false;
+		}
+		CloudFoundryServiceInstance that = (CloudFoundryServiceInstance) other;
+		return this.port == that.port && this.secure == that.secure && Objects.equals(this.instanceId, that.instanceId)
+				&& Objects.equals(this.serviceId, that.serviceId)
+				&& Objects.equals(this.applicationId, that.applicationId) && Objects.equals(this.index, that.index)
+				&& Objects.equals(this.host, that.host);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(this.serviceId, this.applicationId, this.index, this.host, this.port, this.secure);
+	}
+
+	@Override
+	public String toString() {
+		return "CloudFoundryServiceInstance{instanceId='" + this.instanceId + "', serviceId='" + this.serviceId
+				+ "', host='" + this.host + "', port=" + this.port + ", secure=" + this.secure + ", metadata="
+				+ this.metadata + "}";
+	}
+
+	/**
+	 * Read-only view of the metadata of the instance.
+	 */
+	private final class Metadata extends AbstractMap<String, String> {
+
+		@Override
+		public String get(Object key) {
+			if (APPLICATION_ID.equals(key)) {
+				return CloudFoundryServiceInstance.this.applicationId;
+			}
+			return INSTANCE_ID.equals(key) ? CloudFoundryServiceInstance.this.index : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return APPLICATION_ID.equals(key) || INSTANCE_ID.equals(key);
+		}
+
+		@Override
+		public int size() {
+			return 2;
+		}
+
+		@Override
+		public void forEach(BiConsumer<? super String, ? super String> action) {
+			action.accept(APPLICATION_ID, CloudFoundryServiceInstance.this.applicationId);
+			action.accept(INSTANCE_ID, CloudFoundryServiceInstance.this.index);
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return new EntrySet();
+		}
+
+	}
+
+	/**
+	 * Fixed view of the two metadata entries, read from the fields of the instance.
+	 */
+	private final class EntrySet extends AbstractSet<Entry<String, String>> {
+
+		@Override
+		public int size() {
+			return 2;
+		}
+
+		@Override
+		public Iterator<Entry<String, String>> iterator() {
+			return new Iterator<Entry<String, String>>() {
+
+				private int next;
+
+				@Override
+				public boolean hasNext() {
+					return this.next < 2;
+				}
+
+				@Override
+				public Entry<String, String> next() {
+					switch (this.next++) {
+					case 0:
+						return new SimpleImmutableEntry<>(APPLICATION_ID,
+								CloudFoundryServiceInstance.this.applicationId);
+					case 1:
+						return new SimpleImmutableEntry<>(INSTANCE_ID, CloudFoundryServiceInstance.this.index);
+					default:
+						throw new NoSuchElementException();
+					}
+				}
+
+			};
+		}
+
+	}
+
+}
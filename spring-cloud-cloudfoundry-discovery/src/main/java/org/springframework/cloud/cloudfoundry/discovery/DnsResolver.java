@@ -0,0 +1,370 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.DefaultDnsQuestion;
+import io.netty.handler.codec.dns.DefaultDnsRecordDecoder;
+import io.netty.handler.codec.dns.DnsRawRecord;
+import io.netty.handler.codec.dns.DnsRecord;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.resolver.ResolvedAddressTypes;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.DnsNameResolverTimeoutException;
+import io.netty.resolver.dns.NoopDnsCache;
+import io.netty.resolver.dns.SequentialDnsServerAddressStreamProvider;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.cloudfoundry.CloudFoundryFlightRecorder;
+import org.springframework.util.StringUtils;
+
+/**
+ * Non-blocking DNS resolver used by the DNS based discovery clients. Queries are sent
+ * from a dedicated event loop so that no caller thread waits for a DNS response, and the
+ * number of queries in flight is bounded; excess queries wait for a free slot.
+ * <p>
+ * Answers are cached for the TTL of their records, bounded by the configured minimum and
+ * maximum, and unknown hosts for the configured negative TTL. An entry that is used after
+ * most of its TTL has elapsed is refreshed in the background, so that a name which is
+ * looked up regularly is always served from the cache. SRV and TXT records are cached the
+ * same way as addresses.
+ */
+public class DnsResolver implements DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(DnsResolver.class);
+
+	private static final int DEFAULT_DNS_PORT = 53;
+
+	private static final double REFRESH_AHEAD_RATIO = 0.8;
+
+	private final EventLoopGroup eventLoopGroup;
+
+	private final DnsNameResolver resolver;
+
+	private final Semaphore permits;
+
+	private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+	private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+	private final long minTtl;
+
+	private final long maxTtl;
+
+	private final long negativeTtl;
+
+	private final Clock clock;
+
+	public DnsResolver(CloudFoundryDiscoveryProperties.Dns properties) {
+		this(properties, Clock.systemUTC());
+	}
+
+	DnsResolver(CloudFoundryDiscoveryProperties.Dns properties, Clock clock) {
+		this.eventLoopGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("cloudfoundry-dns", true));
+		DnsNameResolverBuilder builder = new DnsNameResolverBuilder(this.eventLoopGroup.next())
+				.channelType(NioDatagramChannel.class).queryTimeoutMillis(properties.getQueryTimeout().toMillis())
+				.resolvedAddressTypes(ResolvedAddressTypes.IPV4_PREFERRED).searchDomains(Collections.emptyList())
+				.resolveCache(NoopDnsCache.INSTANCE);
+		if (!properties.getNameservers().isEmpty()) {
+			builder.nameServerProvider(new SequentialDnsServerAddressStreamProvider(properties.getNameservers().stream()
+					.map(DnsResolver::toSocketAddress).collect(Collectors.toList())));
+		}
+		this.resolver = builder.build();
+		this.permits = new Semaphore(properties.getMaxConcurrentQueries());
+		this.minTtl = properties.getMinTtl().toMillis();
+		this.maxTtl = properties.getMaxTtl().toMillis();
+		this.negativeTtl = properties.getNegativeTtl().toMillis();
+		this.clock = clock;
+	}
+
+	/**
+	 * Resolves all the IPv4 addresses of a hostname.
+	 * @param hostname the hostname to resolve
+	 * @return the addresses of the hostname, or an {@link UnknownHostException} if it
+	 * does not exist
+	 */
+	public Mono<List<InetAddress>> resolveAll(String hostname) {
+		return lookup(hostname, DnsRecordType.A, record -> {
+			try {
+				return InetAddress.getByAddress(hostname, ByteBufUtil.getBytes(record.content()));
+			}
+			catch (UnknownHostException ex) {
+				throw new IllegalStateException(ex);
+			}
+		});
+	}
+
+	/**
+	 * Resolves the SRV records of a name.
+	 * @param name the name to look up
+	 * @return the SRV records of the name, or an {@link UnknownHostException} if it has
+	 * none
+	 */
+	public Mono<List<SrvRecord>> resolveSrv(String name) {
+		return lookup(name, DnsRecordType.SRV, record -> {
+			ByteBuf content = record.content().duplicate();
+			int priority = content.readUnsignedShort();
+			int weight = content.readUnsignedShort();
+			int port = content.readUnsignedShort();
+			return new SrvRecord(priority, weight, port, stripTrailingDot(DefaultDnsRecordDecoder.decodeName(content)));
+		});
+	}
+
+	/**
+	 * Resolves the TXT records of a name. The character strings of each record are
+	 * returned separately.
+	 * @param name the name to look up
+	 * @return the character strings of the TXT records of the name, or an
+	 * {@link UnknownHostException} if it has none
+	 */
+	public Mono<List<String>> resolveTxt(String name) {
+		return lookup(name, DnsRecordType.TXT, record -> {
+			ByteBuf content = record.content().duplicate();
+			List<String> strings = new ArrayList<>();
+			while (content.isReadable()) {
+				int length = content.readUnsignedByte();
+				strings.add(content.readCharSequence(length, StandardCharsets.UTF_8).toString());
+			}
+			return strings;
+		}).map(records -> records.stream().flatMap(List::stream).collect(Collectors.toList()));
+	}
+
+	@Override
+	public void destroy() {
+		this.resolver.close();
+		this.eventLoopGroup.shutdownGracefully();
+	}
+
+	private <T> Mono<List<T>> lookup(String name, DnsRecordType type, Function<DnsRawRecord, T> decoder) {
+		String key = type.name() + " " + name;
+		return Mono.defer(() -> {
+			Entry entry = this.cache.get(key);
+			long now = this.clock.millis();
+			if (entry == null || now >= entry.expiresAt) {
+				return CloudFoundryFlightRecorder.record(this, type.name(), name, false,
+						query(key, name, type, decoder).flatMap(answer -> values(answer, name)), List::size);
+			}
+			if (now >= entry.refreshAt && entry.refreshing.compareAndSet(false, true)) {
+				Entry refreshed = entry;
+				query(key, name, type, decoder).doFinally(signal -> refreshed.refreshing.set(false))
+						.subscribe(fresh -> {
+						}, error -> log.debug("Failed to refresh DNS entry for {}: {}", name, error.toString()));
+			}
+			return CloudFoundryFlightRecorder.record(this, type.name(), name, true, values(entry, name), List::size);
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Mono<List<T>> values(Entry entry, String name) {
+		return entry.values != null ? Mono.just((List<T>) entry.values) : Mono.error(new UnknownHostException(name));
+	}
+
+	private <T> Mono<Entry> query(String key, String name, DnsRecordType type, Function<DnsRawRecord, T> decoder) {
+		return limit(() -> toMono(this.resolver.resolveAll(new DefaultDnsQuestion(name, type))))
+				.map(records -> answer(records, type, decoder))
+				.onErrorResume(UnknownHostException.class,
+						ex -> isTimeout(ex) ? Mono.error(ex) : Mono.just(negativeAnswer()))
+				.doOnNext(entry -> this.cache.put(key, entry));
+	}
+
+	private <T> Entry answer(List<DnsRecord> records, DnsRecordType type, Function<DnsRawRecord, T> decoder) {
+		try {
+			List<T> values = new ArrayList<>(records.size());
+			long ttl = Long.MAX_VALUE;
+			for (DnsRecord record : records) {
+				if (record.type() == type && record instanceof DnsRawRecord) {
+					values.add(decoder.apply((DnsRawRecord) record));
+					ttl = Math.min(ttl, record.timeToLive() * 1000);
+				}
+			}
+			if (values.isEmpty()) {
+				return negativeAnswer();
+			}
+			return newEntry(Collections.unmodifiableList(values), Math.max(this.minTtl, Math.min(this.maxTtl, ttl)));
+		}
+		finally {
+			records.forEach(ReferenceCountUtil::release);
+		}
+	}
+
+	private Entry negativeAnswer() {
+		return newEntry(null, this.negativeTtl);
+	}
+
+	private Entry newEntry(List<?> values, long ttl) {
+		long now = this.clock.millis();
+		return new Entry(values, now + ttl, now + (long) (ttl * REFRESH_AHEAD_RATIO));
+	}
+
+	private static boolean isTimeout(Throwable ex) {
+		for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+			if (cause instanceof DnsNameResolverTimeoutException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs a query once a slot is free. A caller that cancels before then withdraws its
+	 * query, and one that cancels later disposes of it, freeing its slot.
+	 */
+	<T> Mono<T> limit(Supplier<Mono<T>> query) {
+		return Mono.create(sink -> {
+			Disposable.Swap subscription = Disposables.swap();
+			Runnable task = () -> subscription.update(query.get().doFinally(signal -> {
+				this.permits.release();
+				drain();
+			}).subscribe(sink::success, sink::error, sink::success));
+			sink.onCancel(() -> {
+				this.pending.remove(task);
+				subscription.dispose();
+			});
+			this.pending.offer(task);
+			drain();
+		});
+	}
+
+	private void drain() {
+		while (!this.pending.isEmpty() && this.permits.tryAcquire()) {
+			Runnable query = this.pending.poll();
+			if (query == null) {
+				this.permits.release();
+				return;
+			}
+			query.run();
+		}
+	}
+
+	private static <T> Mono<T> toMono(Future<T> future) {
+		return Mono.create(sink -> future.addListener(f -> {
+			if (f.isSuccess()) {
+				sink.success(future.getNow());
+			}
+			else {
+				sink.error(f.cause());
+			}
+		}));
+	}
+
+	private static String stripTrailingDot(String name) {
+		return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+	}
+
+	static InetSocketAddress toSocketAddress(String value) {
+		String nameserver = StringUtils.trimAllWhitespace(value);
+		int separator = nameserver.lastIndexOf(':');
+		if (separator > 0 && nameserver.indexOf(':') == separator) {
+			return new InetSocketAddress(nameserver.substring(0, separator),
+					Integer.parseInt(nameserver.substring(separator + 1)));
+		}
+		return new InetSocketAddress(nameserver, DEFAULT_DNS_PORT);
+	}
+
+	/**
+	 * A DNS SRV record, giving the host and port of a service instance.
+	 */
+	public static final class SrvRecord {
+
+		private final int priority;
+
+		private final int weight;
+
+		private final int port;
+
+		private final String target;
+
+		public SrvRecord(int priority, int weight, int port, String target) {
+			this.priority = priority;
+			this.weight = weight;
+			this.port = port;
+			this.target = target;
+		}
+
+		public int getPriority() {
+			return this.priority;
+		}
+
+		public int getWeight() {
+			return this.weight;
+		}
+
+		public int getPort() {
+			return this.port;
+		}
+
+		public String getTarget() {
+			return this.target;
+		}
+
+		@Override
+		public String toString() {
+			return this.priority + " " + this.weight + " " + this.port + " " + this.target;
+		}
+
+	}
+
+	private static final class Entry {
+
+		private final List<?> values;
+
+		private final long expiresAt;
+
+		private final long refreshAt;
+
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+
+		private Entry(List<?> values, long expiresAt, long refreshAt) {
+			this.values = values;
+			this.expiresAt = expiresAt;
+			this.refreshAt = refreshAt;
+		}
+
+	}
+
+}
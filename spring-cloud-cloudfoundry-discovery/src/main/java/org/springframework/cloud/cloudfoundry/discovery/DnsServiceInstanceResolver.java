@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.cloudfoundry.CloudFoundryFlightRecorder;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestListener;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryDiscoveryProperties.ServicePort;
+import org.springframework.cloud.cloudfoundry.discovery.DnsResolver.SrvRecord;
+
+/**
+ * Resolves the instances of a service for the DNS based discovery clients. Each address
+ * of the service hostname is an instance listening on the port configured for the
+ * service.
+ * <p>
+ * When SRV lookups are enabled, the SRV records of the hostname give the host and port of
+ * each instance instead. The TXT records of the hostname are read as {@code key=value}
+ * attributes: {@code scheme=https} marks the instances as secure, and all attributes are
+ * added to the instance metadata.
+ */
+public class DnsServiceInstanceResolver {
+
+	private static final Logger log = LoggerFactory.getLogger(DnsServiceInstanceResolver.class);
+
+	private static final Comparator<SrvRecord> SRV_ORDER = Comparator.comparingInt(SrvRecord::getPriority)
+			.thenComparing(Comparator.comparingInt(SrvRecord::getWeight).reversed());
+
+	private final DnsResolver dnsResolver;
+
+	private final CloudFoundryDiscoveryProperties properties;
+
+	private CloudFoundryRequestListener requestListener = CloudFoundryRequestListener.NONE;
+
+	public DnsServiceInstanceResolver(DnsResolver dnsResolver, CloudFoundryDiscoveryProperties properties) {
+		this.dnsResolver = dnsResolver;
+		this.properties = properties;
+	}
+
+	/**
+	 * Resolves the instances of a service.
+	 * @param serviceId the service id
+	 * @param hostname the hostname of the service
+	 * @return the instances of the service, empty if the hostname does not exist
+	 */
+	public Flux<ServiceInstance> getInstances(String serviceId, String hostname) {
+		Flux<ServiceInstance> instances = this.requestListener.observe(CloudFoundryRequestListener.RESOLVE, serviceId,
+				resolveInstances(serviceId, hostname));
+		return CloudFoundryFlightRecorder.record(this, CloudFoundryRequestListener.RESOLVE, serviceId, instances);
+	}
+
+	private Flux<ServiceInstance> resolveInstances(String serviceId, String hostname) {
+		if (!this.properties.getDns().isSrvLookup()) {
+			return addressInstances(serviceId, hostname, Collections.emptyMap());
+		}
+		return attributes(hostname).flatMapMany(attributes -> this.dnsResolver.resolveSrv(hostname)
+				.flatMapMany(records -> srvInstances(serviceId, records, attributes))
+				.onErrorResume(UnknownHostException.class, e -> addressInstances(serviceId, hostname, attributes)));
+	}
+
+	/**
+	 * Sets the listener notified of the DNS requests made to resolve the instances of a
+	 * service.
+	 * @param requestListener the listener
+	 */
+	public void setRequestListener(CloudFoundryRequestListener requestListener) {
+		this.requestListener = requestListener;
+	}
+
+	private Flux<ServiceInstance> srvInstances(String serviceId, List<SrvRecord> records,
+			Map<String, String> attributes) {
+		boolean secure = isSecure(this.properties.getServicePort(serviceId), attributes);
+		return Flux.fromIterable(records).sort(SRV_ORDER).concatMap(record -> addresses(record.getTarget())
+				.map(address -> instance(serviceId, address, record.getPort(), secure, attributes)));
+	}
+
+	private Flux<ServiceInstance> addressInstances(String serviceId, String hostname, Map<String, String> attributes) {
+		ServicePort servicePort = this.properties.getServicePort(serviceId);
+		boolean secure = isSecure(servicePort, attributes);
+		return addresses(hostname)
+				.map(address -> instance(serviceId, address, servicePort.getPort(), secure, attributes));
+	}
+
+	private Flux<InetAddress> addresses(String hostname) {
+		return this.dnsResolver.resolveAll(hostname).flatMapIterable(addresses -> addresses)
+				.onErrorResume(UnknownHostException.class, e -> {
+					log.warn("{}", e.getMessage());
+					return Flux.empty();
+				});
+	}
+
+	private Mono<Map<String, String>> attributes(String hostname) {
+		return this.dnsResolver.resolveTxt(hostname).map(DnsServiceInstanceResolver::parseAttributes)
+				.onErrorResume(e -> {
+					log.debug("No TXT attributes for {}: {}", hostname, e.toString());
+					return Mono.just(Collections.emptyMap());
+				});
+	}
+
+	static Map<String, String> parseAttributes(List<String> strings) {
+		Map<String, String> attributes = new LinkedHashMap<>();
+		for (String string : strings) {
+			int separator = string.indexOf('=');
+			if (separator > 0) {
+				attributes.put(string.substring(0, separator), string.substring(separator + 1));
+			}
+		}
+		return attributes;
+	}
+
+	private static boolean isSecure(ServicePort servicePort, Map<String, String> attributes) {
+		String scheme = attributes.get("scheme");
+		return scheme != null ? "https".equalsIgnoreCase(scheme) : servicePort.isSecure();
+	}
+
+	private static ServiceInstance instance(String serviceId, InetAddress address, int port, boolean secure,
+			Map<String, String> attributes) {
+		return new DefaultServiceInstance(null, serviceId, address.getHostAddress(), port, secure,
+				new LinkedHashMap<>(attributes));
+	}
+
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.cloudfoundry.CloudFoundryFlightRecorder;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestThrottle;
+
+/**
+ * Per service id snapshot of {@link ServiceInstance service instances} that follows a
+ * stale-while-revalidate policy: a cached snapshot is always returned immediately and,
+ * once it is older than the configured time to live, a single background refresh is
+ * triggered to replace it.
+ * <p>
+ * A snapshot older than the maximum staleness, such as that of a service nobody looked up
+ * for a while, is reloaded before it is served again. While the Cloud Controller cannot
+ * be reached, because its requests fail or the circuit breaker is open, snapshots are
+ * served whatever their age: a snapshot is only dropped once a refresh finds the
+ * application gone.
+ */
+public class ServiceInstanceCache {
+
+	private static final Logger log = LoggerFactory.getLogger(ServiceInstanceCache.class);
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private final Function<String, Mono<List<ServiceInstance>>> loader;
+
+	private final Supplier<Mono<Map<String, List<ServiceInstance>>>> catalogLoader;
+
+	private final Duration ttl;
+
+	private final Clock clock;
+
+	private volatile Duration maxStaleness = Duration.ZERO;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder refreshes = new LongAdder();
+
+	public ServiceInstanceCache(Function<String, Mono<List<ServiceInstance>>> loader, Duration ttl) {
+		this(loader, ttl, Clock.systemUTC());
+	}
+
+	ServiceInstanceCache(Function<String, Mono<List<ServiceInstance>>> loader, Duration ttl, Clock clock) {
+		this.loader = loader;
+		this.catalogLoader = null;
+		this.ttl = ttl;
+		this.clock = clock;
+	}
+
+	private ServiceInstanceCache(Supplier<Mono<Map<String, List<ServiceInstance>>>> catalogLoader, Duration ttl,
+			Clock clock) {
+		this.loader = serviceId -> catalogLoader.get().doOnNext(this::putAll)
+				.map(catalog -> catalog.getOrDefault(serviceId, Collections.emptyList()));
+		this.catalogLoader = catalogLoader;
+		this.ttl = ttl;
+		this.clock = clock;
+	}
+
+	/**
+	 * Creates a cache that loads the instances of every service at once. A miss or a
+	 * refresh for any service reloads the whole catalog and replaces the snapshot of
+	 * every service in it.
+	 * @param catalogLoader loads the instances of every service, by service id
+	 * @param ttl age after which a snapshot is refreshed
+	 * @return the cache
+	 */
+	public static ServiceInstanceCache ofCatalog(Supplier<Mono<Map<String, List<ServiceInstance>>>> catalogLoader,
+			Duration ttl) {
+		return ofCatalog(catalogLoader, ttl, Clock.systemUTC());
+	}
+
+	static ServiceInstanceCache ofCatalog(Supplier<Mono<Map<String, List<ServiceInstance>>>> catalogLoader,
+			Duration ttl, Clock clock) {
+		return new ServiceInstanceCache(catalogLoader, ttl, clock);
+	}
+
+	/**
+	 * Returns the instances of the given service. A miss loads the instances and caches
+	 * the result; a hit is served from the snapshot and schedules a refresh if the
+	 * snapshot is stale.
+	 * @param serviceId the service id to look up
+	 * @return the (possibly stale) instances of the service
+	 */
+	public Mono<List<ServiceInstance>> get(String serviceId) {
+		List<ServiceInstance> instances = getIfPresent(serviceId);
+		if (instances != null) {
+			return Mono.just(instances);
+		}
+		this.misses.increment();
+		return CloudFoundryFlightRecorder.record(this, CloudFoundryDiscoveryLookupListener.INSTANCES, serviceId, false,
+				load(serviceId).onErrorResume(error -> {
+					Entry entry = this.entries.get(serviceId);
+					return (entry != null && onLoadFailure(serviceId, entry, error)) ? Mono.just(entry.instances)
+							: Mono.error(error);
+				}), List::size);
+	}
+
+	/**
+	 * Returns the cached instances of the given service, or {@code null} on a miss, which
+	 * is left for {@link #get(String)} to load. A stale snapshot is served and refreshed
+	 * as it is by {@link #get(String)}, and one older than the maximum staleness is a
+	 * miss unless its last refresh failed. The snapshot is an immutable list built when
+	 * it was loaded, so a hit allocates nothing.
+	 * @param serviceId the service id to look up
+	 * @return the (possibly stale) instances of the service, or {@code null}
+	 */
+	public List<ServiceInstance> getIfPresent(String serviceId) {
+		Entry entry = this.entries.get(serviceId);
+		if (entry == null) {
+			return null;
+		}
+		if (isExpired(entry)) {
+			log.debug("Reloading the instances of '{}' older than the maximum staleness", serviceId);
+			return null;
+		}
+		this.hits.increment();
+		if (isStale(entry)) {
+			refresh(serviceId, entry);
+		}
+		CloudFoundryFlightRecorder.recordHit(this, CloudFoundryDiscoveryLookupListener.INSTANCES, serviceId,
+				entry.instances.size());
+		return entry.instances;
+	}
+
+	/**
+	 * Sets the age after which a snapshot is reloaded before it is served, unless the
+	 * Cloud Controller could not be reached for its last refresh. A zero or negative
+	 * duration serves snapshots whatever their age.
+	 * @param maxStaleness the maximum age of a served snapshot
+	 */
+	public void setMaxStaleness(Duration maxStaleness) {
+		this.maxStaleness = maxStaleness;
+	}
+
+	public Duration getMaxStaleness() {
+		return this.maxStaleness;
+	}
+
+	/**
+	 * Returns the instances of several services, as {@link #get(String)} does for each of
+	 * them. Misses are loaded at most {@code concurrency} at a time, or with a single
+	 * load of the whole catalog if the cache loads every service at once.
+	 * @param serviceIds the service ids to look up
+	 * @param concurrency the maximum number of services to load in parallel
+	 * @return the (possibly stale) instances of each service, by service id
+	 */
+	public Mono<Map<String, List<ServiceInstance>>> getAll(Collection<String> serviceIds, int concurrency) {
+		Set<String> distinctIds = new LinkedHashSet<>(serviceIds);
+		if (this.catalogLoader != null && !this.entries.keySet().containsAll(distinctIds)) {
+			return Mono.defer(() -> loadAll(distinctIds));
+		}
+		return Flux.fromIterable(distinctIds)
+				.flatMap(serviceId -> get(serviceId).map(instances -> Tuples.of(serviceId, instances)), concurrency)
+				.collectMap(Tuple2::getT1, Tuple2::getT2, LinkedHashMap::new);
+	}
+
+	private Mono<Map<String, List<ServiceInstance>>> loadAll(Set<String> serviceIds) {
+		serviceIds.forEach(serviceId -> (this.entries.containsKey(serviceId) ? this.hits : this.misses).increment());
+		return this.catalogLoader.get().map(catalog -> {
+			putAll(catalog);
+			Map<String, List<ServiceInstance>> instances = new LinkedHashMap<>();
+			for (String serviceId : serviceIds) {
+				instances.put(serviceId, catalog.getOrDefault(serviceId, Collections.emptyList()));
+			}
+			putAll(instances);
+			return instances;
+		});
+	}
+
+	/**
+	 * Replaces the snapshots of several services at once.
+	 * @param snapshots the instances of each service, by service id
+	 */
+	public void putAll(Map<String, List<ServiceInstance>> snapshots) {
+		long now = this.clock.millis();
+		snapshots.forEach((serviceId, instances) -> this.entries.put(serviceId, new Entry(instances, now)));
+	}
+
+	/**
+	 * Restores snapshots taken earlier, such as those persisted before a restart, for the
+	 * services that are not cached yet. Restored snapshots older than the time to live
+	 * are served and refreshed like any other stale snapshot.
+	 * @param snapshots the time each snapshot was loaded and its instances, by service id
+	 */
+	public void restore(Map<String, Tuple2<Instant, List<ServiceInstance>>> snapshots) {
+		long now = this.clock.millis();
+		snapshots.forEach((serviceId, snapshot) -> this.entries.putIfAbsent(serviceId,
+				new Entry(snapshot.getT2(), Math.min(snapshot.getT1().toEpochMilli(), now))));
+	}
+
+	/**
+	 * Removes the matching instances from the snapshot of a service, ahead of the next
+	 * refresh.
+	 * @param serviceId the service id
+	 * @param predicate selects the instances to remove
+	 * @return the removed instances
+	 */
+	public List<ServiceInstance> evict(String serviceId, Predicate<ServiceInstance> predicate) {
+		List<ServiceInstance> evicted = new ArrayList<>();
+		this.entries.computeIfPresent(serviceId, (id, entry) -> {
+			List<ServiceInstance> remaining = new ArrayList<>(entry.instances.size());
+			for (ServiceInstance instance : entry.instances) {
+				(predicate.test(instance) ? evicted : remaining).add(instance);
+			}
+			return evicted.isEmpty() ? entry : new Entry(remaining, entry);
+		});
+		return evicted;
+	}
+
+	/**
+	 * Adds an instance to the snapshot of a service, ahead of the next refresh. Nothing
+	 * is added if the service is not cached or the snapshot already has a matching
+	 * instance.
+	 * @param serviceId the service id
+	 * @param instance the instance to add
+	 * @param existing selects the instances that stand for the same instance
+	 */
+	public void add(String serviceId, ServiceInstance instance, Predicate<ServiceInstance> existing) {
+		this.entries.computeIfPresent(serviceId, (id, entry) -> {
+			if (entry.instances.stream().anyMatch(existing)) {
+				return entry;
+			}
+			List<ServiceInstance> instances = new ArrayList<>(entry.instances);
+			instances.add(instance);
+			return new Entry(instances, entry);
+		});
+	}
+
+	/**
+	 * Refreshes the snapshot of a service in the background, whatever its age. Nothing is
+	 * done if the service is not cached.
+	 * @param serviceId the service id
+	 */
+	public void refresh(String serviceId) {
+		Entry entry = this.entries.get(serviceId);
+		if (entry != null) {
+			refresh(serviceId, entry);
+		}
+	}
+
+	/**
+	 * Refreshes the snapshot of every cached service in the background, with a single
+	 * load of the whole catalog if the cache loads every service at once.
+	 */
+	public void refreshAll() {
+		if (this.catalogLoader != null) {
+			this.entries.keySet().stream().findFirst().ifPresent(this::refresh);
+		}
+		else {
+			this.entries.keySet().forEach(this::refresh);
+		}
+	}
+
+	/**
+	 * Returns the cached instances of every service.
+	 * @return the instances of each cached service, by service id
+	 */
+	public Map<String, List<ServiceInstance>> snapshot() {
+		Map<String, List<ServiceInstance>> snapshot = new LinkedHashMap<>();
+		this.entries.forEach((serviceId, entry) -> snapshot.put(serviceId, entry.instances));
+		return snapshot;
+	}
+
+	/**
+	 * Returns the cached instances of every service, with the time they were loaded.
+	 * @return the time each snapshot was loaded and its instances, by service id
+	 */
+	public Map<String, Tuple2<Instant, List<ServiceInstance>>> timedSnapshot() {
+		Map<String, Tuple2<Instant, List<ServiceInstance>>> snapshot = new LinkedHashMap<>();
+		this.entries.forEach((serviceId, entry) -> snapshot.put(serviceId,
+				Tuples.of(Instant.ofEpochMilli(entry.loadedAt), entry.instances)));
+		return snapshot;
+	}
+
+	/**
+	 * Discards every cached snapshot.
+	 */
+	public void clear() {
+		this.entries.clear();
+	}
+
+	public int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Returns the age of the oldest snapshot in the cache.
+	 * @return the age of the oldest snapshot, or zero if the cache is empty
+	 */
+	public Duration getSnapshotAge() {
+		long now = this.clock.millis();
+		long oldest = now;
+		for (Entry entry : this.entries.values()) {
+			oldest = Math.min(oldest, entry.loadedAt);
+		}
+		return Duration.ofMillis(now - oldest);
+	}
+
+	public long getHitCount() {
+		return this.hits.sum();
+	}
+
+	public long getMissCount() {
+		return this.misses.sum();
+	}
+
+	public long getRefreshCount() {
+		return this.refreshes.sum();
+	}
+
+	private boolean isStale(Entry entry) {
+		return this.clock.millis() - entry.loadedAt >= this.ttl.toMillis();
+	}
+
+	private boolean isExpired(Entry entry) {
+		long maxStaleness = this.maxStaleness.toMillis();
+		return maxStaleness > 0 && !entry.unreachable.get() && this.clock.millis() - entry.loadedAt >= maxStaleness;
+	}
+
+	private void refresh(String serviceId, Entry entry) {
+		if (!entry.refreshing.compareAndSet(false, true)) {
+			return;
+		}
+		this.refreshes.increment();
+		load(serviceId).doFinally(signal -> entry.refreshing.set(false))
+				.contextWrite(CloudFoundryRequestThrottle.background()).subscribe(instances -> {
+				}, error -> onLoadFailure(serviceId, entry, error));
+	}
+
+	/**
+	 * Handles a failure to reload the snapshot of a service. The snapshot is dropped if
+	 * the application is gone, and kept whatever its age otherwise.
+	 * @return whether the snapshot is kept
+	 */
+	private boolean onLoadFailure(String serviceId, Entry entry, Throwable error) {
+		if (error instanceof IllegalArgumentException) {
+			log.info("Dropping the instances of '{}': {}", serviceId, error.getMessage());
+			this.entries.computeIfPresent(serviceId,
+					(id, current) -> (current.refreshing == entry.refreshing) ? null : current);
+			return false;
+		}
+		log.warn("Failed to refresh instances of '{}': {}", serviceId, error.getMessage());
+		entry.unreachable.set(true);
+		return true;
+	}
+
+	private Mono<List<ServiceInstance>> load(String serviceId) {
+		return this.loader.apply(serviceId).map(instances -> {
+			Entry entry = new Entry(instances, this.clock.millis());
+			this.entries.put(serviceId, entry);
+			return entry.instances;
+		});
+	}
+
+	private static final class Entry {
+
+		private final List<ServiceInstance> instances;
+
+		private final long loadedAt;
+
+		private final AtomicBoolean refreshing;
+
+		/**
+		 * Whether the last reload failed for a reason other than the application being
+		 * gone, in which case the snapshot is served whatever its age.
+		 */
+		private final AtomicBoolean unreachable;
+
+		private Entry(List<ServiceInstance> instances, long loadedAt) {
+			this(instances, loadedAt, new AtomicBoolean(), new AtomicBoolean());
+		}
+
+		private Entry(List<ServiceInstance> instances, Entry previous) {
+			this(instances, previous.loadedAt, previous.refreshing, previous.unreachable);
+		}
+
+		private Entry(List<ServiceInstance> instances, long loadedAt, AtomicBoolean refreshing,
+				AtomicBoolean unreachable) {
+			this.instances = Collections.unmodifiableList(instances);
+			this.loadedAt = loadedAt;
+			this.refreshing = refreshing;
+			this.unreachable = unreachable;
+		}
+
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Exposes the hit, miss and refresh counts, the size and the age of the oldest snapshot
+ * of a {@link ServiceInstanceCache} as Micrometer meters.
+ */
+public class ServiceInstanceCacheMetrics implements MeterBinder {
+
+	private final ServiceInstanceCache cache;
+
+	public ServiceInstanceCacheMetrics(ServiceInstanceCache cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("cloudfoundry.discovery.cache.requests", this.cache, ServiceInstanceCache::getHitCount)
+				.tag("result", "hit").description("Number of instance lookups served from the cache")
+				.register(registry);
+		FunctionCounter.builder("cloudfoundry.discovery.cache.requests", this.cache, ServiceInstanceCache::getMissCount)
+				.tag("result", "miss").description("Number of instance lookups not found in the cache")
+				.register(registry);
+		FunctionCounter
+				.builder("cloudfoundry.discovery.cache.refreshes", this.cache, ServiceInstanceCache::getRefreshCount)
+				.description("Number of background refreshes of stale cache entries").register(registry);
+		Gauge.builder("cloudfoundry.discovery.cache.size", this.cache, ServiceInstanceCache::size)
+				.description("Number of service ids in the cache").register(registry);
+		Gauge.builder("cloudfoundry.discovery.cache.age", this.cache,
+				cache -> cache.getSnapshotAge().toMillis() / 1000.0).baseUnit("seconds")
+				.description("Age of the oldest snapshot in the cache").register(registry);
+	}
+
+}
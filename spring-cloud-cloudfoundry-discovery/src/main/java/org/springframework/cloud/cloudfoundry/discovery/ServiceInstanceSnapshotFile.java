@@ -0,0 +1,302 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.Assert;
+
+/**
+ * Persists the snapshot of a {@link ServiceInstanceCache} to local disk, so that an
+ * application instance that restarts serves lookups at once instead of waiting for the
+ * Cloud Controller. The snapshot is written periodically and on shutdown. At startup, the
+ * instances of each service are restored with the time they were loaded, unless they are
+ * older than the maximum age, which may not exceed the maximum staleness of the cache.
+ * Every restored service is then refreshed in the background.
+ * <p>
+ * The file is binary: a header with a format version, the time each service was loaded
+ * and its instances, and a CRC32 checksum of the whole. It is written to a temporary file
+ * that replaces the previous one atomically, and memory-mapped when read. A file that is
+ * truncated, corrupt or of another version is ignored. Cloud Foundry instances are
+ * restored as {@link CloudFoundryServiceInstance}, like those loaded from the Cloud
+ * Controller.
+ */
+public class ServiceInstanceSnapshotFile implements InitializingBean, DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(ServiceInstanceSnapshotFile.class);
+
+	private static final int MAGIC = 0x43464453;
+
+	private static final byte VERSION = 2;
+
+	private static final String APPLICATION_ID = "applicationId";
+
+	private static final String INSTANCE_ID = "instanceId";
+
+	private final ServiceInstanceCache cache;
+
+	private final Path path;
+
+	private final Duration maxAge;
+
+	private final Clock clock;
+
+	public ServiceInstanceSnapshotFile(ServiceInstanceCache cache,
+			CloudFoundryDiscoveryProperties.Snapshot properties) {
+		this(cache, properties, Clock.systemUTC());
+	}
+
+	ServiceInstanceSnapshotFile(ServiceInstanceCache cache, CloudFoundryDiscoveryProperties.Snapshot properties,
+			Clock clock) {
+		Duration maxStaleness = cache.getMaxStaleness();
+		Assert.isTrue(
+				maxStaleness.isZero() || maxStaleness.isNegative()
+						|| properties.getMaxAge().compareTo(maxStaleness) <= 0,
+				() -> "The maximum age of the discovery snapshot (" + properties.getMaxAge()
+						+ ") must not exceed the maximum staleness of the instance cache (" + maxStaleness + ")");
+		this.cache = cache;
+		this.path = properties.getPath().toPath();
+		this.maxAge = properties.getMaxAge();
+		this.clock = clock;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		if (restore()) {
+			this.cache.refreshAll();
+		}
+	}
+
+	/**
+	 * Restores the snapshot persisted to disk into the cache, except for the services
+	 * loaded longer than the maximum age ago.
+	 * @return whether the instances of any service were restored
+	 */
+	public boolean restore() {
+		try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (!isValid(buffer)) {
+				log.warn("Ignoring the invalid discovery snapshot {}", this.path);
+				return false;
+			}
+			Map<String, Tuple2<Instant, List<ServiceInstance>>> snapshot = readServices(buffer);
+			Instant oldest = this.clock.instant().minus(this.maxAge);
+			int services = snapshot.size();
+			snapshot.values().removeIf(service -> service.getT1().isBefore(oldest));
+			if (snapshot.size() < services) {
+				log.info("Ignoring the instances of {} services older than {} in {}", services - snapshot.size(),
+						this.maxAge, this.path);
+			}
+			if (snapshot.isEmpty()) {
+				return false;
+			}
+			this.cache.restore(snapshot);
+			log.info("Restored the instances of {} services from {}", snapshot.size(), this.path);
+			return true;
+		}
+		catch (NoSuchFileException ex) {
+			return false;
+		}
+		catch (IOException | RuntimeException ex) {
+			log.warn("Failed to restore the discovery snapshot {}: {}", this.path, ex.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the snapshot of the cache to disk, unless the cache is empty.
+	 */
+	@Scheduled(fixedDelayString = "${spring.cloud.cloudfoundry.discovery.snapshot.write-interval:60000}")
+	public void write() {
+		Map<String, Tuple2<Instant, List<ServiceInstance>>> snapshot = this.cache.timedSnapshot();
+		if (snapshot.isEmpty()) {
+			return;
+		}
+		try {
+			byte[] bytes = encode(snapshot);
+			Path directory = this.path.toAbsolutePath().getParent();
+			Files.createDirectories(directory);
+			Path temporary = Files.createTempFile(directory, this.path.getFileName().toString(), ".tmp");
+			try {
+				Files.write(temporary, bytes);
+				move(temporary);
+			}
+			finally {
+				Files.deleteIfExists(temporary);
+			}
+		}
+		catch (IOException ex) {
+			log.warn("Failed to write the discovery snapshot {}: {}", this.path, ex.toString());
+		}
+	}
+
+	private void move(Path temporary) throws IOException {
+		try {
+			Files.move(temporary, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException ex) {
+			Files.move(temporary, this.path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		write();
+	}
+
+	static byte[] encode(Map<String, Tuple2<Instant, List<ServiceInstance>>> snapshot) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeInt(snapshot.size());
+		for (Map.Entry<String, Tuple2<Instant, List<ServiceInstance>>> service : snapshot.entrySet()) {
+			writeString(out, service.getKey());
+			out.writeLong(service.getValue().getT1().toEpochMilli());
+			out.writeInt(service.getValue().getT2().size());
+			for (ServiceInstance instance : service.getValue().getT2()) {
+				writeString(out, instance.getInstanceId());
+				writeString(out, instance.getHost());
+				out.writeInt(instance.getPort());
+				out.writeBoolean(instance.isSecure());
+				Map<String, String> metadata = instance.getMetadata();
+				out.writeInt(metadata.size());
+				for (Map.Entry<String, String> entry : metadata.entrySet()) {
+					writeString(out, entry.getKey());
+					writeString(out, entry.getValue());
+				}
+			}
+		}
+		CRC32 checksum = new CRC32();
+		checksum.update(bytes.toByteArray());
+		out.writeLong(checksum.getValue());
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Checks the header and checksum of a snapshot, leaving the buffer positioned on the
+	 * first service.
+	 */
+	static boolean isValid(ByteBuffer buffer) {
+		int length = buffer.remaining() - Long.BYTES;
+		if (length < Integer.BYTES + 1 + Integer.BYTES) {
+			return false;
+		}
+		ByteBuffer content = buffer.duplicate();
+		content.limit(content.position() + length);
+		CRC32 checksum = new CRC32();
+		checksum.update(content);
+		return checksum.getValue() == buffer.getLong(buffer.position() + length) && buffer.getInt() == MAGIC
+				&& buffer.get() == VERSION;
+	}
+
+	static Map<String, Tuple2<Instant, List<ServiceInstance>>> readServices(ByteBuffer buffer) {
+		int services = buffer.getInt();
+		Map<String, Tuple2<Instant, List<ServiceInstance>>> snapshot = new LinkedHashMap<>();
+		for (int i = 0; i < services; i++) {
+			String serviceId = readString(buffer);
+			Instant loadedAt = Instant.ofEpochMilli(buffer.getLong());
+			int count = buffer.getInt();
+			List<ServiceInstance> instances = new ArrayList<>(Math.min(count, 1024));
+			for (int j = 0; j < count; j++) {
+				String instanceId = readString(buffer);
+				String host = readString(buffer);
+				int port = buffer.getInt();
+				boolean secure = buffer.get() != 0;
+				int entries = buffer.getInt();
+				Map<String, String> metadata = new LinkedHashMap<>();
+				for (int k = 0; k < entries; k++) {
+					metadata.put(readString(buffer), readString(buffer));
+				}
+				instances.add(instance(serviceId, instanceId, host, port, secure, metadata));
+			}
+			snapshot.put(serviceId, Tuples.of(loadedAt, instances));
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Restores the compact form of a Cloud Foundry instance, identified by its
+	 * application id and index metadata alone, and a {@link DefaultServiceInstance} of
+	 * any other.
+	 */
+	private static ServiceInstance instance(String serviceId, String instanceId, String host, int port, boolean secure,
+			Map<String, String> metadata) {
+		String applicationId = metadata.get(APPLICATION_ID);
+		String index = metadata.get(INSTANCE_ID);
+		if (metadata.size() == 2 && applicationId != null && index != null) {
+			return CloudFoundryServiceInstance.of(serviceId, instanceId, applicationId, index, host, port, secure);
+		}
+		return new DefaultServiceInstance(instanceId, serviceId, host, port, secure, metadata);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -16,43 +16,68 @@
 
 package org.springframework.cloud.cloudfoundry.discovery;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestListener;
 
 /**
  * Discovery Client implementation using Cloud Foundry's Native DNS based Service
- * Discovery.
+ * Discovery. Hostnames are resolved through a caching {@link DnsResolver}, and the port
+ * of the instances is taken from SRV records or the configured service ports.
  *
  * @author Toshiaki Maki
  * @see <a href=
  * "https://www.cloudfoundry.org/blog/polyglot-service-discovery-container-networking-cloud-foundry/">Polyglot
  * Service Discovery for Container Networking in Cloud Foundry</a>
  */
-public class SimpleDnsBasedDiscoveryClient implements DiscoveryClient {
+public class SimpleDnsBasedDiscoveryClient implements DiscoveryClient, DisposableBean {
 
 	private static final Logger log = LoggerFactory.getLogger(SimpleDnsBasedDiscoveryClient.class);
 
 	private final ServiceIdToHostnameConverter serviceIdToHostnameConverter;
 
+	private final DnsResolver dnsResolver;
+
+	private final DnsServiceInstanceResolver instanceResolver;
+
+	private final boolean ownsDnsResolver;
+
+	private CloudFoundryDiscoveryLookupListener lookupListener = CloudFoundryDiscoveryLookupListener.NONE;
+
+	public SimpleDnsBasedDiscoveryClient(ServiceIdToHostnameConverter serviceIdToHostnameConverter,
+			DnsResolver dnsResolver) {
+		this(serviceIdToHostnameConverter, dnsResolver, new CloudFoundryDiscoveryProperties());
+	}
+
+	public SimpleDnsBasedDiscoveryClient(ServiceIdToHostnameConverter serviceIdToHostnameConverter,
+			DnsResolver dnsResolver, CloudFoundryDiscoveryProperties properties) {
+		this(serviceIdToHostnameConverter, dnsResolver, properties, false);
+	}
+
 	public SimpleDnsBasedDiscoveryClient(CloudFoundryDiscoveryProperties properties,
 			ServiceIdToHostnameConverter serviceIdToHostnameConverter) {
-		this.serviceIdToHostnameConverter = serviceIdToHostnameConverter;
+		this(serviceIdToHostnameConverter, new DnsResolver(properties.getDns()), properties, true);
 	}
 
 	public SimpleDnsBasedDiscoveryClient(CloudFoundryDiscoveryProperties properties) {
 		this(properties, serviceId -> serviceId + "." + properties.getInternalDomain());
 	}
 
+	private SimpleDnsBasedDiscoveryClient(ServiceIdToHostnameConverter serviceIdToHostnameConverter,
+			DnsResolver dnsResolver, CloudFoundryDiscoveryProperties properties, boolean ownsDnsResolver) {
+		this.serviceIdToHostnameConverter = serviceIdToHostnameConverter;
+		this.dnsResolver = dnsResolver;
+		this.instanceResolver = new DnsServiceInstanceResolver(dnsResolver, properties);
+		this.ownsDnsResolver = ownsDnsResolver;
+	}
+
 	@Override
 	public String description() {
 		return "DNS Based CF Service Discovery Client";
@@ -61,22 +86,8 @@ public class SimpleDnsBasedDiscoveryClient implements DiscoveryClient {
 	@Override
 	public List<ServiceInstance> getInstances(String serviceId) {
 		String hostname = this.serviceIdToHostnameConverter.toHostname(serviceId);
-		try {
-			List<ServiceInstance> serviceInstances = new ArrayList<>();
-			InetAddress[] addresses = InetAddress.getAllByName(hostname);
-			if (addresses != null) {
-				for (InetAddress address : addresses) {
-					DefaultServiceInstance serviceInstance = new DefaultServiceInstance(null, serviceId,
-							address.getHostAddress(), 8080, false);
-					serviceInstances.add(serviceInstance);
-				}
-			}
-			return serviceInstances;
-		}
-		catch (UnknownHostException e) {
-			log.warn("{}", e.getMessage());
-			return Collections.emptyList();
-		}
+		return this.lookupListener.observe(this, CloudFoundryDiscoveryLookupListener.INSTANCES,
+				() -> this.instanceResolver.getInstances(serviceId, hostname).collectList().block());
 	}
 
 	@Override
@@ -85,6 +96,29 @@ public class SimpleDnsBasedDiscoveryClient implements DiscoveryClient {
 		return Collections.emptyList();
 	}
 
+	/**
+	 * Sets the listener notified of the lookups made by this client.
+	 * @param lookupListener the listener
+	 */
+	public void setLookupListener(CloudFoundryDiscoveryLookupListener lookupListener) {
+		this.lookupListener = lookupListener;
+	}
+
+	/**
+	 * Sets the listener notified of the DNS requests made by this client.
+	 * @param requestListener the listener
+	 */
+	public void setRequestListener(CloudFoundryRequestListener requestListener) {
+		this.instanceResolver.setRequestListener(requestListener);
+	}
+
+	@Override
+	public void destroy() {
+		if (this.ownsDnsResolver) {
+			this.dnsResolver.destroy();
+		}
+	}
+
 	@FunctionalInterface
 	public interface ServiceIdToHostnameConverter {
 
@@ -17,9 +17,13 @@
 package org.springframework.cloud.cloudfoundry.discovery.reactive;
 
 import org.cloudfoundry.operations.CloudFoundryOperations;
+import org.cloudfoundry.operations.applications.ApplicationDetail;
+import org.cloudfoundry.operations.applications.InstanceDetail;
 import reactor.core.publisher.Flux;
+import reactor.util.function.Tuple2;
 
 import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.cloudfoundry.CloudFoundryCatalogLoader;
 import org.springframework.cloud.cloudfoundry.CloudFoundryService;
 import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryDiscoveryProperties;
 
@@ -38,12 +42,15 @@ public class CloudFoundryAppServiceReactiveDiscoveryClient extends CloudFoundryN
 
 	private static final String INTERNAL_DOMAIN = "apps.internal";
 
-	private final CloudFoundryService cloudFoundryService;
-
 	CloudFoundryAppServiceReactiveDiscoveryClient(CloudFoundryOperations cloudFoundryOperations,
 			CloudFoundryService svc, CloudFoundryDiscoveryProperties cloudFoundryDiscoveryProperties) {
-		super(cloudFoundryOperations, svc, cloudFoundryDiscoveryProperties);
-		this.cloudFoundryService = svc;
+		this(cloudFoundryOperations, svc, cloudFoundryDiscoveryProperties, null);
+	}
+
+	CloudFoundryAppServiceReactiveDiscoveryClient(CloudFoundryOperations cloudFoundryOperations,
+			CloudFoundryService svc, CloudFoundryDiscoveryProperties cloudFoundryDiscoveryProperties,
+			CloudFoundryCatalogLoader catalogLoader) {
+		super(cloudFoundryOperations, svc, cloudFoundryDiscoveryProperties, catalogLoader);
 	}
 
 	@Override
@@ -52,9 +59,9 @@ public class CloudFoundryAppServiceReactiveDiscoveryClient extends CloudFoundryN
 	}
 
 	@Override
-	public Flux<ServiceInstance> getInstances(String serviceId) {
-		return cloudFoundryService.getApplicationInstances(serviceId)
-				.filter(tuple -> tuple.getT1().getUrls().stream().anyMatch(this::isInternalDomain))
+	protected Flux<ServiceInstance> toServiceInstances(
+			Flux<Tuple2<ApplicationDetail, InstanceDetail>> applicationInstances) {
+		return applicationInstances.filter(tuple -> tuple.getT1().getUrls().stream().anyMatch(this::isInternalDomain))
 				.map(this::mapApplicationInstanceToServiceInstance);
 	}
 
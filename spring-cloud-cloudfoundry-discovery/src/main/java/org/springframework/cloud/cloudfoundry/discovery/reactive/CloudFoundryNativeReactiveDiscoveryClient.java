@@ -16,24 +16,40 @@
 
 package org.springframework.cloud.cloudfoundry.discovery.reactive;
 
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.cloudfoundry.operations.CloudFoundryOperations;
 import org.cloudfoundry.operations.applications.ApplicationDetail;
 import org.cloudfoundry.operations.applications.ApplicationSummary;
 import org.cloudfoundry.operations.applications.InstanceDetail;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
-import org.springframework.cloud.client.DefaultServiceInstance;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.cloud.cloudfoundry.CloudFoundryCatalogLoader;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestListener;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestThrottle;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRetryPolicy;
 import org.springframework.cloud.cloudfoundry.CloudFoundryService;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryCircuitBreaker;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryDiscoveryLookupListener;
 import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryDiscoveryProperties;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryServiceInstance;
+import org.springframework.cloud.cloudfoundry.discovery.ServiceInstanceCache;
 
 /**
  * Cloud Foundry maintains a registry of running applications which we expose here as
- * CloudFoundryService instances.
+ * CloudFoundryService instances. When the cache is enabled, instances are served from a
+ * {@link ServiceInstanceCache}, loaded for the whole space at once if bulk loading is
+ * enabled.
  *
  * @author Tim Ysewyn
  */
@@ -45,11 +61,42 @@ public class CloudFoundryNativeReactiveDiscoveryClient implements ReactiveDiscov
 
 	private final CloudFoundryDiscoveryProperties properties;
 
+	private final ServiceInstanceCache serviceInstanceCache;
+
+	private CloudFoundryRequestListener requestListener = CloudFoundryRequestListener.NONE;
+
+	private CloudFoundryRequestThrottle requestThrottle = CloudFoundryRequestThrottle.UNLIMITED;
+
+	private CloudFoundryRetryPolicy retryPolicy = CloudFoundryRetryPolicy.NONE;
+
+	private CloudFoundryCircuitBreaker circuitBreaker = CloudFoundryCircuitBreaker.NONE;
+
+	private CloudFoundryDiscoveryLookupListener lookupListener = CloudFoundryDiscoveryLookupListener.NONE;
+
 	CloudFoundryNativeReactiveDiscoveryClient(CloudFoundryOperations operations, CloudFoundryService svc,
 			CloudFoundryDiscoveryProperties properties) {
+		this(operations, svc, properties, null);
+	}
+
+	CloudFoundryNativeReactiveDiscoveryClient(CloudFoundryOperations operations, CloudFoundryService svc,
+			CloudFoundryDiscoveryProperties properties, CloudFoundryCatalogLoader catalogLoader) {
 		this.cloudFoundryService = svc;
 		this.cloudFoundryOperations = operations;
 		this.properties = properties;
+		this.serviceInstanceCache = createServiceInstanceCache((properties != null) ? properties.getCache() : null,
+				catalogLoader);
+	}
+
+	private ServiceInstanceCache createServiceInstanceCache(CloudFoundryDiscoveryProperties.Cache cache,
+			CloudFoundryCatalogLoader catalogLoader) {
+		if (cache == null || !cache.isEnabled()) {
+			return null;
+		}
+		ServiceInstanceCache serviceInstanceCache = (cache.isBulkLoad() && catalogLoader != null)
+				? ServiceInstanceCache.ofCatalog(() -> loadCatalog(catalogLoader), cache.getTtl())
+				: new ServiceInstanceCache(serviceId -> loadInstances(serviceId).collectList(), cache.getTtl());
+		serviceInstanceCache.setMaxStaleness(cache.getMaxStaleness());
+		return serviceInstanceCache;
 	}
 
 	@Override
@@ -59,13 +106,128 @@ public class CloudFoundryNativeReactiveDiscoveryClient implements ReactiveDiscov
 
 	@Override
 	public Flux<ServiceInstance> getInstances(String serviceId) {
-		return this.cloudFoundryService.getApplicationInstances(serviceId)
-				.map(this::mapApplicationInstanceToServiceInstance);
+		return this.lookupListener.observe(this, CloudFoundryDiscoveryLookupListener.INSTANCES,
+				lookupInstances(serviceId));
+	}
+
+	private Flux<ServiceInstance> lookupInstances(String serviceId) {
+		if (this.serviceInstanceCache != null) {
+			return Flux.defer(() -> {
+				List<ServiceInstance> cached = this.serviceInstanceCache.getIfPresent(serviceId);
+				return (cached != null) ? Flux.fromIterable(cached)
+						: this.serviceInstanceCache.get(serviceId).flatMapIterable(instances -> instances);
+			});
+		}
+		return loadInstances(serviceId);
+	}
+
+	/**
+	 * Returns the instances of several services, looking up at most the configured batch
+	 * concurrency at a time. When the instance cache loads the whole catalog, a single
+	 * load serves every service.
+	 * @param serviceIds the service ids to look up
+	 * @return the instances of each service, by service id
+	 */
+	public Mono<Map<String, List<ServiceInstance>>> getInstances(Collection<String> serviceIds) {
+		return this.lookupListener.observe(this, CloudFoundryDiscoveryLookupListener.INSTANCES,
+				lookupInstances(serviceIds));
+	}
+
+	private Mono<Map<String, List<ServiceInstance>>> lookupInstances(Collection<String> serviceIds) {
+		if (this.serviceInstanceCache != null) {
+			return Mono
+					.defer(() -> this.serviceInstanceCache.getAll(serviceIds, this.properties.getBatchConcurrency()));
+		}
+		return Flux.fromIterable(new LinkedHashSet<>(serviceIds)).flatMap(
+				serviceId -> loadInstances(serviceId).collectList().map(instances -> Tuples.of(serviceId, instances)),
+				this.properties.getBatchConcurrency()).collectMap(Tuple2::getT1, Tuple2::getT2, LinkedHashMap::new);
+	}
+
+	private Flux<ServiceInstance> loadInstances(String serviceId) {
+		// the circuit breaker guards the request shared by concurrent lookups, so that
+		// its outcome is recorded once
+		return toServiceInstances(this.cloudFoundryService.getApplicationInstances(serviceId));
+	}
+
+	private Mono<Map<String, List<ServiceInstance>>> loadCatalog(CloudFoundryCatalogLoader catalogLoader) {
+		return this.circuitBreaker.protect(catalogLoader.loadApplicationInstances()).flatMapIterable(Map::entrySet)
+				.flatMap(application -> toServiceInstances(Flux.fromIterable(application.getValue())).collectList()
+						.map(instances -> Tuples.of(application.getKey(), instances)))
+				.collectMap(Tuple2::getT1, Tuple2::getT2);
+	}
+
+	/**
+	 * Maps the running instances of an application to service instances.
+	 * @param applicationInstances the running instances of an application
+	 * @return the service instances
+	 */
+	protected Flux<ServiceInstance> toServiceInstances(
+			Flux<Tuple2<ApplicationDetail, InstanceDetail>> applicationInstances) {
+		return applicationInstances.map(this::mapApplicationInstanceToServiceInstance);
 	}
 
+	/**
+	 * Returns the names of the applications in the space. If the Cloud Controller cannot
+	 * be called, because the circuit breaker is open or the request is throttled, the
+	 * services in the instance cache are served instead.
+	 */
 	@Override
 	public Flux<String> getServices() {
-		return this.cloudFoundryOperations.applications().list().map(ApplicationSummary::getName);
+		return this.lookupListener.observe(this, CloudFoundryDiscoveryLookupListener.SERVICES,
+				this.circuitBreaker
+						.protect(this.retryPolicy.retry(this.requestThrottle.throttle(this.requestListener.observe(
+								CloudFoundryRequestListener.LIST, CloudFoundryRequestListener.NO_SERVICE,
+								this.cloudFoundryOperations.applications().list()))))
+						.map(ApplicationSummary::getName)
+						.onErrorResume(RejectedExecutionException.class, this::cachedServices));
+	}
+
+	private Flux<String> cachedServices(RejectedExecutionException ex) {
+		if (this.serviceInstanceCache == null || this.serviceInstanceCache.size() == 0) {
+			return Flux.error(ex);
+		}
+		return Flux.fromIterable(this.serviceInstanceCache.snapshot().keySet());
+	}
+
+	/**
+	 * Sets the listener notified of the requests this client makes to the Cloud
+	 * Controller. Requests made through the {@link CloudFoundryService} and the
+	 * {@link CloudFoundryCatalogLoader} are reported by those.
+	 * @param requestListener the listener
+	 */
+	public void setRequestListener(CloudFoundryRequestListener requestListener) {
+		this.requestListener = requestListener;
+	}
+
+	/**
+	 * Sets the throttle of the requests this client makes to the Cloud Controller.
+	 * Requests made through the {@link CloudFoundryService} and the
+	 * {@link CloudFoundryCatalogLoader} are throttled by those.
+	 * @param requestThrottle the throttle
+	 */
+	public void setRequestThrottle(CloudFoundryRequestThrottle requestThrottle) {
+		this.requestThrottle = requestThrottle;
+	}
+
+	/**
+	 * Sets the circuit breaker around the lookups this client makes to the Cloud
+	 * Controller, including those made through the {@link CloudFoundryService}. While it
+	 * is open, lookups are served from the instance cache.
+	 * @param circuitBreaker the circuit breaker
+	 */
+	public void setCircuitBreaker(CloudFoundryCircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+		this.cloudFoundryService.setRequestGuard(circuitBreaker::protect);
+	}
+
+	/**
+	 * Sets the policy that retries the requests this client makes to the Cloud
+	 * Controller. Requests made through the {@link CloudFoundryService} and the
+	 * {@link CloudFoundryCatalogLoader} are retried by those.
+	 * @param retryPolicy the retry policy
+	 */
+	public void setRetryPolicy(CloudFoundryRetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
 	}
 
 	@Override
@@ -74,21 +236,19 @@ public class CloudFoundryNativeReactiveDiscoveryClient implements ReactiveDiscov
 	}
 
 	protected ServiceInstance mapApplicationInstanceToServiceInstance(Tuple2<ApplicationDetail, InstanceDetail> tuple) {
-		ApplicationDetail applicationDetail = tuple.getT1();
-		InstanceDetail instanceDetail = tuple.getT2();
-
-		String applicationId = applicationDetail.getId();
-		String applicationIndex = instanceDetail.getIndex();
-		String instanceId = applicationId + "." + applicationIndex;
-		String name = applicationDetail.getName();
-		String url = applicationDetail.getUrls().size() > 0 ? applicationDetail.getUrls().get(0) : null;
-		boolean secure = (url + "").toLowerCase().startsWith("https");
+		return CloudFoundryServiceInstance.of(tuple.getT1(), tuple.getT2());
+	}
 
-		HashMap<String, String> metadata = new HashMap<>();
-		metadata.put("applicationId", applicationId);
-		metadata.put("instanceId", applicationIndex);
+	/**
+	 * Sets the listener notified of the lookups made by this client.
+	 * @param lookupListener the listener
+	 */
+	public void setLookupListener(CloudFoundryDiscoveryLookupListener lookupListener) {
+		this.lookupListener = lookupListener;
+	}
 
-		return new DefaultServiceInstance(instanceId, name, url, secure ? 443 : 80, secure, metadata);
+	ServiceInstanceCache getServiceInstanceCache() {
+		return this.serviceInstanceCache;
 	}
 
 }
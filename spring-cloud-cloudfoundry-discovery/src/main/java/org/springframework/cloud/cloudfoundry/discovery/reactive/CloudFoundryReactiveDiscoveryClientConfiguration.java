@@ -16,11 +16,15 @@
 
 package org.springframework.cloud.cloudfoundry.discovery.reactive;
 
+import java.util.stream.Collectors;
+
+import org.cloudfoundry.doppler.DopplerClient;
 import org.cloudfoundry.operations.CloudFoundryOperations;
 
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
 import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -32,9 +36,23 @@ import org.springframework.cloud.client.ReactiveCommonsClientAutoConfiguration;
 import org.springframework.cloud.client.discovery.composite.reactive.ReactiveCompositeDiscoveryClientAutoConfiguration;
 import org.springframework.cloud.client.discovery.health.DiscoveryClientHealthIndicatorProperties;
 import org.springframework.cloud.client.discovery.health.reactive.ReactiveDiscoveryClientHealthIndicator;
+import org.springframework.cloud.cloudfoundry.CloudFoundryCatalogLoader;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestListener;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestThrottle;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRetryPolicy;
 import org.springframework.cloud.cloudfoundry.CloudFoundryService;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryCircuitBreaker;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryCircuitBreakerHealthIndicator;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryCircuitBreakerMetrics;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryDiscoveryLookupListener;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryDiscoveryLookupMetrics;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryDiscoveryPrefetcher;
 import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryDiscoveryProperties;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryInstanceEventWatcher;
 import org.springframework.cloud.cloudfoundry.discovery.ConditionalOnCloudFoundryDiscoveryEnabled;
+import org.springframework.cloud.cloudfoundry.discovery.DnsResolver;
+import org.springframework.cloud.cloudfoundry.discovery.ServiceInstanceCacheMetrics;
+import org.springframework.cloud.cloudfoundry.discovery.ServiceInstanceSnapshotFile;
 import org.springframework.cloud.cloudfoundry.discovery.reactive.SimpleDnsBasedReactiveDiscoveryClient.ServiceIdToHostnameConverter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -54,6 +72,27 @@ import org.springframework.context.annotation.Configuration;
 @AutoConfigureBefore(ReactiveCommonsClientAutoConfiguration.class)
 public class CloudFoundryReactiveDiscoveryClientConfiguration {
 
+	@Bean
+	@ConditionalOnMissingBean
+	@ConditionalOnProperty("spring.cloud.cloudfoundry.discovery.circuit-breaker.enabled")
+	public CloudFoundryCircuitBreaker cloudFoundryCircuitBreaker(CloudFoundryDiscoveryProperties properties) {
+		return new CloudFoundryCircuitBreaker(properties.getCircuitBreaker());
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnClass(name = "org.springframework.boot.actuate.health.HealthIndicator")
+	@ConditionalOnProperty("spring.cloud.cloudfoundry.discovery.circuit-breaker.enabled")
+	public static class CloudFoundryCircuitBreakerHealthConfig {
+
+		@Bean
+		@ConditionalOnMissingBean
+		public CloudFoundryCircuitBreakerHealthIndicator cloudFoundryCircuitBreakerHealthIndicator(
+				CloudFoundryCircuitBreaker circuitBreaker) {
+			return new CloudFoundryCircuitBreakerHealthIndicator(circuitBreaker);
+		}
+
+	}
+
 	@Configuration(proxyBeanMethods = false)
 	@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.discovery.use-dns", havingValue = "false",
 			matchIfMissing = true)
@@ -62,8 +101,23 @@ public class CloudFoundryReactiveDiscoveryClientConfiguration {
 		@Bean
 		@ConditionalOnMissingBean
 		public CloudFoundryNativeReactiveDiscoveryClient nativeCloudFoundryDiscoveryClient(CloudFoundryOperations cf,
-				CloudFoundryService svc, CloudFoundryDiscoveryProperties cloudFoundryDiscoveryProperties) {
-			return new CloudFoundryNativeReactiveDiscoveryClient(cf, svc, cloudFoundryDiscoveryProperties);
+				CloudFoundryService svc, CloudFoundryDiscoveryProperties cloudFoundryDiscoveryProperties,
+				ObjectProvider<CloudFoundryCatalogLoader> catalogLoader,
+				ObjectProvider<CloudFoundryRequestListener> requestListeners,
+				ObjectProvider<CloudFoundryDiscoveryLookupListener> lookupListeners,
+				ObjectProvider<CloudFoundryRequestThrottle> requestThrottle,
+				ObjectProvider<CloudFoundryRetryPolicy> retryPolicy,
+				ObjectProvider<CloudFoundryCircuitBreaker> circuitBreaker) {
+			CloudFoundryNativeReactiveDiscoveryClient client = new CloudFoundryNativeReactiveDiscoveryClient(cf, svc,
+					cloudFoundryDiscoveryProperties, catalogLoader.getIfAvailable());
+			client.setRequestThrottle(requestThrottle.getIfAvailable(() -> CloudFoundryRequestThrottle.UNLIMITED));
+			client.setRetryPolicy(retryPolicy.getIfAvailable(() -> CloudFoundryRetryPolicy.NONE));
+			client.setCircuitBreaker(circuitBreaker.getIfAvailable(() -> CloudFoundryCircuitBreaker.NONE));
+			client.setRequestListener(
+					CloudFoundryRequestListener.of(requestListeners.orderedStream().collect(Collectors.toList())));
+			client.setLookupListener(CloudFoundryDiscoveryLookupListener
+					.of(lookupListeners.orderedStream().collect(Collectors.toList())));
+			return client;
 		}
 
 		@Bean
@@ -76,8 +130,77 @@ public class CloudFoundryReactiveDiscoveryClientConfiguration {
 
 		@Bean
 		public CloudFoundryReactiveHeartbeatSender cloudFoundryHeartbeatSender(
-				CloudFoundryNativeReactiveDiscoveryClient client) {
-			return new CloudFoundryReactiveHeartbeatSender(client);
+				CloudFoundryNativeReactiveDiscoveryClient client, CloudFoundryDiscoveryProperties properties) {
+			return new CloudFoundryReactiveHeartbeatSender(client, properties.getHeartbeatTimeout());
+		}
+
+		@Bean
+		public CloudFoundryDiscoveryPrefetcher cloudFoundryDiscoveryPrefetcher(
+				CloudFoundryNativeReactiveDiscoveryClient client, CloudFoundryDiscoveryProperties properties) {
+			return new CloudFoundryDiscoveryPrefetcher(client::getInstances, () -> client.getServices().collectList(),
+					properties);
+		}
+
+		@Configuration(proxyBeanMethods = false)
+		@ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+		@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.discovery.cache.enabled", matchIfMissing = true)
+		public static class CloudFoundryReactiveDiscoveryClientMetricsConfig {
+
+			@Bean
+			@ConditionalOnBean(CloudFoundryNativeReactiveDiscoveryClient.class)
+			public ServiceInstanceCacheMetrics cloudFoundryServiceInstanceCacheMetrics(
+					CloudFoundryNativeReactiveDiscoveryClient client) {
+				return new ServiceInstanceCacheMetrics(client.getServiceInstanceCache());
+			}
+
+		}
+
+		@Configuration(proxyBeanMethods = false)
+		@ConditionalOnProperty("spring.cloud.cloudfoundry.discovery.cache.evict-on-crash")
+		public static class CloudFoundryInstanceEventConfig {
+
+			@Bean
+			@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.discovery.cache.enabled", matchIfMissing = true)
+			@ConditionalOnBean(DopplerClient.class)
+			public CloudFoundryInstanceEventWatcher cloudFoundryInstanceEventWatcher(
+					CloudFoundryNativeReactiveDiscoveryClient client, DopplerClient dopplerClient) {
+				return new CloudFoundryInstanceEventWatcher(dopplerClient, client.getServiceInstanceCache());
+			}
+
+		}
+
+		@Configuration(proxyBeanMethods = false)
+		@ConditionalOnProperty("spring.cloud.cloudfoundry.discovery.snapshot.enabled")
+		public static class ServiceInstanceSnapshotConfig {
+
+			@Bean
+			@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.discovery.cache.enabled", matchIfMissing = true)
+			@ConditionalOnMissingBean
+			public ServiceInstanceSnapshotFile cloudFoundryServiceInstanceSnapshotFile(
+					CloudFoundryNativeReactiveDiscoveryClient client, CloudFoundryDiscoveryProperties properties) {
+				return new ServiceInstanceSnapshotFile(client.getServiceInstanceCache(), properties.getSnapshot());
+			}
+
+		}
+
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+	public static class CloudFoundryReactiveDiscoveryLookupMetricsConfig {
+
+		@Bean
+		@ConditionalOnMissingBean
+		public CloudFoundryDiscoveryLookupMetrics cloudFoundryDiscoveryLookupMetrics() {
+			return new CloudFoundryDiscoveryLookupMetrics();
+		}
+
+		@Bean
+		@ConditionalOnMissingBean
+		@ConditionalOnProperty("spring.cloud.cloudfoundry.discovery.circuit-breaker.enabled")
+		public CloudFoundryCircuitBreakerMetrics cloudFoundryCircuitBreakerMetrics(
+				CloudFoundryCircuitBreaker circuitBreaker) {
+			return new CloudFoundryCircuitBreakerMetrics(circuitBreaker);
 		}
 
 	}
@@ -90,13 +213,27 @@ public class CloudFoundryReactiveDiscoveryClientConfiguration {
 		@ConditionalOnProperty(value = "spring.cloud.cloudfoundry.discovery.use-container-ip", havingValue = "true")
 		public static class SimpleDnsConfig {
 
+			@Bean
+			@ConditionalOnMissingBean
+			public DnsResolver cloudFoundryDnsResolver(CloudFoundryDiscoveryProperties properties) {
+				return new DnsResolver(properties.getDns());
+			}
+
 			@Bean
 			@ConditionalOnMissingBean
 			public SimpleDnsBasedReactiveDiscoveryClient dnsBasedReactiveDiscoveryClient(
-					ObjectProvider<ServiceIdToHostnameConverter> provider, CloudFoundryDiscoveryProperties properties) {
-				ServiceIdToHostnameConverter converter = provider.getIfAvailable();
-				return converter == null ? new SimpleDnsBasedReactiveDiscoveryClient(properties)
-						: new SimpleDnsBasedReactiveDiscoveryClient(converter);
+					ObjectProvider<ServiceIdToHostnameConverter> provider, CloudFoundryDiscoveryProperties properties,
+					DnsResolver dnsResolver, ObjectProvider<CloudFoundryRequestListener> requestListeners,
+					ObjectProvider<CloudFoundryDiscoveryLookupListener> lookupListeners) {
+				ServiceIdToHostnameConverter converter = provider
+						.getIfAvailable(() -> serviceId -> serviceId + "." + properties.getInternalDomain());
+				SimpleDnsBasedReactiveDiscoveryClient client = new SimpleDnsBasedReactiveDiscoveryClient(converter,
+						dnsResolver, properties);
+				client.setRequestListener(
+						CloudFoundryRequestListener.of(requestListeners.orderedStream().collect(Collectors.toList())));
+				client.setLookupListener(CloudFoundryDiscoveryLookupListener
+						.of(lookupListeners.orderedStream().collect(Collectors.toList())));
+				return client;
 			}
 
 			@Bean
@@ -109,8 +246,8 @@ public class CloudFoundryReactiveDiscoveryClientConfiguration {
 
 			@Bean
 			public CloudFoundryReactiveHeartbeatSender cloudFoundryHeartbeatSender(
-					SimpleDnsBasedReactiveDiscoveryClient client) {
-				return new CloudFoundryReactiveHeartbeatSender(client);
+					SimpleDnsBasedReactiveDiscoveryClient client, CloudFoundryDiscoveryProperties properties) {
+				return new CloudFoundryReactiveHeartbeatSender(client, properties.getHeartbeatTimeout());
 			}
 
 		}
@@ -123,8 +260,23 @@ public class CloudFoundryReactiveDiscoveryClientConfiguration {
 			@Bean
 			@ConditionalOnMissingBean
 			public CloudFoundryAppServiceReactiveDiscoveryClient appServiceReactiveDiscoveryClient(
-					CloudFoundryOperations cf, CloudFoundryService svc, CloudFoundryDiscoveryProperties properties) {
-				return new CloudFoundryAppServiceReactiveDiscoveryClient(cf, svc, properties);
+					CloudFoundryOperations cf, CloudFoundryService svc, CloudFoundryDiscoveryProperties properties,
+					ObjectProvider<CloudFoundryCatalogLoader> catalogLoader,
+					ObjectProvider<CloudFoundryRequestListener> requestListeners,
+					ObjectProvider<CloudFoundryDiscoveryLookupListener> lookupListeners,
+					ObjectProvider<CloudFoundryRequestThrottle> requestThrottle,
+					ObjectProvider<CloudFoundryRetryPolicy> retryPolicy,
+					ObjectProvider<CloudFoundryCircuitBreaker> circuitBreaker) {
+				CloudFoundryAppServiceReactiveDiscoveryClient client = new CloudFoundryAppServiceReactiveDiscoveryClient(
+						cf, svc, properties, catalogLoader.getIfAvailable());
+				client.setRequestThrottle(requestThrottle.getIfAvailable(() -> CloudFoundryRequestThrottle.UNLIMITED));
+				client.setRetryPolicy(retryPolicy.getIfAvailable(() -> CloudFoundryRetryPolicy.NONE));
+				client.setCircuitBreaker(circuitBreaker.getIfAvailable(() -> CloudFoundryCircuitBreaker.NONE));
+				client.setRequestListener(
+						CloudFoundryRequestListener.of(requestListeners.orderedStream().collect(Collectors.toList())));
+				client.setLookupListener(CloudFoundryDiscoveryLookupListener
+						.of(lookupListeners.orderedStream().collect(Collectors.toList())));
+				return client;
 			}
 
 			@Bean
@@ -138,8 +290,8 @@ public class CloudFoundryReactiveDiscoveryClientConfiguration {
 
 			@Bean
 			public CloudFoundryReactiveHeartbeatSender cloudFoundryHeartbeatSender(
-					CloudFoundryAppServiceReactiveDiscoveryClient client) {
-				return new CloudFoundryReactiveHeartbeatSender(client);
+					CloudFoundryAppServiceReactiveDiscoveryClient client, CloudFoundryDiscoveryProperties properties) {
+				return new CloudFoundryReactiveHeartbeatSender(client, properties.getHeartbeatTimeout());
 			}
 
 		}
@@ -16,35 +16,67 @@
 
 package org.springframework.cloud.cloudfoundry.discovery.reactive;
 
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.scheduler.Schedulers;
+
 import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
 import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+import org.springframework.cloud.cloudfoundry.CloudFoundryFlightRecorder;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestListener;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestThrottle;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 /**
- * Publishes a {@link HeartbeatEvent} with a `Flux` of services as its state indicator. If
- * consumers detect a change it doesn't necessarily mean there is a change in the catalog.
+ * Publishes a {@link HeartbeatEvent} with the list of services as its state indicator.
+ * The list is fetched once per poll and shared with every listener. A poll is skipped
+ * while the previous fetch is still running, and a fetch that does not complete within
+ * the timeout is abandoned without publishing an event.
  *
  * @author Tim Ysewyn
  */
 @Component
 public class CloudFoundryReactiveHeartbeatSender implements ApplicationEventPublisherAware {
 
+	private static final Logger log = LoggerFactory.getLogger(CloudFoundryReactiveHeartbeatSender.class);
+
 	private final ReactiveDiscoveryClient client;
 
+	private final Duration timeout;
+
+	private final AtomicBoolean polling = new AtomicBoolean();
+
 	private ApplicationEventPublisher publisher;
 
 	public CloudFoundryReactiveHeartbeatSender(ReactiveDiscoveryClient client) {
+		this(client, Duration.ofSeconds(5));
+	}
+
+	public CloudFoundryReactiveHeartbeatSender(ReactiveDiscoveryClient client, Duration timeout) {
 		this.client = client;
+		this.timeout = timeout;
 	}
 
 	@Scheduled(fixedDelayString = "${spring.cloud.cloudfoundry.discovery.heartbeatFrequency:5000}")
 	public void poll() {
-		if (this.publisher != null) {
-			this.publisher.publishEvent(new HeartbeatEvent(this.client, this.client.getServices()));
+		if (this.publisher == null || !this.polling.compareAndSet(false, true)) {
+			return;
 		}
+		CloudFoundryFlightRecorder
+				.record(this, CloudFoundryRequestListener.LIST, CloudFoundryRequestListener.NO_SERVICE,
+						this.client.getServices())
+				.collectList().map(Collections::unmodifiableList).timeout(this.timeout, Schedulers.parallel())
+				.subscribeOn(Schedulers.parallel()).doFinally(signal -> this.polling.set(false))
+				.contextWrite(CloudFoundryRequestThrottle.background())
+				.subscribe(services -> this.publisher.publishEvent(new HeartbeatEvent(this.client, services)),
+						error -> log.warn("Failed to fetch services for heartbeat: {}", error.toString()));
 	}
 
 	@Override
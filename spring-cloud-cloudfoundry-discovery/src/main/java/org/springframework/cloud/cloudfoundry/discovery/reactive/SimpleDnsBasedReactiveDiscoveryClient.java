@@ -16,42 +16,71 @@
 
 package org.springframework.cloud.cloudfoundry.discovery.reactive;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.function.Function;
-
-import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.cloud.cloudfoundry.CloudFoundryRequestListener;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryDiscoveryLookupListener;
 import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryDiscoveryProperties;
+import org.springframework.cloud.cloudfoundry.discovery.DnsResolver;
+import org.springframework.cloud.cloudfoundry.discovery.DnsServiceInstanceResolver;
 
 /**
  * Reactive Discovery Client implementation using Cloud Foundry's Native DNS based Service
- * Discovery.
+ * Discovery. Hostnames are resolved with a non-blocking {@link DnsResolver}, so lookups
+ * never block the calling thread, and the port of the instances is taken from SRV records
+ * or the configured service ports.
  *
  * @author Tim Ysewyn
  * @see <a href=
  * "https://www.cloudfoundry.org/blog/polyglot-service-discovery-container-networking-cloud-foundry/">Polyglot
  * Service Discovery for Container Networking in Cloud Foundry</a>
  */
-public class SimpleDnsBasedReactiveDiscoveryClient implements ReactiveDiscoveryClient {
+public class SimpleDnsBasedReactiveDiscoveryClient implements ReactiveDiscoveryClient, DisposableBean {
 
 	private static final Logger log = LoggerFactory.getLogger(SimpleDnsBasedReactiveDiscoveryClient.class);
 
 	private final ServiceIdToHostnameConverter serviceIdToHostnameConverter;
 
+	private final DnsResolver dnsResolver;
+
+	private final DnsServiceInstanceResolver instanceResolver;
+
+	private final boolean ownsDnsResolver;
+
+	private CloudFoundryDiscoveryLookupListener lookupListener = CloudFoundryDiscoveryLookupListener.NONE;
+
+	public SimpleDnsBasedReactiveDiscoveryClient(ServiceIdToHostnameConverter serviceIdToHostnameConverter,
+			DnsResolver dnsResolver) {
+		this(serviceIdToHostnameConverter, dnsResolver, new CloudFoundryDiscoveryProperties());
+	}
+
+	public SimpleDnsBasedReactiveDiscoveryClient(ServiceIdToHostnameConverter serviceIdToHostnameConverter,
+			DnsResolver dnsResolver, CloudFoundryDiscoveryProperties properties) {
+		this(serviceIdToHostnameConverter, dnsResolver, properties, false);
+	}
+
 	public SimpleDnsBasedReactiveDiscoveryClient(ServiceIdToHostnameConverter serviceIdToHostnameConverter) {
-		this.serviceIdToHostnameConverter = serviceIdToHostnameConverter;
+		this(serviceIdToHostnameConverter, new DnsResolver(new CloudFoundryDiscoveryProperties.Dns()),
+				new CloudFoundryDiscoveryProperties(), true);
 	}
 
 	public SimpleDnsBasedReactiveDiscoveryClient(CloudFoundryDiscoveryProperties properties) {
-		this(serviceId -> serviceId + "." + properties.getInternalDomain());
+		this(serviceId -> serviceId + "." + properties.getInternalDomain(), new DnsResolver(properties.getDns()),
+				properties, true);
+	}
+
+	private SimpleDnsBasedReactiveDiscoveryClient(ServiceIdToHostnameConverter serviceIdToHostnameConverter,
+			DnsResolver dnsResolver, CloudFoundryDiscoveryProperties properties, boolean ownsDnsResolver) {
+		this.serviceIdToHostnameConverter = serviceIdToHostnameConverter;
+		this.dnsResolver = dnsResolver;
+		this.instanceResolver = new DnsServiceInstanceResolver(dnsResolver, properties);
+		this.ownsDnsResolver = ownsDnsResolver;
 	}
 
 	@Override
@@ -61,20 +90,9 @@ public class SimpleDnsBasedReactiveDiscoveryClient implements ReactiveDiscoveryC
 
 	@Override
 	public Flux<ServiceInstance> getInstances(String serviceId) {
-		return Mono.justOrEmpty(serviceIdToHostnameConverter.toHostname(serviceId)).flatMapMany(getInetAddresses())
-				.map(address -> new DefaultServiceInstance(null, serviceId, address.getHostAddress(), 8080, false));
-	}
-
-	private Function<String, Publisher<? extends InetAddress>> getInetAddresses() {
-		return hostname -> {
-			try {
-				return Flux.fromArray(InetAddress.getAllByName(hostname));
-			}
-			catch (UnknownHostException e) {
-				log.warn("{}", e.getMessage());
-				return Flux.empty();
-			}
-		};
+		return this.lookupListener.observe(this, CloudFoundryDiscoveryLookupListener.INSTANCES,
+				Mono.justOrEmpty(serviceIdToHostnameConverter.toHostname(serviceId))
+						.flatMapMany(hostname -> this.instanceResolver.getInstances(serviceId, hostname)));
 	}
 
 	@Override
@@ -83,6 +101,29 @@ public class SimpleDnsBasedReactiveDiscoveryClient implements ReactiveDiscoveryC
 		return Flux.empty();
 	}
 
+	/**
+	 * Sets the listener notified of the lookups made by this client.
+	 * @param lookupListener the listener
+	 */
+	public void setLookupListener(CloudFoundryDiscoveryLookupListener lookupListener) {
+		this.lookupListener = lookupListener;
+	}
+
+	/**
+	 * Sets the listener notified of the DNS requests made by this client.
+	 * @param requestListener the listener
+	 */
+	public void setRequestListener(CloudFoundryRequestListener requestListener) {
+		this.instanceResolver.setRequestListener(requestListener);
+	}
+
+	@Override
+	public void destroy() {
+		if (this.ownsDnsResolver) {
+			this.dnsResolver.destroy();
+		}
+	}
+
 	@FunctionalInterface
 	public interface ServiceIdToHostnameConverter {
 
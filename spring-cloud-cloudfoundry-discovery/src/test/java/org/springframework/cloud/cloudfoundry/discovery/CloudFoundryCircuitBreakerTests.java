@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cloudfoundry.client.v2.ClientV2Exception;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryCircuitBreaker.State;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CloudFoundryCircuitBreakerTests {
+
+	private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+
+	private final CloudFoundryDiscoveryProperties.CircuitBreaker properties = new CloudFoundryDiscoveryProperties.CircuitBreaker();
+
+	private final AtomicInteger calls = new AtomicInteger();
+
+	private CloudFoundryCircuitBreaker circuitBreaker;
+
+	@BeforeEach
+	public void setUp() {
+		this.properties.setSlidingWindowSize(4);
+		this.properties.setEnabled(true);
+		this.properties.setMinimumNumberOfCalls(4);
+		this.properties.setWaitInOpenState(Duration.ofSeconds(10));
+		this.properties.setMaxWaitInOpenState(Duration.ofSeconds(30));
+		this.circuitBreaker = new CloudFoundryCircuitBreaker(this.properties, this.scheduler);
+	}
+
+	@Test
+	public void opensAtFailureRateThresholdAndFailsFast() {
+		succeed();
+		succeed();
+		fail();
+		assertThat(this.circuitBreaker.getState()).isEqualTo(State.CLOSED);
+		fail();
+
+		assertThat(this.circuitBreaker.getState()).isEqualTo(State.OPEN);
+		assertThatThrownBy(() -> call(Mono.just("ok"))).isInstanceOf(RejectedExecutionException.class);
+		assertThat(this.calls).hasValue(4);
+		assertThat(this.circuitBreaker.getNotPermittedCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void slowAndCancelledCallsOpenBreaker() {
+		this.properties.setSlowCallRateThreshold(50);
+		this.properties.setSlowCallDuration(Duration.ofSeconds(1));
+		this.circuitBreaker = new CloudFoundryCircuitBreaker(this.properties, this.scheduler);
+		succeed();
+		succeed();
+		Mono<String> slow = Mono.delay(Duration.ofSeconds(2), this.scheduler).thenReturn("ok");
+		this.circuitBreaker.protect(slow).subscribe();
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(2));
+		this.circuitBreaker.protect(Mono.never()).subscribe().dispose();
+		assertThat(this.circuitBreaker.getState()).isEqualTo(State.CLOSED);
+
+		this.circuitBreaker.protect(Flux.never()).take(Duration.ofSeconds(5), this.scheduler).subscribe();
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(5));
+
+		assertThat(this.circuitBreaker.getState()).isEqualTo(State.OPEN);
+	}
+
+	@Test
+	public void clientErrorsAndRejectionsAreIgnored() {
+		for (int i = 0; i < 4; i++) {
+			fail(new ClientV2Exception(404, 100004, "The app could not be found", "CF-AppNotFound"));
+			fail(new RejectedExecutionException("throttled"));
+			fail(new ClientV2Exception(null, 10001, "Unknown error", "CF-Unknown"));
+		}
+
+		assertThat(this.circuitBreaker.getState()).isEqualTo(State.CLOSED);
+		assertThat(this.circuitBreaker.getBufferedCalls()).isZero();
+	}
+
+	@Test
+	public void probeClosesBreakerOnSuccess() {
+		open();
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(10));
+
+		succeed();
+
+		assertThat(this.circuitBreaker.getState()).isEqualTo(State.CLOSED);
+		assertThat(this.circuitBreaker.getBufferedCalls()).isZero();
+	}
+
+	@Test
+	public void onlyOneProbeRunsAtATime() {
+		open();
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(10));
+
+		this.circuitBreaker.protect(Mono.never()).subscribe();
+
+		assertThat(this.circuitBreaker.getState()).isEqualTo(State.HALF_OPEN);
+		assertThatThrownBy(() -> call(Mono.just("ok"))).isInstanceOf(RejectedExecutionException.class);
+	}
+
+	@Test
+	public void failedProbesAreSpacedOut() {
+		open();
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(10));
+		fail();
+		assertThat(this.circuitBreaker.getState()).isEqualTo(State.OPEN);
+
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(10));
+		assertThatThrownBy(() -> call(Mono.just("ok"))).isInstanceOf(RejectedExecutionException.class);
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(10));
+		fail();
+
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(29));
+		assertThatThrownBy(() -> call(Mono.just("ok"))).isInstanceOf(RejectedExecutionException.class);
+		this.scheduler.advanceTimeBy(Duration.ofSeconds(1));
+		succeed();
+		assertThat(this.circuitBreaker.getState()).isEqualTo(State.CLOSED);
+	}
+
+	@Test
+	public void noneNeverOpens() {
+		for (int i = 0; i < 100; i++) {
+			Mono<String> failure = Mono.error(new IllegalStateException("unavailable"));
+			assertThatThrownBy(() -> CloudFoundryCircuitBreaker.NONE.protect(failure).block())
+					.isInstanceOf(IllegalStateException.class);
+		}
+		assertThat(CloudFoundryCircuitBreaker.NONE.getState()).isEqualTo(State.CLOSED);
+	}
+
+	private void open() {
+		for (int i = 0; i < 4; i++) {
+			fail();
+		}
+		assertThat(this.circuitBreaker.getState()).isEqualTo(State.OPEN);
+	}
+
+	private void succeed() {
+		assertThat(call(Mono.just("ok"))).isEqualTo("ok");
+	}
+
+	private void fail() {
+		fail(new IllegalStateException("unavailable"));
+	}
+
+	private void fail(RuntimeException failure) {
+		assertThatThrownBy(() -> call(Mono.error(failure))).isSameAs(failure);
+	}
+
+	private String call(Mono<String> call) {
+		return this.circuitBreaker.protect(call.doOnSubscribe(subscription -> this.calls.incrementAndGet())).block();
+	}
+
+}
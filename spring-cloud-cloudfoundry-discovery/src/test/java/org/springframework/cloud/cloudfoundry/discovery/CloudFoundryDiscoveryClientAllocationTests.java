@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.cloudfoundry.operations.CloudFoundryOperations;
+import org.cloudfoundry.operations.applications.ApplicationDetail;
+import org.cloudfoundry.operations.applications.InstanceDetail;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.util.function.Tuples;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.cloudfoundry.CloudFoundryService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class CloudFoundryDiscoveryClientAllocationTests {
+
+	private static final int LOOKUPS = 100_000;
+
+	private final CloudFoundryService svc = mock(CloudFoundryService.class);
+
+	private CloudFoundryDiscoveryClient client;
+
+	@BeforeEach
+	public void setUp() {
+		ApplicationDetail application = ApplicationDetail.builder().id("billing-id").name("billing").instances(3)
+				.memoryLimit(1024).stack("cflinux3").diskQuota(1024).requestedState("STARTED").runningInstances(3)
+				.url("billing.apps.example.com").build();
+		given(this.svc.getApplicationInstances("billing")).willReturn(Flux.range(0, 3)
+				.map(index -> Tuples.of(application, InstanceDetail.builder().index(String.valueOf(index)).build())));
+		this.client = new CloudFoundryDiscoveryClient(mock(CloudFoundryOperations.class), this.svc,
+				new CloudFoundryDiscoveryProperties());
+	}
+
+	@Test
+	public void cacheHitReturnsImmutableSnapshot() {
+		CloudFoundryDiscoveryLookupMetrics metrics = new CloudFoundryDiscoveryLookupMetrics();
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		metrics.bindTo(registry);
+		this.client.setLookupListener(metrics);
+
+		List<ServiceInstance> instances = this.client.getInstances("billing");
+
+		assertThat(instances).hasSize(3);
+		assertThat(this.client.getInstances("billing")).isSameAs(instances);
+		assertThatThrownBy(() -> instances.remove(0)).isInstanceOf(UnsupportedOperationException.class);
+		assertThat(registry.get("cloudfoundry.discovery.lookups").tag("outcome", "SUCCESS").timer().count())
+				.isEqualTo(2);
+	}
+
+	@Test
+	public void cacheHitDoesNotAllocate() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		int size = 0;
+		for (int i = 0; i < LOOKUPS; i++) {
+			size += this.client.getInstances("billing").size();
+		}
+
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < LOOKUPS; i++) {
+			size += this.client.getInstances("billing").size();
+		}
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+		assertThat(size).isEqualTo(2 * LOOKUPS * 3);
+		assertThat(allocated).as("bytes allocated by %s cached lookups", LOOKUPS).isLessThan(1024);
+	}
+
+}
@@ -16,8 +16,14 @@
 
 package org.springframework.cloud.cloudfoundry.discovery;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -25,19 +31,27 @@ import org.cloudfoundry.operations.CloudFoundryOperations;
 import org.cloudfoundry.operations.applications.ApplicationDetail;
 import org.cloudfoundry.operations.applications.ApplicationSummary;
 import org.cloudfoundry.operations.applications.Applications;
+import org.cloudfoundry.operations.applications.GetApplicationRequest;
 import org.cloudfoundry.operations.applications.InstanceDetail;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
 
 import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.cloudfoundry.CloudFoundryCatalogLoader;
 import org.springframework.cloud.cloudfoundry.CloudFoundryService;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 /**
  * @author Josh Long
@@ -89,4 +103,167 @@ public class CloudFoundryDiscoveryClientTest {
 		assertThat(instances.get(0).getInstanceId()).as("Wrong instance ID").isEqualTo("id.0");
 	}
 
+	@Test
+	public void testInstancesFromBulkCatalog() {
+		ApplicationDetail applicationDetail = ApplicationDetail.builder().instances(1).name("my-app").stack("stack")
+				.memoryLimit(1024).id("id").requestedState("STARTED").runningInstances(1).url("my-app.cfapps.io")
+				.diskQuota(20).build();
+		Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>> catalog = new HashMap<>();
+		catalog.put("my-app",
+				Collections.singletonList(Tuples.of(applicationDetail, InstanceDetail.builder().index("0").build())));
+		catalog.put("other-app", Collections.emptyList());
+		CloudFoundryCatalogLoader catalogLoader = mock(CloudFoundryCatalogLoader.class);
+		Mockito.when(catalogLoader.loadApplicationInstances()).thenReturn(Mono.just(catalog));
+		CloudFoundryDiscoveryProperties properties = new CloudFoundryDiscoveryProperties();
+		properties.getCache().setBulkLoad(true);
+		CloudFoundryDiscoveryClient client = new CloudFoundryDiscoveryClient(this.ops, this.svc, properties,
+				catalogLoader);
+
+		assertThat(client.getInstances("my-app")).extracting(ServiceInstance::getInstanceId).containsExactly("id.0");
+		assertThat(client.getInstances("other-app")).isEmpty();
+
+		verify(catalogLoader, times(1)).loadApplicationInstances();
+		verify(this.svc, never()).getApplicationInstances("my-app");
+	}
+
+	@Test
+	public void testInstancesFallBackToLastKnownWhenLookupTimesOut() {
+		CloudFoundryDiscoveryProperties properties = new CloudFoundryDiscoveryProperties();
+		properties.getCache().setEnabled(false);
+		properties.setRequestTimeout(Duration.ofMillis(100));
+		CloudFoundryDiscoveryClient client = new CloudFoundryDiscoveryClient(this.ops, this.svc, properties);
+		ApplicationDetail applicationDetail = ApplicationDetail.builder().instances(1).name("my-app").stack("stack")
+				.memoryLimit(1024).id("id").requestedState("STARTED").runningInstances(1).url("my-app.cfapps.io")
+				.diskQuota(20).build();
+		Mockito.when(this.svc.getApplicationInstances("my-app"))
+				.thenReturn(Flux.just(Tuples.of(applicationDetail, InstanceDetail.builder().index("0").build())))
+				.thenReturn(Flux.never());
+
+		assertThat(client.getInstances("my-app")).extracting(instance -> instance.getMetadata().get("stale"))
+				.containsNull();
+		List<ServiceInstance> stale = client.getInstances("my-app");
+
+		assertThat(stale).extracting(ServiceInstance::getInstanceId).containsExactly("id.0");
+		assertThat(stale.get(0).getMetadata()).containsEntry(CloudFoundryDiscoveryClient.STALE_METADATA_KEY, "true")
+				.containsEntry("applicationId", "id");
+		assertThat(client.getStaleInstancesCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void testInstancesServedFromLastKnownWhileCircuitBreakerIsOpen() {
+		CloudFoundryDiscoveryProperties properties = new CloudFoundryDiscoveryProperties();
+		properties.getCache().setEnabled(false);
+		properties.getCircuitBreaker().setEnabled(true);
+		properties.getCircuitBreaker().setSlidingWindowSize(2);
+		properties.getCircuitBreaker().setMinimumNumberOfCalls(2);
+		CloudFoundryDiscoveryClient client = new CloudFoundryDiscoveryClient(this.ops,
+				new CloudFoundryService(this.ops), properties);
+		client.setCircuitBreaker(new CloudFoundryCircuitBreaker(properties.getCircuitBreaker()));
+		ApplicationDetail applicationDetail = ApplicationDetail.builder().instances(1).name("my-app").stack("stack")
+				.memoryLimit(1024).id("id").requestedState("STARTED").runningInstances(1).url("my-app.cfapps.io")
+				.diskQuota(20).instanceDetails(InstanceDetail.builder().index("0").state("RUNNING").build()).build();
+		AtomicInteger calls = new AtomicInteger();
+		Applications apps = mock(Applications.class);
+		Mockito.when(apps.get(any(GetApplicationRequest.class))).thenReturn(Mono.just(applicationDetail))
+				.thenReturn(Mono.error(new IllegalStateException("unavailable")))
+				.thenReturn(Mono.<ApplicationDetail>never().doOnSubscribe(s -> calls.incrementAndGet()));
+		Mockito.when(this.ops.applications()).thenReturn(apps);
+
+		client.getInstances("my-app");
+		client.getInstances("my-app");
+		List<ServiceInstance> stale = client.getInstances("my-app");
+
+		assertThat(stale).extracting(ServiceInstance::getInstanceId).containsExactly("id.0");
+		assertThat(stale.get(0).getMetadata()).containsEntry(CloudFoundryDiscoveryClient.STALE_METADATA_KEY, "true");
+		assertThat(calls).hasValue(0);
+	}
+
+	@Test
+	public void testCircuitBreakerCountsASharedLookupOnce() {
+		CloudFoundryDiscoveryProperties properties = new CloudFoundryDiscoveryProperties();
+		properties.getCircuitBreaker().setEnabled(true);
+		CloudFoundryCircuitBreaker circuitBreaker = new CloudFoundryCircuitBreaker(properties.getCircuitBreaker());
+		CloudFoundryService service = new CloudFoundryService(this.ops);
+		CloudFoundryDiscoveryClient client = new CloudFoundryDiscoveryClient(this.ops, service, properties);
+		client.setCircuitBreaker(circuitBreaker);
+		Sinks.One<ApplicationDetail> response = Sinks.one();
+		Applications apps = mock(Applications.class);
+		Mockito.when(apps.get(any(GetApplicationRequest.class))).thenReturn(response.asMono());
+		Mockito.when(this.ops.applications()).thenReturn(apps);
+
+		client.loadInstances("my-app").onErrorResume(error -> Mono.empty()).subscribe();
+		client.loadInstances("my-app").onErrorResume(error -> Mono.empty()).subscribe();
+		response.tryEmitError(new IllegalStateException("unavailable"));
+
+		verify(apps, times(1)).get(any(GetApplicationRequest.class));
+		assertThat(circuitBreaker.getBufferedCalls()).isEqualTo(1);
+	}
+
+	@Test
+	public void testServicesFallBackToLastKnownWhenLookupFails() {
+		Applications apps = mock(Applications.class);
+		ApplicationSummary s = ApplicationSummary.builder().id("id").instances(1).memoryLimit(1024)
+				.requestedState("STARTED").diskQuota(1024).name(this.hiServiceServiceId).runningInstances(1).build();
+		Mockito.when(apps.list()).thenReturn(Flux.just(s))
+				.thenReturn(Flux.error(new IllegalStateException("unavailable")));
+		Mockito.when(this.ops.applications()).thenReturn(apps);
+
+		assertThat(this.cloudFoundryDiscoveryClient.getServices()).containsExactly(this.hiServiceServiceId);
+		assertThat(this.cloudFoundryDiscoveryClient.getServices()).containsExactly(this.hiServiceServiceId);
+		assertThat(this.cloudFoundryDiscoveryClient.getStaleServicesCount()).isEqualTo(1);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testServicesFailWithoutLastKnown() {
+		Applications apps = mock(Applications.class);
+		Mockito.when(apps.list()).thenReturn(Flux.error(new IllegalStateException("unavailable")));
+		Mockito.when(this.ops.applications()).thenReturn(apps);
+
+		this.cloudFoundryDiscoveryClient.getServices();
+	}
+
+	@Test
+	public void testBatchInstancesFromBulkCatalog() {
+		Map<String, List<Tuple2<ApplicationDetail, InstanceDetail>>> catalog = new HashMap<>();
+		for (String name : Arrays.asList("billing", "catalog", "orders")) {
+			ApplicationDetail applicationDetail = ApplicationDetail.builder().instances(1).name(name).stack("stack")
+					.memoryLimit(1024).id(name + "-id").requestedState("STARTED").runningInstances(1)
+					.url(name + ".cfapps.io").diskQuota(20).build();
+			catalog.put(name, Collections
+					.singletonList(Tuples.of(applicationDetail, InstanceDetail.builder().index("0").build())));
+		}
+		CloudFoundryCatalogLoader catalogLoader = mock(CloudFoundryCatalogLoader.class);
+		Mockito.when(catalogLoader.loadApplicationInstances()).thenReturn(Mono.just(catalog));
+		CloudFoundryDiscoveryProperties properties = new CloudFoundryDiscoveryProperties();
+		properties.getCache().setBulkLoad(true);
+		properties.setBatchConcurrency(1);
+		CloudFoundryDiscoveryClient client = new CloudFoundryDiscoveryClient(this.ops, this.svc, properties,
+				catalogLoader);
+
+		Map<String, List<ServiceInstance>> instances = client
+				.getInstances(Arrays.asList("billing", "orders", "unknown"));
+
+		assertThat(instances).containsOnlyKeys("billing", "orders", "unknown");
+		assertThat(instances.get("orders")).extracting(ServiceInstance::getInstanceId).containsExactly("orders-id.0");
+		assertThat(instances.get("unknown")).isEmpty();
+		verify(catalogLoader, times(1)).loadApplicationInstances();
+	}
+
+	@Test
+	public void testBatchInstancesLookUpEachService() {
+		for (String name : Arrays.asList("billing", "orders")) {
+			ApplicationDetail applicationDetail = ApplicationDetail.builder().instances(1).name(name).stack("stack")
+					.memoryLimit(1024).id(name + "-id").requestedState("STARTED").runningInstances(1)
+					.url(name + ".cfapps.io").diskQuota(20).build();
+			Mockito.when(this.svc.getApplicationInstances(name))
+					.thenReturn(Flux.just(Tuples.of(applicationDetail, InstanceDetail.builder().index("0").build())));
+		}
+
+		Map<String, List<ServiceInstance>> instances = this.cloudFoundryDiscoveryClient
+				.getInstances(Arrays.asList("billing", "orders"));
+
+		assertThat(instances.get("billing")).extracting(ServiceInstance::getInstanceId).containsExactly("billing-id.0");
+		assertThat(instances.get("orders")).extracting(ServiceInstance::getInstanceId).containsExactly("orders-id.0");
+	}
+
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.util.Collections;
+import java.util.List;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.cloudfoundry.operations.CloudFoundryOperations;
+import org.cloudfoundry.operations.applications.ApplicationSummary;
+import org.cloudfoundry.operations.applications.Applications;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import org.springframework.cloud.cloudfoundry.CloudFoundryService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class CloudFoundryDiscoveryLookupMetricsTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final CloudFoundryDiscoveryLookupMetrics metrics = new CloudFoundryDiscoveryLookupMetrics();
+
+	@BeforeEach
+	public void setUp() {
+		this.metrics.bindTo(this.registry);
+	}
+
+	@Test
+	public void timesBlockingLookups() {
+		CloudFoundryOperations operations = mock(CloudFoundryOperations.class);
+		Applications applications = mock(Applications.class);
+		given(operations.applications()).willReturn(applications);
+		given(applications.list())
+				.willReturn(Flux.just(ApplicationSummary.builder().id("billing-id").name("billing").instances(1)
+						.runningInstances(1).memoryLimit(1024).diskQuota(1024).requestedState("STARTED").build()))
+				.willReturn(Flux.error(new IllegalStateException("unavailable")));
+		CloudFoundryDiscoveryClient client = new CloudFoundryDiscoveryClient(operations,
+				mock(CloudFoundryService.class), new CloudFoundryDiscoveryProperties());
+		client.setLookupListener(this.metrics);
+
+		assertThat(client.getServices()).containsExactly("billing");
+		assertThat(client.getServices()).containsExactly("billing");
+
+		assertThat(count("CloudFoundryDiscoveryClient", "services", "SUCCESS")).isEqualTo(2);
+	}
+
+	@Test
+	public void timesReactiveLookupsOnSubscription() {
+		Flux<String> lookup = this.metrics.observe(this, CloudFoundryDiscoveryLookupListener.INSTANCES,
+				Flux.just("billing"));
+		assertThat(this.registry.find("cloudfoundry.discovery.lookups").timers()).isEmpty();
+
+		lookup.blockLast();
+		assertThatThrownBy(() -> this.metrics.observe(this, CloudFoundryDiscoveryLookupListener.INSTANCES,
+				Flux.error(new IllegalStateException("unavailable"))).blockLast())
+						.isInstanceOf(IllegalStateException.class);
+
+		String client = getClass().getSimpleName();
+		assertThat(count(client, "instances", "SUCCESS")).isEqualTo(1);
+		assertThat(count(client, "instances", "ERROR")).isEqualTo(1);
+	}
+
+	@Test
+	public void noListenerPassesLookupsThrough() {
+		Flux<String> lookup = Flux.just("billing");
+		List<String> instances = Collections.singletonList("billing");
+
+		assertThat(CloudFoundryDiscoveryLookupListener.NONE.observe(this, "instances", lookup)).isSameAs(lookup);
+		assertThat(CloudFoundryDiscoveryLookupListener.NONE.observe(this, "instances", () -> instances))
+				.isSameAs(instances);
+	}
+
+	private long count(String client, String lookup, String outcome) {
+		return this.registry.get("cloudfoundry.discovery.lookups").tag("client", client).tag("lookup", lookup)
+				.tag("outcome", outcome).timer().count();
+	}
+
+}
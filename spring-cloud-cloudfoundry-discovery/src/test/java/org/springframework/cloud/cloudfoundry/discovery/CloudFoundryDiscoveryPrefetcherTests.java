@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cloud.client.ServiceInstance;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class CloudFoundryDiscoveryPrefetcherTests {
+
+	private final List<Collection<String>> lookups = new ArrayList<>();
+
+	private final CloudFoundryDiscoveryProperties properties = new CloudFoundryDiscoveryProperties();
+
+	private final CloudFoundryDiscoveryPrefetcher prefetcher = new CloudFoundryDiscoveryPrefetcher(this::lookup,
+			() -> Mono.just(Arrays.asList("billing", "catalog")), this.properties);
+
+	@Test
+	public void prefetchesDeclaredServicesBeforeReady() {
+		this.properties.setPrefetch(Collections.singletonList("billing"));
+		this.properties.setPrefetchBeforeReady(true);
+
+		this.prefetcher.onApplicationEvent(mock(ApplicationReadyEvent.class));
+
+		assertThat(this.lookups).containsExactly(Collections.singleton("billing"));
+	}
+
+	@Test
+	public void prefetchesWholeCatalog() {
+		this.properties.setPrefetch(Collections.singletonList("orders"));
+		this.properties.setPrefetchCatalog(true);
+
+		assertThat(this.prefetcher.prefetch().block()).isEqualTo(3);
+		assertThat(this.lookups.get(0)).containsExactly("orders", "billing", "catalog");
+	}
+
+	@Test
+	public void doesNothingWhenNothingIsDeclared() {
+		this.prefetcher.onApplicationEvent(mock(ApplicationReadyEvent.class));
+
+		assertThat(this.lookups).isEmpty();
+	}
+
+	private Mono<Map<String, List<ServiceInstance>>> lookup(Collection<String> serviceIds) {
+		this.lookups.add(serviceIds);
+		Map<String, List<ServiceInstance>> instances = new LinkedHashMap<>();
+		serviceIds.forEach(serviceId -> instances.put(serviceId, Collections.emptyList()));
+		return Mono.just(instances);
+	}
+
+}
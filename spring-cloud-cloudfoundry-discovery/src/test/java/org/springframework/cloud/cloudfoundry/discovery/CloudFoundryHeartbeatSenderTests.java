@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cloudfoundry.operations.CloudFoundryOperations;
+import org.cloudfoundry.operations.applications.ApplicationSummary;
+import org.cloudfoundry.operations.applications.Applications;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+import org.springframework.cloud.cloudfoundry.CloudFoundryService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class CloudFoundryHeartbeatSenderTests {
+
+	private final List<Object> events = new ArrayList<>();
+
+	private Applications applications;
+
+	private CloudFoundryHeartbeatSender sender;
+
+	@BeforeEach
+	public void setUp() {
+		CloudFoundryOperations operations = mock(CloudFoundryOperations.class);
+		this.applications = mock(Applications.class);
+		given(operations.applications()).willReturn(this.applications);
+		CloudFoundryDiscoveryProperties properties = new CloudFoundryDiscoveryProperties();
+		properties.setRequestTimeout(Duration.ofMillis(200));
+		CloudFoundryDiscoveryClient client = new CloudFoundryDiscoveryClient(operations,
+				mock(CloudFoundryService.class), properties);
+		this.sender = new CloudFoundryHeartbeatSender(client);
+		this.sender.setApplicationEventPublisher(this.events::add);
+	}
+
+	@Test
+	public void publishesOnlyWhenCatalogChanges() {
+		given(this.applications.list()).willReturn(Flux.just(summary("billing", 2)))
+				.willReturn(Flux.just(summary("billing", 2))).willReturn(Flux.just(summary("billing", 3)));
+
+		this.sender.poll();
+		this.sender.poll();
+		this.sender.poll();
+
+		assertThat(this.events).hasSize(2);
+		assertThat(this.events).extracting(event -> ((HeartbeatEvent) event).getValue()).containsExactly(1L, 2L);
+		assertThat(this.sender.getStateVersion()).isEqualTo(2);
+	}
+
+	@Test
+	public void skipsPollThatTimesOut() {
+		given(this.applications.list()).willReturn(Flux.never()).willReturn(Flux.just(summary("billing", 2)));
+
+		this.sender.poll();
+
+		assertThat(this.events).isEmpty();
+		this.sender.poll();
+		assertThat(this.events).hasSize(1);
+	}
+
+	@Test
+	public void fingerprintIgnoresOrder() {
+		ApplicationSummary billing = summary("billing", 1);
+		ApplicationSummary catalog = summary("catalog", 1);
+
+		assertThat(CloudFoundryHeartbeatSender.fingerprint(Arrays.asList(billing, catalog)))
+				.isEqualTo(CloudFoundryHeartbeatSender.fingerprint(Arrays.asList(catalog, billing)));
+		assertThat(CloudFoundryHeartbeatSender.fingerprint(Arrays.asList(billing)))
+				.isNotEqualTo(CloudFoundryHeartbeatSender.fingerprint(Arrays.asList(billing, catalog)));
+	}
+
+	private static ApplicationSummary summary(String name, int runningInstances) {
+		return ApplicationSummary.builder().id(name + "-id").name(name).instances(3).runningInstances(runningInstances)
+				.memoryLimit(1024).diskQuota(1024).requestedState("STARTED").url(name + ".apps.internal").build();
+	}
+
+}
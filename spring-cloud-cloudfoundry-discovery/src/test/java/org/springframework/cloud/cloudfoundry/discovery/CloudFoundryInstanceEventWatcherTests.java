@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cloudfoundry.doppler.ContainerMetricsRequest;
+import org.cloudfoundry.doppler.DopplerClient;
+import org.cloudfoundry.doppler.Envelope;
+import org.cloudfoundry.doppler.EventType;
+import org.cloudfoundry.doppler.FirehoseRequest;
+import org.cloudfoundry.doppler.LogMessage;
+import org.cloudfoundry.doppler.MessageType;
+import org.cloudfoundry.doppler.RecentLogsRequest;
+import org.cloudfoundry.doppler.StreamRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CloudFoundryInstanceEventWatcherTests {
+
+	private final FakeDopplerClient doppler = new FakeDopplerClient();
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	private ServiceInstanceCache cache;
+
+	private CloudFoundryInstanceEventWatcher watcher;
+
+	@BeforeEach
+	public void setUp() {
+		this.cache = new ServiceInstanceCache(serviceId -> {
+			this.loads.incrementAndGet();
+			return Mono.just(Arrays.asList(instance("0"), instance("1")));
+		}, Duration.ofMinutes(5));
+		this.cache.get("billing").block();
+		this.watcher = new CloudFoundryInstanceEventWatcher(this.doppler, this.cache);
+		this.watcher.watchDiscoveredApplications();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		this.watcher.destroy();
+	}
+
+	@Test
+	public void crashEvictsInstanceAndHealthRestoresIt() {
+		this.doppler.emit("billing-id",
+				logMessage("API", "0",
+						"App instance exited with guid billing-id payload: {\"instance\"=>\"abc\", \"index\"=>1, "
+								+ "\"reason\"=>\"CRASHED\", \"exit_description\"=>\"out of memory\"}"));
+
+		assertThat(instanceIds()).containsExactly("0");
+
+		this.doppler.emit("billing-id", logMessage("CELL", "1", "Container became healthy"));
+
+		assertThat(instanceIds()).containsExactly("0", "1");
+		assertThat(this.loads).hasValue(1);
+	}
+
+	@Test
+	public void stoppingInstanceIsEvicted() {
+		this.doppler.emit("billing-id", logMessage("CELL", "0", "Cell 1234 stopping instance abc"));
+
+		assertThat(instanceIds()).containsExactly("1");
+	}
+
+	@Test
+	public void otherMessagesAreIgnored() {
+		this.doppler.emit("billing-id", logMessage("APP/PROC/WEB", "0", "exited with \"reason\"=>\"CRASHED\""));
+
+		assertThat(instanceIds()).containsExactly("0", "1");
+	}
+
+	@Test
+	public void stopsWatchingApplicationsThatAreGone() {
+		assertThat(this.doppler.subscribers("billing-id")).isEqualTo(1);
+
+		this.cache.clear();
+		this.watcher.watchDiscoveredApplications();
+
+		assertThat(this.doppler.subscribers("billing-id")).isZero();
+	}
+
+	@Test
+	public void watchesAgainWhenStreamIsClosed() throws InterruptedException {
+		this.doppler.complete("billing-id");
+		assertThat(this.doppler.subscribers("billing-id")).isZero();
+
+		for (int i = 0; i < 50 && this.doppler.subscribers("billing-id") == 0; i++) {
+			Thread.sleep(100);
+		}
+
+		assertThat(this.doppler.subscribers("billing-id")).isEqualTo(1);
+		this.doppler.emit("billing-id", logMessage("CELL", "0", "Cell 1234 stopping instance abc"));
+		assertThat(instanceIds()).containsExactly("1");
+	}
+
+	@Test
+	public void backoffStartsOverOnceTheStreamDeliversEvents() {
+		VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+		this.watcher.destroy();
+		this.watcher = new CloudFoundryInstanceEventWatcher(this.doppler, this.cache, scheduler);
+		this.watcher.watchDiscoveredApplications();
+		for (int seconds : new int[] { 1, 2, 4, 8, 16, 32, 60, 60 }) {
+			this.doppler.complete("billing-id");
+			scheduler.advanceTimeBy(Duration.ofSeconds(seconds).minusMillis(1));
+			assertThat(this.doppler.subscribers("billing-id")).isZero();
+			scheduler.advanceTimeBy(Duration.ofMillis(1));
+			assertThat(this.doppler.subscribers("billing-id")).isEqualTo(1);
+		}
+
+		this.doppler.emit("billing-id", logMessage("APP/PROC/WEB", "0", "request served"));
+		this.doppler.complete("billing-id");
+		scheduler.advanceTimeBy(Duration.ofSeconds(1));
+
+		assertThat(this.doppler.subscribers("billing-id")).isEqualTo(1);
+	}
+
+	private List<String> instanceIds() {
+		return this.cache.get("billing").map(instances -> {
+			String[] ids = instances.stream().map(instance -> instance.getMetadata().get("instanceId"))
+					.toArray(String[]::new);
+			return Arrays.asList(ids);
+		}).block();
+	}
+
+	private static ServiceInstance instance(String index) {
+		Map<String, String> metadata = new HashMap<>();
+		metadata.put("applicationId", "billing-id");
+		metadata.put("instanceId", index);
+		return new DefaultServiceInstance("billing-id." + index, "billing", "billing.apps.internal", 80, false,
+				metadata);
+	}
+
+	private static Envelope logMessage(String sourceType, String sourceInstance, String message) {
+		return Envelope.builder().eventType(EventType.LOG_MESSAGE).origin("rep")
+				.logMessage(LogMessage.builder().applicationId("billing-id").sourceType(sourceType)
+						.sourceInstance(sourceInstance).message(message).messageType(MessageType.OUT).timestamp(0L)
+						.build())
+				.build();
+	}
+
+	static class FakeDopplerClient implements DopplerClient {
+
+		private final Map<String, Sinks.Many<Envelope>> streams = new ConcurrentHashMap<>();
+
+		void emit(String applicationId, Envelope envelope) {
+			sink(applicationId).tryEmitNext(envelope);
+		}
+
+		void complete(String applicationId) {
+			Sinks.Many<Envelope> sink = this.streams.remove(applicationId);
+			if (sink != null) {
+				sink.tryEmitComplete();
+			}
+		}
+
+		int subscribers(String applicationId) {
+			return sink(applicationId).currentSubscriberCount();
+		}
+
+		private Sinks.Many<Envelope> sink(String applicationId) {
+			return this.streams.computeIfAbsent(applicationId, id -> Sinks.many().multicast().directBestEffort());
+		}
+
+		@Override
+		public Flux<Envelope> stream(StreamRequest request) {
+			return sink(request.getApplicationId()).asFlux();
+		}
+
+		@Override
+		public Flux<Envelope> containerMetrics(ContainerMetricsRequest request) {
+			return Flux.empty();
+		}
+
+		@Override
+		public Flux<Envelope> firehose(FirehoseRequest request) {
+			return Flux.empty();
+		}
+
+		@Override
+		public Flux<Envelope> recentLogs(RecentLogsRequest request) {
+			return Flux.empty();
+		}
+
+	}
+
+}
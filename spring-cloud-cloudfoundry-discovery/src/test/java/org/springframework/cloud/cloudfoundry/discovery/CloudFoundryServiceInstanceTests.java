@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cloudfoundry.operations.applications.ApplicationDetail;
+import org.cloudfoundry.operations.applications.InstanceDetail;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.cloud.client.ServiceInstance;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CloudFoundryServiceInstanceTests {
+
+	private static final int INSTANCES = 10_000;
+
+	private final ApplicationDetail application = ApplicationDetail.builder().id("billing-id").name("billing")
+			.instances(INSTANCES).memoryLimit(1024).stack("cflinux3").diskQuota(1024).requestedState("STARTED")
+			.runningInstances(INSTANCES).urls("https://billing.apps.example.com", "billing.apps.internal").build();
+
+	@Test
+	public void exposesApplicationInstance() {
+		ServiceInstance instance = CloudFoundryServiceInstance.of(this.application, instance(3));
+
+		assertThat(instance.getInstanceId()).isEqualTo("billing-id.3");
+		assertThat(instance.getServiceId()).isEqualTo("billing");
+		assertThat(instance.getHost()).isEqualTo("https://billing.apps.example.com");
+		assertThat(instance.getPort()).isEqualTo(443);
+		assertThat(instance.isSecure()).isTrue();
+		Map<String, String> metadata = new HashMap<>();
+		metadata.put("applicationId", "billing-id");
+		metadata.put("instanceId", "3");
+		assertThat(instance.getMetadata()).isEqualTo(metadata).containsEntry("instanceId", "3")
+				.doesNotContainKey("stale");
+	}
+
+	@Test
+	public void exposesInternalRouteInstance() {
+		CloudFoundryDiscoveryProperties.ServicePort port = new CloudFoundryDiscoveryProperties.ServicePort();
+		ServiceInstance instance = CloudFoundryServiceInstance.ofInternalRoute(this.application, instance(1),
+				"billing.apps.internal", port);
+
+		assertThat(instance.getInstanceId()).isNull();
+		assertThat(instance.getUri()).isEqualTo(URI.create("http://1.billing.apps.internal:8080"));
+		assertThat(instance).isEqualTo(CloudFoundryServiceInstance.ofInternalRoute(this.application, instance(1),
+				"billing.apps.internal", port));
+		assertThat(instance).isNotEqualTo(CloudFoundryServiceInstance.ofInternalRoute(this.application, instance(2),
+				"billing.apps.internal", port));
+	}
+
+	@Test
+	public void instancesShareTheirStrings() {
+		ApplicationDetail refreshed = ApplicationDetail.builder().from(this.application)
+				.name(new String("billing".toCharArray())).build();
+
+		CloudFoundryServiceInstance first = CloudFoundryServiceInstance.of(this.application, instance(0));
+		CloudFoundryServiceInstance second = CloudFoundryServiceInstance.of(refreshed, instance(0));
+
+		assertThat(second.getServiceId()).isSameAs(first.getServiceId());
+		assertThat(second.getHost()).isSameAs(first.getHost());
+		assertThat(second.getMetadata().get("instanceId")).isSameAs(first.getMetadata().get("instanceId"));
+	}
+
+	@Test
+	public void instanceIdAndMetadataAreNotRebuiltOnEveryCall() {
+		ServiceInstance instance = CloudFoundryServiceInstance.of(this.application, instance(3));
+
+		assertThat(instance.getInstanceId()).isSameAs(instance.getInstanceId());
+		assertThat(instance.getMetadata()).isSameAs(instance.getMetadata());
+		assertThat(instance.getMetadata().entrySet()).hasSize(2).extracting(Map.Entry::getKey)
+				.containsExactly("applicationId", "instanceId");
+		assertThat(new HashMap<>(instance.getMetadata())).isEqualTo(instance.getMetadata());
+	}
+
+	@Test
+	public void successiveSnapshotsShareEveryField() {
+		ApplicationDetail refreshed = ApplicationDetail.builder().from(this.application)
+				.id(new String("billing-id".toCharArray())).name(new String("billing".toCharArray())).urls(Arrays
+						.asList(new String("https://billing.apps.example.com".toCharArray()), "billing.apps.internal"))
+				.build();
+
+		CloudFoundryServiceInstance first = CloudFoundryServiceInstance.of(this.application, instance(7));
+		CloudFoundryServiceInstance second = CloudFoundryServiceInstance.of(refreshed, instance(7));
+
+		assertThat(second.getInstanceId()).isEqualTo("billing-id.7").isSameAs(first.getInstanceId());
+		assertThat(second.getServiceId()).isSameAs(first.getServiceId());
+		assertThat(second.getHost()).isSameAs(first.getHost());
+		assertThat(second.getMetadata().get("applicationId")).isSameAs(first.getMetadata().get("applicationId"));
+		assertThat(second.getMetadata().get("instanceId")).isSameAs(first.getMetadata().get("instanceId"));
+	}
+
+	private static InstanceDetail instance(int index) {
+		return InstanceDetail.builder().index(String.valueOf(index)).state("RUNNING").build();
+	}
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DnsResolverTests {
+
+	private final ServiceInstanceCacheTests.MutableClock clock = new ServiceInstanceCacheTests.MutableClock();
+
+	private final CloudFoundryDiscoveryProperties.Dns properties = new CloudFoundryDiscoveryProperties.Dns();
+
+	private TestDnsServer dnsServer;
+
+	private DnsResolver resolver;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		this.dnsServer = new TestDnsServer().addresses("billing.apps.internal", "10.0.0.1").ttl(30);
+		this.properties.setNameservers(Collections.singletonList(this.dnsServer.nameserver()));
+		this.properties.setQueryTimeout(Duration.ofSeconds(1));
+		this.properties.setMinTtl(Duration.ofSeconds(5));
+		this.properties.setMaxTtl(Duration.ofSeconds(60));
+		this.properties.setNegativeTtl(Duration.ofSeconds(2));
+		this.resolver = new DnsResolver(this.properties, this.clock);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		this.resolver.destroy();
+		this.dnsServer.close();
+	}
+
+	@Test
+	public void cachesAnswerForRecordTtl() {
+		assertThat(resolve("billing.apps.internal")).containsExactly("10.0.0.1");
+		this.clock.advance(Duration.ofSeconds(20));
+		assertThat(resolve("billing.apps.internal")).containsExactly("10.0.0.1");
+		assertThat(this.dnsServer.getQueryCount()).isEqualTo(1);
+
+		this.clock.advance(Duration.ofSeconds(11));
+		assertThat(resolve("billing.apps.internal")).containsExactly("10.0.0.1");
+		assertThat(this.dnsServer.getQueryCount()).isEqualTo(2);
+	}
+
+	@Test
+	public void boundsRecordTtlByMinimum() {
+		this.dnsServer.ttl(0);
+		resolve("billing.apps.internal");
+		this.clock.advance(Duration.ofSeconds(3));
+		resolve("billing.apps.internal");
+		assertThat(this.dnsServer.getQueryCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void cachesUnknownHostForNegativeTtl() {
+		StepVerifier.create(this.resolver.resolveAll("unknown.apps.internal")).expectError(UnknownHostException.class)
+				.verify();
+		StepVerifier.create(this.resolver.resolveAll("unknown.apps.internal")).expectError(UnknownHostException.class)
+				.verify();
+		assertThat(this.dnsServer.getQueryCount()).isEqualTo(1);
+
+		this.clock.advance(Duration.ofSeconds(3));
+		this.dnsServer.addresses("unknown.apps.internal", "10.0.0.9");
+		assertThat(resolve("unknown.apps.internal")).containsExactly("10.0.0.9");
+	}
+
+	@Test
+	public void refreshesInBackgroundBeforeExpiry() throws Exception {
+		resolve("billing.apps.internal");
+		this.dnsServer.addresses("billing.apps.internal", "10.0.0.2");
+		this.clock.advance(Duration.ofSeconds(25));
+
+		assertThat(resolve("billing.apps.internal")).containsExactly("10.0.0.1");
+		for (int i = 0; i < 100 && !resolve("billing.apps.internal")[0].equals("10.0.0.2"); i++) {
+			Thread.sleep(20);
+		}
+		assertThat(resolve("billing.apps.internal")).containsExactly("10.0.0.2");
+		assertThat(this.dnsServer.getQueryCount()).isEqualTo(2);
+	}
+
+	@Test
+	public void cancelledQueriesFreeTheirSlot() {
+		this.properties.setMaxConcurrentQueries(1);
+		DnsResolver resolver = new DnsResolver(this.properties, this.clock);
+		AtomicInteger started = new AtomicInteger();
+		try {
+			Disposable running = resolver.limit(() -> Mono.never().doOnSubscribe(s -> started.incrementAndGet()))
+					.subscribe();
+			Disposable queued = resolver.limit(() -> Mono.never().doOnSubscribe(s -> started.incrementAndGet()))
+					.subscribe();
+
+			queued.dispose();
+			running.dispose();
+
+			assertThat(resolver.limit(() -> Mono.just("answer")).block(Duration.ofSeconds(1))).isEqualTo("answer");
+			assertThat(started).hasValue(1);
+		}
+		finally {
+			resolver.destroy();
+		}
+	}
+
+	private String[] resolve(String hostname) {
+		return this.resolver.resolveAll(hostname).block().stream().map(InetAddress::getHostAddress)
+				.toArray(String[]::new);
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryDiscoveryProperties.ServicePort;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DnsServiceInstanceResolverTests {
+
+	private final CloudFoundryDiscoveryProperties properties = new CloudFoundryDiscoveryProperties();
+
+	private TestDnsServer dnsServer;
+
+	private DnsResolver dnsResolver;
+
+	private DnsServiceInstanceResolver resolver;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		this.dnsServer = new TestDnsServer().addresses("billing.apps.internal", "10.0.0.1")
+				.addresses("catalog.apps.internal", "10.0.0.2")
+				.srv("catalog.apps.internal", 10, 0, 9001, "1.catalog.apps.internal")
+				.srv("catalog.apps.internal", 0, 0, 9000, "0.catalog.apps.internal")
+				.addresses("0.catalog.apps.internal", "10.0.1.1").addresses("1.catalog.apps.internal", "10.0.1.2")
+				.txt("catalog.apps.internal", "scheme=https", "zone=z1");
+		this.properties.getDns().setNameservers(Collections.singletonList(this.dnsServer.nameserver()));
+		this.properties.getDns().setQueryTimeout(Duration.ofSeconds(1));
+		this.dnsResolver = new DnsResolver(this.properties.getDns());
+		this.resolver = new DnsServiceInstanceResolver(this.dnsResolver, this.properties);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		this.dnsResolver.destroy();
+		this.dnsServer.close();
+	}
+
+	@Test
+	public void usesDefaultPortWithoutSrvLookup() {
+		List<ServiceInstance> instances = getInstances("catalog");
+
+		assertThat(instances).extracting(ServiceInstance::getHost).containsExactly("10.0.0.2");
+		assertThat(instances).extracting(ServiceInstance::getPort).containsExactly(8080);
+		assertThat(instances).extracting(ServiceInstance::isSecure).containsExactly(false);
+	}
+
+	@Test
+	public void usesConfiguredServicePort() {
+		ServicePort servicePort = new ServicePort();
+		servicePort.setPort(9443);
+		servicePort.setSecure(true);
+		this.properties.getPorts().put("billing", servicePort);
+
+		List<ServiceInstance> instances = getInstances("billing");
+
+		assertThat(instances).extracting(ServiceInstance::getPort).containsExactly(9443);
+		assertThat(instances).extracting(ServiceInstance::isSecure).containsExactly(true);
+	}
+
+	@Test
+	public void usesSrvAndTxtRecords() {
+		this.properties.getDns().setSrvLookup(true);
+
+		List<ServiceInstance> instances = getInstances("catalog");
+
+		assertThat(instances).extracting(ServiceInstance::getHost).containsExactly("10.0.1.1", "10.0.1.2");
+		assertThat(instances).extracting(ServiceInstance::getPort).containsExactly(9000, 9001);
+		assertThat(instances).extracting(ServiceInstance::isSecure).containsExactly(true, true);
+		assertThat(instances.get(0).getMetadata()).containsEntry("zone", "z1");
+	}
+
+	@Test
+	public void fallsBackToAddressesWithoutSrvRecords() {
+		this.properties.getDns().setSrvLookup(true);
+
+		List<ServiceInstance> instances = getInstances("billing");
+
+		assertThat(instances).extracting(ServiceInstance::getHost).containsExactly("10.0.0.1");
+		assertThat(instances).extracting(ServiceInstance::getPort).containsExactly(8080);
+	}
+
+	@Test
+	public void unknownHostHasNoInstances() {
+		this.properties.getDns().setSrvLookup(true);
+
+		assertThat(getInstances("unknown")).isEmpty();
+	}
+
+	private List<ServiceInstance> getInstances(String serviceId) {
+		return this.resolver.getInstances(serviceId, serviceId + ".apps.internal").collectList().block();
+	}
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ServiceInstanceCacheTests {
+
+	private final MutableClock clock = new MutableClock();
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@Test
+	public void missLoadsAndCachesInstances() {
+		ServiceInstanceCache cache = new ServiceInstanceCache(this::load, Duration.ofSeconds(30), this.clock);
+
+		assertThat(cache.get("billing").block()).extracting(ServiceInstance::getInstanceId).containsExactly("1");
+		assertThat(cache.get("billing").block()).extracting(ServiceInstance::getInstanceId).containsExactly("1");
+
+		assertThat(this.loads).hasValue(1);
+		assertThat(cache.getMissCount()).isEqualTo(1);
+		assertThat(cache.getHitCount()).isEqualTo(1);
+		assertThat(cache.getRefreshCount()).isZero();
+		assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void staleHitReturnsSnapshotAndRefreshesInBackground() {
+		ServiceInstanceCache cache = new ServiceInstanceCache(this::load, Duration.ofSeconds(30), this.clock);
+		cache.get("billing").block();
+
+		this.clock.advance(Duration.ofSeconds(31));
+
+		assertThat(cache.get("billing").block()).extracting(ServiceInstance::getInstanceId).containsExactly("1");
+		assertThat(cache.get("billing").block()).extracting(ServiceInstance::getInstanceId).containsExactly("2");
+		assertThat(cache.getRefreshCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void onlyOneRefreshRunsAtATime() {
+		Sinks.One<List<ServiceInstance>> pending = Sinks.one();
+		AtomicInteger calls = new AtomicInteger();
+		ServiceInstanceCache cache = new ServiceInstanceCache(
+				serviceId -> calls.incrementAndGet() == 1 ? load(serviceId) : pending.asMono(), Duration.ofSeconds(1),
+				this.clock);
+		cache.get("billing").block();
+		this.clock.advance(Duration.ofSeconds(2));
+
+		cache.get("billing").block();
+		cache.get("billing").block();
+		cache.get("billing").block();
+
+		assertThat(calls).hasValue(2);
+		assertThat(cache.getRefreshCount()).isEqualTo(1);
+		pending.tryEmitValue(Collections.emptyList());
+		assertThat(cache.get("billing").block()).isEmpty();
+	}
+
+	@Test
+	public void failedRefreshKeepsSnapshot() {
+		AtomicInteger calls = new AtomicInteger();
+		ServiceInstanceCache cache = new ServiceInstanceCache(serviceId -> calls.incrementAndGet() == 1
+				? load(serviceId) : Mono.error(new IllegalStateException("unavailable")), Duration.ofSeconds(1),
+				this.clock);
+		cache.get("billing").block();
+		this.clock.advance(Duration.ofSeconds(2));
+
+		assertThat(cache.get("billing").block()).hasSize(1);
+		assertThat(cache.get("billing").block()).hasSize(1);
+	}
+
+	@Test
+	public void snapshotOlderThanMaxStalenessIsReloadedBeforeItIsServed() {
+		ServiceInstanceCache cache = new ServiceInstanceCache(this::load, Duration.ofSeconds(1), this.clock);
+		cache.setMaxStaleness(Duration.ofSeconds(10));
+		cache.get("billing").block();
+
+		this.clock.advance(Duration.ofSeconds(10));
+
+		assertThat(cache.getIfPresent("billing")).isNull();
+		assertThat(cache.get("billing").block()).extracting(ServiceInstance::getInstanceId).containsExactly("2");
+		assertThat(cache.getMissCount()).isEqualTo(2);
+	}
+
+	@Test
+	public void snapshotIsServedPastMaxStalenessWhileRefreshesFail() {
+		AtomicInteger calls = new AtomicInteger();
+		ServiceInstanceCache cache = new ServiceInstanceCache(serviceId -> (calls.incrementAndGet() == 1)
+				? load(serviceId) : Mono.error(new IllegalStateException("unavailable")), Duration.ofSeconds(1),
+				this.clock);
+		cache.setMaxStaleness(Duration.ofSeconds(10));
+		cache.get("billing").block();
+
+		for (int i = 0; i < 3; i++) {
+			this.clock.advance(Duration.ofSeconds(10));
+			assertThat(cache.get("billing").block()).extracting(ServiceInstance::getInstanceId).containsExactly("1");
+		}
+
+		assertThat(cache.getIfPresent("billing")).extracting(ServiceInstance::getInstanceId).containsExactly("1");
+		assertThat(calls).hasValueGreaterThan(2);
+	}
+
+	@Test
+	public void refreshThatFindsApplicationGoneDropsSnapshot() {
+		AtomicInteger calls = new AtomicInteger();
+		ServiceInstanceCache cache = new ServiceInstanceCache(
+				serviceId -> (calls.incrementAndGet() == 1) ? load(serviceId)
+						: Mono.error(new IllegalArgumentException("Application billing does not exist")),
+				Duration.ofSeconds(1), this.clock);
+		cache.get("billing").block();
+		this.clock.advance(Duration.ofSeconds(2));
+
+		assertThat(cache.get("billing").block()).hasSize(1);
+
+		assertThat(cache.size()).isZero();
+		assertThat(cache.getIfPresent("billing")).isNull();
+	}
+
+	@Test
+	public void catalogLoadFillsEveryService() {
+		AtomicInteger catalogLoads = new AtomicInteger();
+		ServiceInstanceCache cache = ServiceInstanceCache.ofCatalog(() -> {
+			catalogLoads.incrementAndGet();
+			Map<String, List<ServiceInstance>> catalog = new HashMap<>();
+			catalog.put("billing", load("billing").block());
+			catalog.put("catalog", load("catalog").block());
+			return Mono.just(catalog);
+		}, Duration.ofSeconds(30), this.clock);
+
+		assertThat(cache.get("billing").block()).extracting(ServiceInstance::getServiceId).containsExactly("billing");
+		assertThat(cache.get("catalog").block()).extracting(ServiceInstance::getServiceId).containsExactly("catalog");
+		assertThat(cache.get("unknown").block()).isEmpty();
+
+		assertThat(catalogLoads).hasValue(2);
+		assertThat(cache.getHitCount()).isEqualTo(1);
+		assertThat(cache.size()).isEqualTo(3);
+	}
+
+	@Test
+	public void getAllLoadsCatalogOnceForEveryMiss() {
+		AtomicInteger catalogLoads = new AtomicInteger();
+		ServiceInstanceCache cache = ServiceInstanceCache.ofCatalog(() -> {
+			catalogLoads.incrementAndGet();
+			return Mono.just(Collections.singletonMap("billing", load("billing").block()));
+		}, Duration.ofSeconds(30), this.clock);
+
+		Map<String, List<ServiceInstance>> instances = cache.getAll(Arrays.asList("billing", "unknown"), 4).block();
+
+		assertThat(instances).containsOnlyKeys("billing", "unknown");
+		assertThat(instances.get("unknown")).isEmpty();
+		assertThat(cache.get("unknown").block()).isEmpty();
+		assertThat(catalogLoads).hasValue(1);
+	}
+
+	@Test
+	public void snapshotAgeIsThatOfTheOldestSnapshot() {
+		ServiceInstanceCache cache = new ServiceInstanceCache(this::load, Duration.ofMinutes(5), this.clock);
+		assertThat(cache.getSnapshotAge()).isZero();
+
+		cache.get("billing").block();
+		this.clock.advance(Duration.ofSeconds(20));
+		cache.get("catalog").block();
+		this.clock.advance(Duration.ofSeconds(10));
+
+		assertThat(cache.getSnapshotAge()).isEqualTo(Duration.ofSeconds(30));
+	}
+
+	private Mono<List<ServiceInstance>> load(String serviceId) {
+		String instanceId = String.valueOf(this.loads.incrementAndGet());
+		return Mono.just(Collections.singletonList(
+				new DefaultServiceInstance(instanceId, serviceId, "billing.apps.internal", 8080, false)));
+	}
+
+	static class MutableClock extends Clock {
+
+		private Instant instant = Instant.parse("2022-01-01T00:00:00Z");
+
+		void advance(Duration duration) {
+			this.instant = this.instant.plus(duration);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return this.instant;
+		}
+
+	}
+
+}
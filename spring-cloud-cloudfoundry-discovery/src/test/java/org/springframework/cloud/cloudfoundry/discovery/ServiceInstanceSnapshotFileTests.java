@@ -0,0 +1,194 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cloudfoundry.operations.applications.ApplicationDetail;
+import org.cloudfoundry.operations.applications.InstanceDetail;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.cloudfoundry.discovery.ServiceInstanceCacheTests.MutableClock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class ServiceInstanceSnapshotFileTests {
+
+	private final MutableClock clock = new MutableClock();
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	private final CloudFoundryDiscoveryProperties.Snapshot properties = new CloudFoundryDiscoveryProperties.Snapshot();
+
+	@TempDir
+	Path directory;
+
+	private Path path;
+
+	@BeforeEach
+	public void setUp() {
+		this.path = this.directory.resolve("discovery.snapshot");
+		this.properties.setPath(this.path.toFile());
+	}
+
+	@Test
+	public void restoresWrittenSnapshotWithoutLoading() {
+		ServiceInstanceCache cache = cache();
+		cache.get("billing").block();
+		cache.get("catalog").block();
+		new ServiceInstanceSnapshotFile(cache, this.properties, this.clock).write();
+
+		ServiceInstanceCache restored = cache();
+		assertThat(new ServiceInstanceSnapshotFile(restored, this.properties, this.clock).restore()).isTrue();
+
+		assertThat(restored.snapshot()).isEqualTo(cache.snapshot());
+		ServiceInstance instance = restored.get("billing").block().get(0);
+		assertThat(instance.getHost()).isEqualTo("billing.apps.internal");
+		assertThat(instance.getPort()).isEqualTo(8080);
+		assertThat(instance.isSecure()).isTrue();
+		assertThat(instance.getMetadata()).containsEntry("applicationId", "billing-id").containsEntry("zone", null);
+		assertThat(this.loads).hasValue(2);
+	}
+
+	@Test
+	public void restoresCloudFoundryInstancesInTheirCompactForm() {
+		ApplicationDetail application = ApplicationDetail.builder().id("billing-id").name("billing").instances(1)
+				.memoryLimit(1024).stack("cflinux3").diskQuota(1024).requestedState("STARTED").runningInstances(1)
+				.url("https://billing.apps.example.com").build();
+		CloudFoundryServiceInstance instance = CloudFoundryServiceInstance.of(application,
+				InstanceDetail.builder().index("0").build());
+		ServiceInstanceCache cache = cache();
+		cache.putAll(Collections.singletonMap("billing", Collections.singletonList(instance)));
+		new ServiceInstanceSnapshotFile(cache, this.properties, this.clock).write();
+
+		ServiceInstanceCache restored = cache();
+		assertThat(new ServiceInstanceSnapshotFile(restored, this.properties, this.clock).restore()).isTrue();
+
+		ServiceInstance restoredInstance = restored.getIfPresent("billing").get(0);
+		assertThat(restoredInstance).isInstanceOf(CloudFoundryServiceInstance.class).isEqualTo(instance);
+		assertThat(restoredInstance.getInstanceId()).isEqualTo("billing-id.0");
+		assertThat(restoredInstance.getServiceId()).isSameAs(instance.getServiceId());
+	}
+
+	@Test
+	public void startupRefreshesRestoredServicesInBackground() throws Exception {
+		ServiceInstanceCache cache = cache();
+		cache.get("billing").block();
+		new ServiceInstanceSnapshotFile(cache, this.properties, this.clock).write();
+
+		ServiceInstanceCache restored = cache();
+		new ServiceInstanceSnapshotFile(restored, this.properties, this.clock).afterPropertiesSet();
+
+		assertThat(this.loads).hasValue(2);
+		assertThat(restored.getRefreshCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void snapshotOlderThanMaxAgeIsIgnored() {
+		ServiceInstanceCache cache = cache();
+		cache.get("billing").block();
+		this.clock.advance(Duration.ofMinutes(2));
+		new ServiceInstanceSnapshotFile(cache, this.properties, this.clock).write();
+		this.clock.advance(Duration.ofMinutes(9));
+
+		ServiceInstanceCache restored = cache();
+		assertThat(new ServiceInstanceSnapshotFile(restored, this.properties, this.clock).restore()).isFalse();
+		assertThat(restored.size()).isZero();
+	}
+
+	@Test
+	public void servicesAreRestoredWithTheTimeTheyWereLoaded() {
+		ServiceInstanceCache cache = cache();
+		cache.get("billing").block();
+		this.clock.advance(Duration.ofMinutes(4));
+		cache.get("catalog").block();
+		new ServiceInstanceSnapshotFile(cache, this.properties, this.clock).write();
+		this.clock.advance(Duration.ofMinutes(2));
+
+		ServiceInstanceCache restored = cache();
+		assertThat(new ServiceInstanceSnapshotFile(restored, this.properties, this.clock).restore()).isTrue();
+
+		assertThat(restored.snapshot()).containsOnlyKeys("catalog");
+		assertThat(restored.getSnapshotAge()).isEqualTo(Duration.ofMinutes(2));
+	}
+
+	@Test
+	public void maxAgeMustNotExceedMaxStaleness() {
+		ServiceInstanceCache cache = cache();
+		cache.setMaxStaleness(Duration.ofMinutes(5));
+		this.properties.setMaxAge(Duration.ofMinutes(10));
+
+		assertThatIllegalArgumentException()
+				.isThrownBy(() -> new ServiceInstanceSnapshotFile(cache, this.properties, this.clock))
+				.withMessageContaining("maximum staleness");
+	}
+
+	@Test
+	public void corruptOrTruncatedSnapshotIsIgnored() throws Exception {
+		ServiceInstanceCache cache = cache();
+		cache.get("billing").block();
+		new ServiceInstanceSnapshotFile(cache, this.properties, this.clock).write();
+		byte[] bytes = Files.readAllBytes(this.path);
+
+		bytes[20] ^= 1;
+		Files.write(this.path, bytes);
+		assertThat(new ServiceInstanceSnapshotFile(cache(), this.properties, this.clock).restore()).isFalse();
+
+		Files.write(this.path, Arrays.copyOf(bytes, 10));
+		assertThat(new ServiceInstanceSnapshotFile(cache(), this.properties, this.clock).restore()).isFalse();
+	}
+
+	@Test
+	public void missingSnapshotIsIgnoredAndEmptyCacheIsNotWritten() {
+		this.properties.setPath(new File(this.directory.toFile(), "missing/discovery.snapshot"));
+		ServiceInstanceSnapshotFile file = new ServiceInstanceSnapshotFile(cache(), this.properties, this.clock);
+
+		assertThat(file.restore()).isFalse();
+		file.write();
+
+		assertThat(this.properties.getPath()).doesNotExist();
+	}
+
+	private ServiceInstanceCache cache() {
+		return new ServiceInstanceCache(this::load, Duration.ofSeconds(30), this.clock);
+	}
+
+	private Mono<List<ServiceInstance>> load(String serviceId) {
+		this.loads.incrementAndGet();
+		Map<String, String> metadata = new HashMap<>();
+		metadata.put("applicationId", serviceId + "-id");
+		metadata.put("zone", null);
+		return Mono.just(Collections.singletonList(new DefaultServiceInstance(serviceId + "-id.0", serviceId,
+				serviceId + ".apps.internal", 8080, true, metadata)));
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.DatagramDnsQuery;
+import io.netty.handler.codec.dns.DatagramDnsQueryDecoder;
+import io.netty.handler.codec.dns.DatagramDnsResponse;
+import io.netty.handler.codec.dns.DatagramDnsResponseEncoder;
+import io.netty.handler.codec.dns.DefaultDnsRawRecord;
+import io.netty.handler.codec.dns.DnsQuestion;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.util.NetUtil;
+
+/**
+ * In-process DNS server answering A, SRV and TXT queries from a mutable set of records,
+ * used to test the DNS based discovery clients without a real nameserver.
+ */
+public class TestDnsServer implements AutoCloseable {
+
+	private final Map<String, List<String>> addresses = new ConcurrentHashMap<>();
+
+	private final Map<String, List<ByteBuf>> services = new ConcurrentHashMap<>();
+
+	private final Map<String, List<ByteBuf>> texts = new ConcurrentHashMap<>();
+
+	private final AtomicInteger queries = new AtomicInteger();
+
+	private volatile int ttl = 60;
+
+	private final EventLoopGroup group = new NioEventLoopGroup(1);
+
+	private final Channel channel;
+
+	public TestDnsServer() throws InterruptedException {
+		this.channel = new Bootstrap().group(this.group).channel(NioDatagramChannel.class)
+				.handler(new ChannelInitializer<DatagramChannel>() {
+					@Override
+					protected void initChannel(DatagramChannel ch) {
+						ch.pipeline().addLast(new DatagramDnsQueryDecoder(), new DatagramDnsResponseEncoder(),
+								new QueryHandler());
+					}
+				}).bind("127.0.0.1", 0).sync().channel();
+	}
+
+	public TestDnsServer addresses(String hostname, String... ips) {
+		this.addresses.put(hostname, Arrays.asList(ips));
+		return this;
+	}
+
+	public TestDnsServer srv(String name, int priority, int weight, int port, String target) {
+		ByteBuf content = Unpooled.buffer().writeShort(priority).writeShort(weight).writeShort(port);
+		for (String label : target.split("\\.")) {
+			content.writeByte(label.length()).writeCharSequence(label, StandardCharsets.US_ASCII);
+		}
+		this.services.computeIfAbsent(name, key -> new ArrayList<>()).add(content.writeByte(0));
+		return this;
+	}
+
+	public TestDnsServer txt(String name, String... strings) {
+		ByteBuf content = Unpooled.buffer();
+		for (String string : strings) {
+			content.writeByte(string.length()).writeCharSequence(string, StandardCharsets.US_ASCII);
+		}
+		this.texts.computeIfAbsent(name, key -> new ArrayList<>()).add(content);
+		return this;
+	}
+
+	public TestDnsServer ttl(int ttl) {
+		this.ttl = ttl;
+		return this;
+	}
+
+	public String nameserver() {
+		return "127.0.0.1:" + ((InetSocketAddress) this.channel.localAddress()).getPort();
+	}
+
+	public int getQueryCount() {
+		return this.queries.get();
+	}
+
+	@Override
+	public void close() {
+		this.channel.close();
+		this.group.shutdownGracefully();
+	}
+
+	private class QueryHandler extends SimpleChannelInboundHandler<DatagramDnsQuery> {
+
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, DatagramDnsQuery query) {
+			DnsQuestion question = query.recordAt(DnsSection.QUESTION);
+			String name = question.name().endsWith(".") ? question.name().substring(0, question.name().length() - 1)
+					: question.name();
+			DatagramDnsResponse response = new DatagramDnsResponse(query.recipient(), query.sender(), query.id());
+			response.setRecursionAvailable(true);
+			response.addRecord(DnsSection.QUESTION, question);
+			if (question.type() == DnsRecordType.A) {
+				queries.incrementAndGet();
+			}
+			List<String> ips = addresses.get(name);
+			if (ips == null && !services.containsKey(name) && !texts.containsKey(name)) {
+				response.setCode(DnsResponseCode.NXDOMAIN);
+			}
+			else if (question.type() == DnsRecordType.A && ips != null) {
+				for (String ip : ips) {
+					response.addRecord(DnsSection.ANSWER, new DefaultDnsRawRecord(question.name(), DnsRecordType.A, ttl,
+							Unpooled.wrappedBuffer(NetUtil.createByteArrayFromIpAddressString(ip))));
+				}
+			}
+			else if (question.type() == DnsRecordType.SRV || question.type() == DnsRecordType.TXT) {
+				Map<String, List<ByteBuf>> records = (question.type() == DnsRecordType.SRV) ? services : texts;
+				for (ByteBuf content : records.getOrDefault(name, new ArrayList<>())) {
+					response.addRecord(DnsSection.ANSWER, new DefaultDnsRawRecord(question.name(), question.type(), ttl,
+							content.retainedDuplicate()));
+				}
+			}
+			ctx.writeAndFlush(response);
+		}
+
+	}
+
+}
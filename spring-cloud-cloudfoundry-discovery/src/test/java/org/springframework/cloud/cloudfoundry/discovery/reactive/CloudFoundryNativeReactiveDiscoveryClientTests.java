@@ -16,6 +16,9 @@
 
 package org.springframework.cloud.cloudfoundry.discovery.reactive;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.cloudfoundry.operations.CloudFoundryOperations;
@@ -29,6 +32,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
@@ -97,4 +101,22 @@ class CloudFoundryNativeReactiveDiscoveryClientTests {
 		StepVerifier.create(instances).expectNextCount(1).expectComplete().verify();
 	}
 
+	@Test
+	public void shouldReturnInstancesOfSeveralServices() {
+		when(this.properties.getBatchConcurrency()).thenReturn(2);
+		ApplicationDetail applicationDetail = ApplicationDetail.builder().id(UUID.randomUUID().toString())
+				.stack("stack").instances(1).memoryLimit(1024).requestedState("requestedState").diskQuota(1024)
+				.name("service").runningInstances(1).build();
+		InstanceDetail instanceDetail = InstanceDetail.builder().index("0").build();
+		when(this.svc.getApplicationInstances("service"))
+				.thenReturn(Flux.just(Tuples.of(applicationDetail, instanceDetail)));
+		when(this.svc.getApplicationInstances("other")).thenReturn(Flux.empty());
+		Mono<Map<String, List<ServiceInstance>>> instances = this.client
+				.getInstances(Arrays.asList("service", "other"));
+		StepVerifier.create(instances).assertNext(map -> {
+			assertThat(map.get("service")).hasSize(1);
+			assertThat(map.get("other")).isEmpty();
+		}).expectComplete().verify();
+	}
+
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery.reactive;
+
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author Tim Ysewyn
+ */
+class CloudFoundryReactiveHeartbeatSenderTests {
+
+	private final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+
+	private final AtomicInteger subscriptions = new AtomicInteger();
+
+	private final ReactiveDiscoveryClient client = mock(ReactiveDiscoveryClient.class);
+
+	@Test
+	public void publishesMaterializedListOfServices() throws Exception {
+		given(this.client.getServices())
+				.willReturn(Flux.just("billing", "catalog").doOnSubscribe(s -> this.subscriptions.incrementAndGet()));
+		CloudFoundryReactiveHeartbeatSender sender = new CloudFoundryReactiveHeartbeatSender(this.client);
+		sender.setApplicationEventPublisher(this.events::add);
+
+		sender.poll();
+
+		HeartbeatEvent event = (HeartbeatEvent) this.events.poll(5, TimeUnit.SECONDS);
+		assertThat(event).isNotNull();
+		assertThat(event.getValue()).asList().containsExactly("billing", "catalog");
+		assertThat(this.subscriptions).hasValue(1);
+	}
+
+	@Test
+	public void skipsPollWhileFetchIsRunningAndTimesOut() throws Exception {
+		given(this.client.getServices())
+				.willReturn(Flux.<String>never().doOnSubscribe(s -> this.subscriptions.incrementAndGet()));
+		CloudFoundryReactiveHeartbeatSender sender = new CloudFoundryReactiveHeartbeatSender(this.client,
+				Duration.ofMillis(200));
+		sender.setApplicationEventPublisher(this.events::add);
+
+		sender.poll();
+		sender.poll();
+		Thread.sleep(500);
+		sender.poll();
+		Thread.sleep(100);
+
+		assertThat(this.subscriptions).hasValue(2);
+		assertThat(this.events).isEmpty();
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.cloudfoundry.discovery.reactive;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.cloudfoundry.discovery.CloudFoundryDiscoveryProperties;
+import org.springframework.cloud.cloudfoundry.discovery.DnsResolver;
+import org.springframework.cloud.cloudfoundry.discovery.TestDnsServer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SimpleDnsBasedReactiveDiscoveryClientTests {
+
+	private TestDnsServer dnsServer;
+
+	private DnsResolver dnsResolver;
+
+	private SimpleDnsBasedReactiveDiscoveryClient client;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		this.dnsServer = new TestDnsServer().addresses("billing.apps.internal", "10.0.0.1", "10.0.0.2");
+		CloudFoundryDiscoveryProperties properties = new CloudFoundryDiscoveryProperties();
+		properties.getDns().setNameservers(Collections.singletonList(this.dnsServer.nameserver()));
+		properties.getDns().setQueryTimeout(Duration.ofSeconds(1));
+		this.dnsResolver = new DnsResolver(properties.getDns());
+		this.client = new SimpleDnsBasedReactiveDiscoveryClient(
+				serviceId -> serviceId + "." + properties.getInternalDomain(), this.dnsResolver);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		this.dnsResolver.destroy();
+		this.dnsServer.close();
+	}
+
+	@Test
+	public void shouldResolveInstancesFromDns() {
+		StepVerifier.create(this.client.getInstances("billing").map(ServiceInstance::getHost).collectList())
+				.assertNext(hosts -> assertThat(hosts).containsExactlyInAnyOrder("10.0.0.1", "10.0.0.2"))
+				.verifyComplete();
+	}
+
+	@Test
+	public void shouldReturnEmptyFluxForUnknownHost() {
+		StepVerifier.create(this.client.getInstances("unknown")).verifyComplete();
+	}
+
+	@Test
+	public void shouldResolveConcurrentLookupsBeyondQueryLimit() {
+		CloudFoundryDiscoveryProperties.Dns dns = new CloudFoundryDiscoveryProperties.Dns();
+		dns.setNameservers(Collections.singletonList(this.dnsServer.nameserver()));
+		dns.setMaxConcurrentQueries(1);
+		DnsResolver limited = new DnsResolver(dns);
+		try {
+			SimpleDnsBasedReactiveDiscoveryClient client = new SimpleDnsBasedReactiveDiscoveryClient(
+					serviceId -> serviceId + ".apps.internal", limited);
+			StepVerifier.create(client.getInstances("billing").mergeWith(client.getInstances("billing"))
+					.mergeWith(client.getInstances("billing"))).expectNextCount(6).verifyComplete();
+		}
+		finally {
+			limited.destroy();
+		}
+	}
+
+}